@@ -0,0 +1,146 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+import com.sk89q.craftbook.BlockType;
+
+/**
+ * Counts the bytes allocated by CraftBook for each redstone edge that
+ * does not reach a mechanic, which is most of them. The edges are sent
+ * to the listener as hMod would, against the in-memory world of the
+ * stand-in server. Exits with an error if any such edge allocates.
+ *
+ * Built with 'ant bench'.
+ *
+ * Usage: java -cp build-bench EdgeBenchmark [edges]
+ *
+ * @author sk89q
+ */
+public final class EdgeBenchmark {
+    private EdgeBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int edges = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        if (allocatedBytes() < 0) {
+            System.out.println("This JVM cannot count allocated bytes.");
+            System.exit(1);
+        }
+
+        CraftBook craftBook = new CraftBook();
+        craftBook.initialize();
+        craftBook.enable();
+        CraftBookListener listener =
+                (CraftBookListener)etc.getLoader().getListeners().get(0);
+        Server server = etc.getServer();
+
+        // A lone wire on stone, with stone and air around it
+        fill(server, 0, 0, 0, Server.SIZE - 1, 63, Server.SIZE - 1, BlockType.STONE);
+        server.setBlockAt(BlockType.REDSTONE_WIRE, 10, 64, 10);
+        server.setBlockAt(BlockType.STONE, 9, 64, 10);
+
+        // A line of wire
+        for (int x = 20; x < 30; x++) {
+            server.setBlockAt(BlockType.REDSTONE_WIRE, x, 64, 20);
+        }
+
+        // A lever on the side of a block
+        server.setBlockAt(BlockType.STONE, 40, 64, 40);
+        server.setBlockAt(BlockType.LEVER, 41, 64, 40);
+
+        boolean ok = true;
+        ok &= run("lone wire", listener, 10, 64, 10, edges);
+        ok &= run("wire in a line", listener, 25, 64, 20, edges);
+        ok &= run("lever", listener, 41, 64, 40, edges);
+
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * Send edges to a block and print what they allocated.
+     *
+     * @param name
+     * @param listener
+     * @param x
+     * @param y
+     * @param z
+     * @param edges
+     * @return false if the edges allocated
+     */
+    private static boolean run(String name, CraftBookListener listener,
+            int x, int y, int z, int edges) {
+        // Warm up, so that the JIT does not count
+        send(listener, x, y, z, edges / 10);
+
+        long empty = allocatedBytes();
+        empty = allocatedBytes() - empty;
+
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        send(listener, x, y, z, edges);
+        long nanos = System.nanoTime() - start;
+        long allocated = allocatedBytes() - bytes - empty;
+
+        System.out.println(String.format("%s: %.0f ns/edge, %.2f bytes/edge",
+                name, (double)nanos / edges, (double)allocated / edges));
+        return allocated <= 0;
+    }
+
+    private static void send(CraftBookListener listener, int x, int y, int z,
+            int edges) {
+        for (int i = 0; i < edges; i++) {
+            if ((i & 1) == 0) {
+                listener.onRedstoneChange(x, y, z, 0, 15);
+            } else {
+                listener.onRedstoneChange(x, y, z, 15, 0);
+            }
+        }
+    }
+
+    private static void fill(Server server, int x1, int y1, int z1,
+            int x2, int y2, int z2, int type) {
+        for (int x = x1; x <= x2; x++) {
+            for (int y = y1; y <= y2; y++) {
+                for (int z = z1; z <= z2; z++) {
+                    server.setBlockAt(type, x, y, z);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the bytes allocated by the current thread, if the JVM can tell.
+     *
+     * @return bytes, or -1
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        try {
+            Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+            Method m = type.getMethod("getThreadAllocatedBytes", long.class);
+            return (Long)m.invoke(bean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.io.File;
+
+import com.sk89q.craftbook.BlockType;
+import com.sk89q.craftbook.BlockVector;
+
+/**
+ * Checks that a self-clocked MC1230 with nothing wired to its input keeps
+ * working after CraftBook is loaded again, as it would be after a
+ * restart. The sign is only placed before the first load, and nothing
+ * touches it after the second.
+ *
+ * Built with 'ant bench'. Run from the craftbook directory, so that the
+ * built-in ICs are loaded from custom-ics.txt.
+ *
+ * Usage: java -cp build-bench ICClockCheck
+ *
+ * @author sk89q
+ */
+public final class ICClockCheck {
+    private static final int X = 10;
+    private static final int Y = 64;
+    private static final int Z = 10;
+    private static final int PERIOD = 20;
+
+    private ICClockCheck() {
+    }
+
+    public static void main(String[] args) {
+        Server server = etc.getServer();
+        boolean ok = true;
+
+        // An MC1230 on the side of a block, with a lever at its output
+        server.setBlockAt(BlockType.STONE, X - 1, Y, Z);
+        server.setBlockAt(BlockType.WALL_SIGN, X, Y, Z);
+        server.setBlockData(X, Y, Z, 5);
+        Sign sign = (Sign)server.getComplexBlock(X, Y, Z);
+        sign.setText(1, "[MC1230]");
+        sign.setText(2, String.valueOf(PERIOD));
+        long out = new ICInstance("MC1230", ICType.SISO, X, Y, Z, 5).getOutput(0);
+        int outX = BlockVector.unpackX(out);
+        int outY = BlockVector.unpackY(out);
+        int outZ = BlockVector.unpackZ(out);
+        server.setBlockAt(BlockType.LEVER, outX, outY, outZ);
+
+        CraftBook craftBook = load();
+        CraftBookListener listener = (CraftBookListener)etc.getLoader()
+                .getListeners().get(etc.getLoader().getListeners().size() - 1);
+        listener.onComplexBlockChange(new Player(), sign);
+
+        ok &= check("placed, day", server, 1000, true, outX, outY, outZ);
+        ok &= check("placed, night", server, 14000, false, outX, outY, outZ);
+
+        // Saves the clocks, like a restart
+        craftBook.disable();
+        craftBook.toggleEnabled();
+        craftBook = load();
+
+        ok &= check("reloaded, day", server, 1000, true, outX, outY, outZ);
+        ok &= check("reloaded, night", server, 14000, false, outX, outY, outZ);
+
+        craftBook.disable();
+        new File("craftbook-clocks.txt").delete();
+        new File("craftbook-receivers.txt").delete();
+
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static CraftBook load() {
+        CraftBook craftBook = new CraftBook();
+        craftBook.initialize();
+        craftBook.enable();
+        return craftBook;
+    }
+
+    /**
+     * Set the time and check the lever after the IC had time to think.
+     *
+     * @return false if the lever is wrong
+     */
+    private static boolean check(String name, Server server, long time,
+            boolean expected, int x, int y, int z) {
+        server.setRelativeTime(time);
+        for (int i = 0; i < PERIOD + 5; i++) {
+            TickPatch.runTick();
+        }
+
+        boolean on = (server.getBlockData(x, y, z) & 0x8) != 0;
+        System.out.println(name + ": lever " + (on ? "on" : "off")
+                + (on == expected ? "" : ", expected "
+                        + (expected ? "on" : "off")));
+        return on == expected;
+    }
+}
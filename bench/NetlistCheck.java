@@ -0,0 +1,209 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.io.File;
+
+import com.sk89q.craftbook.BlockType;
+import com.sk89q.craftbook.BlockVector;
+
+/**
+ * Checks that a plan does not take over an input that is also powered
+ * through a block. Two MC1000s are wired one after the other, and a
+ * block next to the wire between them gets a torch below it. The world
+ * has no redstone physics here, so the wire levels that Minecraft would
+ * set are set by hand.
+ *
+ * Built with 'ant bench'. Run from the craftbook directory, so that the
+ * built-in ICs are loaded from custom-ics.txt.
+ *
+ * Usage: java -cp build-bench NetlistCheck
+ *
+ * @author sk89q
+ */
+public final class NetlistCheck {
+    private static final int Y = 64;
+    private static final int Z = 10;
+    /**
+     * Sign of the first MC1000, which has a lever input.
+     */
+    private static final int FIRST_X = 12;
+    /**
+     * Sign of the second MC1000, which reads the wire.
+     */
+    private static final int SECOND_X = 4;
+    /**
+     * Block next to the wire, with the torch below it.
+     */
+    private static final int BLOCK_X = 6;
+    private static final int BLOCK_Z = Z + 1;
+
+    private NetlistCheck() {
+    }
+
+    public static void main(String[] args) {
+        Server server = etc.getServer();
+        PropertiesFile.set("ic-netlists", "true");
+
+        for (int x = 0; x < Server.SIZE; x++) {
+            for (int z = 0; z < Server.SIZE; z++) {
+                server.setBlockAt(BlockType.STONE, x, Y - 1, z);
+            }
+        }
+
+        Sign first = placeIC(server, FIRST_X);
+        Sign second = placeIC(server, SECOND_X);
+        ICInstance firstInst = new ICInstance("MC1000", ICType.SISO,
+                FIRST_X, Y, Z, 5);
+        ICInstance secondInst = new ICInstance("MC1000", ICType.SISO,
+                SECOND_X, Y, Z, 5);
+        long input = firstInst.getInput(0);
+        long output = secondInst.getOutput(0);
+
+        // Lever input on the ground, lever outputs on the IC blocks
+        setBlock(server, input, BlockType.LEVER, 5);
+        setBlock(server, firstInst.getOutput(0), BlockType.LEVER, 2);
+        setBlock(server, output, BlockType.LEVER, 2);
+
+        // Wire from the first output to the second input
+        int wireStart = BlockVector.unpackX(secondInst.getInput(0));
+        int wireEnd = BlockVector.unpackX(firstInst.getOutput(0)) - 1;
+        for (int x = wireStart; x <= wireEnd; x++) {
+            server.setBlockAt(BlockType.REDSTONE_WIRE, x, Y, Z);
+        }
+        server.setBlockAt(BlockType.STONE, BLOCK_X, Y, BLOCK_Z);
+
+        CraftBook craftBook = new CraftBook();
+        craftBook.initialize();
+        craftBook.enable();
+        CraftBookListener listener = (CraftBookListener)etc.getLoader()
+                .getListeners().get(etc.getLoader().getListeners().size() - 1);
+        listener.onComplexBlockChange(new Player(), first);
+        listener.onComplexBlockChange(new Player(), second);
+
+        boolean ok = true;
+
+        // Only the first IC powers the wire, so the plan is used
+        toggle(listener, server, input, true, wireStart, wireEnd);
+        ok &= check("lever on", server, output, true);
+        toggle(listener, server, input, false, wireStart, wireEnd);
+        ok &= check("lever off", server, output, false);
+
+        // A torch below the block powers the wire through it
+        server.setBlockAt(BlockType.REDSTONE_TORCH_ON, BLOCK_X, Y - 1, BLOCK_Z);
+        listener.onBlockCreate(new Player(),
+                new Block(BlockType.REDSTONE_TORCH_ON, BLOCK_X, Y - 1, BLOCK_Z),
+                new Block(BlockType.STONE, BLOCK_X, Y - 2, BLOCK_Z),
+                BlockType.REDSTONE_TORCH_ON);
+        setWire(listener, server, wireStart, wireEnd, 15);
+        ok &= check("torch", server, output, true);
+
+        toggle(listener, server, input, true, wireStart, wireEnd);
+        ok &= check("torch, lever on", server, output, true);
+        toggle(listener, server, input, false, wireStart, wireEnd);
+        ok &= check("torch, lever off", server, output, true);
+
+        craftBook.disable();
+        new File("craftbook-clocks.txt").delete();
+        new File("craftbook-receivers.txt").delete();
+
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * Place an MC1000 on the side of a block.
+     *
+     * @return the sign
+     */
+    private static Sign placeIC(Server server, int x) {
+        server.setBlockAt(BlockType.STONE, x - 1, Y, Z);
+        server.setBlockAt(BlockType.WALL_SIGN, x, Y, Z);
+        server.setBlockData(x, Y, Z, 5);
+        Sign sign = (Sign)server.getComplexBlock(x, Y, Z);
+        sign.setText(1, "[MC1000]");
+        return sign;
+    }
+
+    private static void setBlock(Server server, long pos, int type,
+            int data) {
+        int x = BlockVector.unpackX(pos);
+        int y = BlockVector.unpackY(pos);
+        int z = BlockVector.unpackZ(pos);
+        server.setBlockAt(type, x, y, z);
+        server.setBlockData(x, y, z, data);
+    }
+
+    /**
+     * Flip the input lever, and power the wire from the first output
+     * unless the torch already does.
+     */
+    private static void toggle(CraftBookListener listener, Server server,
+            long lever, boolean on, int wireStart, int wireEnd) {
+        int x = BlockVector.unpackX(lever);
+        int y = BlockVector.unpackY(lever);
+        int z = BlockVector.unpackZ(lever);
+        int data = server.getBlockData(x, y, z);
+        server.setBlockData(x, y, z, on ? data | 0x8 : data & 0x7);
+        listener.onRedstoneChange(x, y, z, on ? 0 : 15, on ? 15 : 0);
+        runTicks();
+
+        boolean torch = server.getBlockIdAt(BLOCK_X, Y - 1, BLOCK_Z)
+                == BlockType.REDSTONE_TORCH_ON;
+        if (!torch) {
+            setWire(listener, server, wireStart, wireEnd, on ? 15 : 0);
+        }
+    }
+
+    /**
+     * Set the level of the wire and tell CraftBook about it.
+     */
+    private static void setWire(CraftBookListener listener, Server server,
+            int wireStart, int wireEnd, int level) {
+        for (int x = wireStart; x <= wireEnd; x++) {
+            int old = server.getBlockData(x, Y, Z);
+            if (old == level) {
+                continue;
+            }
+            server.setBlockData(x, Y, Z, level);
+            listener.onRedstoneChange(x, Y, Z, old, level);
+        }
+        runTicks();
+    }
+
+    private static void runTicks() {
+        for (int i = 0; i < 5; i++) {
+            TickPatch.runTick();
+        }
+    }
+
+    /**
+     * Check the lever at the output of the second IC.
+     *
+     * @return false if the lever is wrong
+     */
+    private static boolean check(String name, Server server, long lever,
+            boolean expected) {
+        boolean on = (server.getBlockData(BlockVector.unpackX(lever),
+                BlockVector.unpackY(lever), BlockVector.unpackZ(lever))
+                & 0x8) != 0;
+        System.out.println(name + ": lever " + (on ? "on" : "off")
+                + (on == expected ? "" : ", expected "
+                        + (expected ? "on" : "off")));
+        return on == expected;
+    }
+}
@@ -0,0 +1,53 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+/**
+ * Stand-in for hMod's vehicle, for the benchmarks.
+ *
+ * @author sk89q
+ */
+public class BaseVehicle extends BaseEntity {
+    public Player getPassenger() {
+        return null;
+    }
+
+    public double getMotionX() {
+        return 0;
+    }
+
+    public double getMotionY() {
+        return 0;
+    }
+
+    public double getMotionZ() {
+        return 0;
+    }
+
+    public void setMotion(double x, double y, double z) {
+    }
+
+    public void setMotionX(double x) {
+    }
+
+    public void setMotionZ(double z) {
+    }
+
+    public void destroy() {
+    }
+}
@@ -0,0 +1,37 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+/**
+ * Stand-in for hMod's chat colours, for the benchmarks.
+ *
+ * @author sk89q
+ */
+public class Colors {
+    public static final String Black = "";
+    public static final String Blue = "";
+    public static final String Gold = "";
+    public static final String Gray = "";
+    public static final String Green = "";
+    public static final String LightGray = "";
+    public static final String LightGreen = "";
+    public static final String Red = "";
+    public static final String Rose = "";
+    public static final String White = "";
+    public static final String Yellow = "";
+}
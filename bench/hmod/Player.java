@@ -0,0 +1,62 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+/**
+ * Stand-in for hMod's player, for the benchmarks.
+ *
+ * @author sk89q
+ */
+public class Player extends BaseEntity {
+    public void sendMessage(String message) {
+    }
+
+    public boolean canUseCommand(String command) {
+        return true;
+    }
+
+    public boolean isAdmin() {
+        return false;
+    }
+
+    public String getName() {
+        return "";
+    }
+
+    public Location getLocation() {
+        return new Location();
+    }
+
+    public double getRotation() {
+        return 0;
+    }
+
+    public float getPitch() {
+        return 0;
+    }
+
+    public void teleportTo(Location location) {
+    }
+
+    public void teleportTo(double x, double y, double z, double rotation,
+            float pitch) {
+    }
+
+    public void giveItem(int id, int amount) {
+    }
+}
@@ -0,0 +1,65 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+/**
+ * Stand-in for hMod's plugin listener, for the benchmarks.
+ *
+ * @author sk89q
+ */
+public class PluginListener {
+    public enum Priority {
+        LOW, MEDIUM, HIGH, CRITICAL
+    }
+
+    public boolean onBlockCreate(Player player, Block blockPlaced,
+            Block blockClicked, int itemInHand) {
+        return false;
+    }
+
+    public boolean onBlockDestroy(Player player, Block block) {
+        return false;
+    }
+
+    public boolean onCommand(Player player, String[] split) {
+        return false;
+    }
+
+    public void onDisconnect(Player player) {
+    }
+
+    public boolean onComplexBlockChange(Player player, ComplexBlock block) {
+        return false;
+    }
+
+    public int onRedstoneChange(Block block, int oldLevel, int newLevel) {
+        return newLevel;
+    }
+
+    public void onVehicleUpdate(BaseVehicle vehicle) {
+    }
+
+    public void onVehiclePositionChange(BaseVehicle vehicle, int x, int y,
+            int z) {
+    }
+
+    public boolean onVehicleDamage(BaseVehicle vehicle, BaseEntity attacker,
+            int damage) {
+        return false;
+    }
+}
@@ -0,0 +1,58 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stand-in for hMod's plugin loader, for the benchmarks. It keeps the
+ * listeners of each hook so that the benchmarks can call them.
+ *
+ * @author sk89q
+ */
+public class PluginLoader {
+    public enum Hook {
+        BLOCK_CREATED, BLOCK_DESTROYED, COMMAND, DISCONNECT,
+        COMPLEX_BLOCK_CHANGE, SERVERCOMMAND, REDSTONE_CHANGE,
+        VEHICLE_POSITIONCHANGE, VEHICLE_UPDATE, VEHICLE_DAMAGE
+    }
+
+    private final List<PluginListener> listeners =
+            new ArrayList<PluginListener>();
+
+    public void addListener(Hook hook, PluginListener listener, Plugin plugin,
+            PluginListener.Priority priority) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    /**
+     * Get the listeners added for any hook.
+     *
+     * @return
+     */
+    public List<PluginListener> getListeners() {
+        return listeners;
+    }
+
+    public Plugin getPlugin(String name) {
+        return null;
+    }
+}
@@ -0,0 +1,78 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stand-in for hMod's properties file, for the benchmarks. Only
+ * the values set with {@link #set(String, String)} are read, so that the
+ * benchmarks do not depend on the files of the directory they run in.
+ *
+ * @author sk89q
+ */
+public class PropertiesFile {
+    private static final Map<String,String> values =
+            new HashMap<String,String>();
+
+    public PropertiesFile(String file) {
+    }
+
+    /**
+     * Set a value for all properties files.
+     *
+     * @param key
+     * @param value
+     */
+    public static void set(String key, String value) {
+        values.put(key, value);
+    }
+
+    public void load() throws IOException {
+    }
+
+    public boolean containsKey(String key) {
+        return values.containsKey(key);
+    }
+
+    public String getString(String key) {
+        return values.get(key);
+    }
+
+    public String getString(String key, String def) {
+        String value = values.get(key);
+        return value != null ? value : def;
+    }
+
+    public int getInt(String key, int def) {
+        String value = values.get(key);
+        return value != null ? Integer.parseInt(value) : def;
+    }
+
+    public long getLong(String key, long def) {
+        String value = values.get(key);
+        return value != null ? Long.parseLong(value) : def;
+    }
+
+    public boolean getBoolean(String key, boolean def) {
+        String value = values.get(key);
+        return value != null ? Boolean.parseBoolean(value) : def;
+    }
+}
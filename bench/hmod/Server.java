@@ -0,0 +1,128 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stand-in for hMod's server, for the benchmarks. It holds a world of
+ * {@link #SIZE} by 128 by {@link #SIZE} blocks in memory, with every block
+ * outside of it being air. Chunks can be marked as not loaded.
+ *
+ * @author sk89q
+ */
+public class Server {
+    public static final int SIZE = 64;
+    private static final int HEIGHT = 128;
+
+    private final byte[] ids = new byte[SIZE * HEIGHT * SIZE];
+    private final byte[] data = new byte[SIZE * HEIGHT * SIZE];
+    private final ComplexBlock[] complexBlocks =
+            new ComplexBlock[SIZE * HEIGHT * SIZE];
+    private final boolean[] unloaded = new boolean[(SIZE / 16) * (SIZE / 16)];
+    private final List<BaseEntity> entities = new ArrayList<BaseEntity>();
+    private long time;
+
+    private static int index(int x, int y, int z) {
+        if (x < 0 || x >= SIZE || y < 0 || y >= HEIGHT || z < 0 || z >= SIZE) {
+            return -1;
+        }
+        return (x * SIZE + z) * HEIGHT + y;
+    }
+
+    public int getBlockIdAt(int x, int y, int z) {
+        int index = index(x, y, z);
+        return index != -1 ? ids[index] & 0xFF : 0;
+    }
+
+    public int getBlockData(int x, int y, int z) {
+        int index = index(x, y, z);
+        return index != -1 ? data[index] & 0xF : 0;
+    }
+
+    public boolean setBlockAt(int type, int x, int y, int z) {
+        int index = index(x, y, z);
+        if (index == -1) {
+            return false;
+        }
+        ids[index] = (byte)type;
+        data[index] = 0;
+        complexBlocks[index] = type == 63 || type == 68 ? new Sign(x, y, z)
+                : type == 54 ? new Chest(x, y, z) : null;
+        return true;
+    }
+
+    public boolean setBlockData(int x, int y, int z, int data) {
+        int index = index(x, y, z);
+        if (index == -1) {
+            return false;
+        }
+        this.data[index] = (byte)data;
+        return true;
+    }
+
+    public ComplexBlock getComplexBlock(int x, int y, int z) {
+        int index = index(x, y, z);
+        return index != -1 ? complexBlocks[index] : null;
+    }
+
+    public boolean isChunkLoaded(int x, int y, int z) {
+        int index = index(x, 0, z);
+        return index != -1 && !unloaded[(x >> 4) * (SIZE / 16) + (z >> 4)];
+    }
+
+    /**
+     * Mark the chunk holding a block as loaded or not.
+     *
+     * @param x
+     * @param z
+     * @param loaded
+     */
+    public void setChunkLoaded(int x, int z, boolean loaded) {
+        unloaded[(x >> 4) * (SIZE / 16) + (z >> 4)] = !loaded;
+    }
+
+    public void updateBlockPhysics(int x, int y, int z, int data) {
+    }
+
+    public void dropItem(double x, double y, double z, int id) {
+    }
+
+    public void dropItem(double x, double y, double z, int id, int amount) {
+    }
+
+    public List<BaseEntity> getEntityList() {
+        return entities;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public long getRelativeTime() {
+        return time % 24000;
+    }
+
+    public void setRelativeTime(long time) {
+        this.time = time;
+    }
+
+    public void messageAll(String message) {
+    }
+}
@@ -0,0 +1,61 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Stand-in for the tick patch, for the benchmarks. The tasks are run
+ * by {@link #runTick()} instead of by the server.
+ *
+ * @author sk89q
+ */
+public class TickPatch {
+    private static final CopyOnWriteArrayList<Runnable> TASK_LIST =
+            new CopyOnWriteArrayList<Runnable>();
+
+    public static void applyPatch() {
+    }
+
+    public static void addTask(Runnable r) {
+        TASK_LIST.add(r);
+    }
+
+    public static CopyOnWriteArrayList<Runnable> getTaskList() {
+        return TASK_LIST;
+    }
+
+    public static Runnable wrapRunnable(final Plugin p, final Runnable r) {
+        return new Runnable() {
+            public void run() {
+                if (p.isEnabled()) {
+                    r.run();
+                }
+            }
+        };
+    }
+
+    /**
+     * Run the tasks of one tick.
+     */
+    public static void runTick() {
+        for (Runnable task : TASK_LIST) {
+            task.run();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import com.sk89q.worldedit.IncompleteRegionException;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.WorldEditNotInstalled;
+
+/**
+ * Stand-in for WorldEdit's bridge, for the benchmarks.
+ *
+ * @author sk89q
+ */
+public class WorldEditBridge {
+    public static Vector getRegionMinimumPoint(Player player)
+            throws IncompleteRegionException, WorldEditNotInstalled {
+        throw new WorldEditNotInstalled();
+    }
+
+    public static Vector getRegionMaximumPoint(Player player)
+            throws IncompleteRegionException, WorldEditNotInstalled {
+        throw new WorldEditNotInstalled();
+    }
+}
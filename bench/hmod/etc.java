@@ -0,0 +1,55 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+/**
+ * Stand-in for hMod's globals, for the benchmarks.
+ *
+ * @author sk89q
+ */
+public class etc {
+    private static final etc instance = new etc();
+    private static final Server server = new Server();
+    private static final PluginLoader loader = new PluginLoader();
+    private static final DataSource dataSource = new DataSource();
+    private static final MCServer mcServer = new MCServer();
+
+    public static etc getInstance() {
+        return instance;
+    }
+
+    public static Server getServer() {
+        return server;
+    }
+
+    public static PluginLoader getLoader() {
+        return loader;
+    }
+
+    public static DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public static MCServer getMCServer() {
+        return mcServer;
+    }
+
+    public static String getCompassPointForDirection(double degrees) {
+        return "";
+    }
+}
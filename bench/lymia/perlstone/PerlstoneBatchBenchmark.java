@@ -0,0 +1,248 @@
+/*    
+Craftbook
+Copyright (C) 2010 Lymia <lymiahugs@gmail.com>
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package lymia.perlstone;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import lymia.plc.PlcBase;
+import lymia.plc.PlcEvaluator;
+import lymia.plc.PlcProgram;
+
+import com.sk89q.craftbook.SignText;
+import com.sk89q.craftbook.Vector;
+import com.sk89q.craftbook.ic.ChipState;
+import com.sk89q.craftbook.ic.ICState;
+import com.sk89q.craftbook.ic.Signal;
+
+/**
+ * Times a tick of many PLCs running the Perlstone programs of a custom
+ * IC file and the built-in ones of {@link PerlstoneBenchmark}, first one
+ * after the other as the server does without plc-threads, and then in
+ * batches with a growing number of threads. The time to read the inputs
+ * and apply the results, which stays on the server thread, is shown
+ * apart from the time to run the programs. All runs must end with the
+ * same outputs and storage.
+ * 
+ * Built with 'ant bench'.
+ * 
+ * Usage: java -cp build-bench lymia.perlstone.PerlstoneBatchBenchmark [custom-ics.txt] [plcs] [ticks] [threads]
+ * 
+ * @author Lymia
+ */
+public final class PerlstoneBatchBenchmark {
+    private static final Vector ORIGIN = new Vector(0, 0, 0);
+
+    /**
+     * A PLC with a fixed program.
+     */
+    private static final class BenchmarkPlc extends PlcBase {
+        private final PlcProgram program;
+
+        BenchmarkPlc(String code) {
+            super(new Perlstone_1_0());
+            program = new PlcProgram(code);
+        }
+
+        public String getTitle() {
+            return "BENCHMARK";
+        }
+
+        protected String validateEnviromentEx(Vector v, SignText t) {
+            return null;
+        }
+
+        protected String getCode(Vector v) {
+            return program.getCode();
+        }
+
+        protected PlcProgram getProgram(Vector v) {
+            return program;
+        }
+    }
+
+    private final BenchmarkPlc[] plcs;
+    private final SignText[] texts;
+    private final ICState[] states;
+    private final int[] outputs;
+    private final ChipState[] chips;
+    /**
+     * Evaluation of each PLC, or null if it has an error.
+     */
+    private final PlcBase.Evaluation[] pending;
+    /**
+     * Evaluations of the batch.
+     */
+    private final PlcBase.Evaluation[] evaluations;
+    private long prepareNanos;
+    private long evaluateNanos;
+
+    private PerlstoneBatchBenchmark(List<String[]> programs, int count) {
+        plcs = new BenchmarkPlc[count];
+        texts = new SignText[count];
+        states = new ICState[count];
+        outputs = new int[count];
+        chips = new ChipState[count];
+        pending = new PlcBase.Evaluation[count];
+        evaluations = new PlcBase.Evaluation[count];
+
+        // PLCs share programs, as copies of a design do
+        BenchmarkPlc[] designs = new BenchmarkPlc[programs.size()];
+        for (int i = 0; i < designs.length; i++) designs[i] = new BenchmarkPlc(programs.get(i)[1]);
+        for (int i = 0; i < count; i++) {
+            plcs[i] = designs[i % designs.length];
+            texts[i] = new SignText("", "[MC5001]", plcs[i].program.getHashLine(), "AAAAAAAAAAAA");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String file = args.length > 0 ? args[0] : "custom-ics.txt";
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int ticks = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int maxThreads = args.length > 3 ? Integer.parseInt(args[3])
+                : Runtime.getRuntime().availableProcessors();
+
+        List<String[]> programs = new ArrayList<String[]>();
+        try {
+            programs.addAll(PerlstoneBenchmark.readPrograms(file));
+        } catch (IOException e) {
+            System.out.println("Could not read " + file + ": " + e.getMessage());
+        }
+        programs.addAll(Arrays.asList(PerlstoneBenchmark.BUILT_IN));
+
+        System.out.println(count + " PLCs, " + programs.size() + " programs, "
+                + Runtime.getRuntime().availableProcessors() + " processors");
+
+        for (int jit : new int[] {0, 1}) {
+            Perlstone_1_0.setJitThreshold(jit);
+            System.out.println(jit == 0 ? "Interpreted:" : "Compiled:");
+
+            PerlstoneBatchBenchmark serial = new PerlstoneBatchBenchmark(programs, count);
+            serial.runSerial(ticks / 4);
+            serial = new PerlstoneBatchBenchmark(programs, count);
+            long start = System.nanoTime();
+            serial.runSerial(ticks);
+            double serialNanos = (double)(System.nanoTime() - start) / ticks;
+            long expected = serial.checksum();
+            System.out.println(String.format("  serial:    %8.0f us/tick", serialNanos / 1000));
+
+            PlcEvaluator evaluator = new PlcEvaluator();
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                evaluator.setThreads(threads);
+                new PerlstoneBatchBenchmark(programs, count).runBatched(evaluator, ticks / 4);
+
+                PerlstoneBatchBenchmark batched = new PerlstoneBatchBenchmark(programs, count);
+                start = System.nanoTime();
+                batched.runBatched(evaluator, ticks);
+                double nanos = (double)(System.nanoTime() - start) / ticks;
+                System.out.println(String.format("  %2d thread%s %8.0f us/tick (%.2fx), %.0f us reading and applying, %.0f us running",
+                        threads, threads == 1 ? ": " : "s:", nanos / 1000, serialNanos / nanos,
+                        (double)batched.prepareNanos / ticks / 1000,
+                        (double)batched.evaluateNanos / ticks / 1000)
+                        + (batched.checksum() == expected ? "" : " RESULTS DIFFER"));
+            }
+            evaluator.shutdown();
+        }
+        Perlstone_1_0.setJitThreshold(0);
+    }
+
+    /**
+     * Get the inputs of a PLC in a tick, as they would come from the world.
+     * 
+     * @param plc
+     * @param tick
+     * @return
+     */
+    private static int inputs(int plc, int tick) {
+        int h = plc * 0x9E3779B9 + tick * 0x85EBCA6B;
+        h ^= h >>> 15;
+        h *= 0x2C1B3C6D;
+        return h >>> 29;
+    }
+
+    private ChipState newChip(int plc, int tick) {
+        int in = inputs(plc, tick);
+        int out = outputs[plc];
+        Signal[] ins = new Signal[3];
+        Signal[] outs = new Signal[3];
+        for (int n = 0; n < 3; n++) {
+            ins[n] = new Signal((in >> n & 1) != 0, true);
+            outs[n] = new Signal((out >> n & 1) != 0);
+        }
+        ChipState chip = new ChipState(ORIGIN, ORIGIN, ins, outs, texts[plc]);
+        chip.setState(states[plc]);
+        return chip;
+    }
+
+    private void keep(int plc, ChipState chip) {
+        states[plc] = chip.getState();
+        outputs[plc] = chip.getOutputMask();
+    }
+
+    private void runSerial(int ticks) {
+        for (int tick = 0; tick < ticks; tick++) {
+            for (int i = 0; i < plcs.length; i++) {
+                ChipState chip = newChip(i, tick);
+                plcs[i].think(chip);
+                keep(i, chip);
+            }
+        }
+    }
+
+    private void runBatched(PlcEvaluator evaluator, int ticks) {
+        for (int tick = 0; tick < ticks; tick++) {
+            long start = System.nanoTime();
+            int count = 0;
+            for (int i = 0; i < plcs.length; i++) {
+                ChipState chip = newChip(i, tick);
+                chips[i] = chip;
+                pending[i] = plcs[i].prepare(chip);
+                states[i] = chip.getState();
+                if (pending[i] != null) evaluations[count++] = pending[i];
+            }
+            long evaluateStart = System.nanoTime();
+            evaluator.evaluate(evaluations, count);
+            long evaluateEnd = System.nanoTime();
+
+            for (int i = 0; i < plcs.length; i++) {
+                if (pending[i] != null) pending[i].apply(chips[i]);
+                keep(i, chips[i]);
+            }
+            evaluateNanos += evaluateEnd - evaluateStart;
+            prepareNanos += System.nanoTime() - start - (evaluateEnd - evaluateStart);
+        }
+    }
+
+    /**
+     * Hash the outputs and storage of all PLCs.
+     * 
+     * @return
+     */
+    private long checksum() {
+        long hash = 0;
+        for (int i = 0; i < plcs.length; i++) {
+            if (states[i] != null) states[i].write(texts[i]);
+            hash = hash * 31 + outputs[i];
+            hash = hash * 31 + (texts[i].getLine2() + texts[i].getLine3() + texts[i].getLine4()).hashCode();
+        }
+        return hash;
+    }
+}
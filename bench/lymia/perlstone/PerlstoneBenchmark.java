@@ -0,0 +1,223 @@
+/*    
+Craftbook
+Copyright (C) 2010 Lymia <lymiahugs@gmail.com>
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package lymia.perlstone;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import lymia.plc.PlcException;
+import lymia.plc.PlcLang;
+import lymia.plc.State;
+
+/**
+ * Compares {@link Perlstone_1_0}, interpreted and then compiled to JVM
+ * code, with {@link ReferencePerlstone} on the Perlstone programs of a
+ * custom IC file and a few built-in ones. They are first checked to give
+ * the same results for every input, and then timed. Allocation is
+ * measured where the JVM supports it.
+ * 
+ * Built with 'ant bench'.
+ * 
+ * Usage: java -cp build-bench lymia.perlstone.PerlstoneBenchmark [custom-ics.txt] [ticks]
+ * 
+ * @author Lymia
+ */
+public final class PerlstoneBenchmark {
+    static final String[][] BUILT_IN = {
+        {"toggle", "Lp0!dSp0r"},
+        {"xor3", "ABc032Cc032r:::^r"},
+        {"loop", "+[Lt0!dSt0]Lt0r"},
+    };
+
+    public static void main(String[] args) throws Exception {
+        String file = args.length > 0 ? args[0] : "custom-ics.txt";
+        int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+
+        List<String[]> programs = new ArrayList<String[]>();
+        try {
+            programs.addAll(readPrograms(file));
+        } catch (IOException e) {
+            System.out.println("Could not read " + file + ": " + e.getMessage());
+        }
+        programs.addAll(Arrays.asList(BUILT_IN));
+
+        PlcLang reference = new ReferencePerlstone();
+        PlcLang perlstone = new Perlstone_1_0();
+
+        for (String[] program : programs) {
+            String name = program[0];
+            String code = program[1];
+
+            // Interpreted first, since a compiled program stays compiled
+            Perlstone_1_0.setJitThreshold(0);
+            String mismatch = compare(reference, perlstone, code);
+            if (mismatch != null) {
+                System.out.println(name + ": results differ: " + mismatch);
+                continue;
+            }
+
+            // Warm up both before timing either
+            measure(reference, code, ticks / 10);
+            measure(perlstone, code, ticks / 10);
+            double[] before = measure(reference, code, ticks);
+            double[] interpreted = measure(perlstone, code, ticks);
+
+            Perlstone_1_0.setJitThreshold(1);
+            mismatch = compare(reference, perlstone, code);
+            if (mismatch != null) {
+                System.out.println(name + ": compiled results differ: " + mismatch);
+                continue;
+            }
+            boolean jit = PerlstoneJit.compile(PerlstoneCompiler.compile(code)) != null;
+            measure(perlstone, code, ticks / 10);
+            double[] compiled = measure(perlstone, code, ticks);
+
+            System.out.println(name + ": " + PerlstoneCompiler.compile(code).getAnalysis());
+            System.out.println("  " + format(before)
+                    + " -> " + format(interpreted) + String.format(" (%.1fx)", before[0] / interpreted[0])
+                    + " -> " + (jit ? "" : "not compiled, ") + format(compiled)
+                    + String.format(" (%.1fx)", before[0] / compiled[0]));
+        }
+        Perlstone_1_0.setJitThreshold(0);
+    }
+
+    /**
+     * Read the Perlstone programs of a custom IC file.
+     * 
+     * @param file
+     * @return pairs of name and program
+     * @throws IOException
+     */
+    static List<String[]> readPrograms(String file) throws IOException {
+        List<String[]> programs = new ArrayList<String[]>();
+        BufferedReader r = new BufferedReader(new FileReader(file));
+        try {
+            String name = null;
+            StringBuilder code = null;
+            String line;
+            while ((line = r.readLine()) != null) {
+                String trimmed = line.trim();
+                if (code != null) {
+                    if (trimmed.equals("end")) {
+                        programs.add(new String[] {name, code.toString()});
+                        code = null;
+                    } else {
+                        code.append(line).append('\n');
+                    }
+                } else if (trimmed.startsWith("//") || !trimmed.contains("/perlstone_v1.0 ")) {
+                    continue;
+                } else if (trimmed.endsWith("= begin")) {
+                    name = trimmed.split("\\s+")[1];
+                    code = new StringBuilder();
+                }
+            }
+        } finally {
+            r.close();
+        }
+        return programs;
+    }
+
+    /**
+     * Check that two languages give the same results for every input.
+     * 
+     * @param a
+     * @param b
+     * @param code
+     * @return a description of the first difference, or null
+     */
+    private static String compare(PlcLang a, PlcLang b, String code) {
+        int[] storage = {0, 0x80000000, 0x55AA55AA, 0xFFFFFFFF};
+        for (int input = 0; input < 8; input++) {
+            for (int pvt : storage) {
+                String ra = run(a, code, input, pvt);
+                String rb = run(b, code, input, pvt);
+                if (!ra.equals(rb)) return "input " + input + ": " + ra + " / " + rb;
+            }
+        }
+        return null;
+    }
+
+    private static String run(PlcLang lang, String code, int input, int pvt) {
+        State s = newState(input);
+        s.presistantStorage = new byte[] {(byte)(pvt >>> 24), (byte)(pvt >>> 16), (byte)(pvt >>> 8), (byte)pvt, 0, 0};
+        try {
+            return Arrays.toString(lang.tick(s, code)) + Arrays.toString(s.presistantStorage);
+        } catch (PlcException e) {
+            return "error: " + e.getMessage();
+        }
+    }
+
+    private static State newState(int input) {
+        State s = new State();
+        s.input = new boolean[] {(input & 1) != 0, (input & 2) != 0, (input & 4) != 0};
+        s.presistantStorage = new byte[9];
+        return s;
+    }
+
+    /**
+     * Time a program over all inputs.
+     * 
+     * @param lang
+     * @param code
+     * @param ticks
+     * @return nanoseconds and bytes allocated per tick (-1 if unknown)
+     */
+    private static double[] measure(PlcLang lang, String code, int ticks) throws PlcException {
+        State[] states = new State[8];
+        for (int i = 0; i < states.length; i++) states[i] = newState(i);
+
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ticks; i++) {
+            lang.tick(states[i & 7], code);
+        }
+        long nanos = System.nanoTime() - start;
+        long allocated = allocatedBytes() - bytes;
+
+        return new double[] {(double)nanos / ticks, bytes < 0 ? -1 : (double)allocated / ticks};
+    }
+
+    private static String format(double[] result) {
+        return String.format("%.0f ns/tick, ", result[0])
+                + (result[1] < 0 ? "? bytes/tick" : String.format("%.0f bytes/tick", result[1]));
+    }
+
+    /**
+     * Get the bytes allocated by the current thread, if the JVM can tell.
+     * 
+     * @return bytes, or -1
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        try {
+            Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+            Method m = type.getMethod("getThreadAllocatedBytes", long.class);
+            return (Long)m.invoke(bean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+/**
+ * Snapshot of the 3x3x3 blocks around a point. Each block ID and data
+ * value is read from the world at most once, the first time it is asked
+ * for, so overlapping checks around the same point share their reads.
+ *
+ * <p>A snapshot is only valid while the world is unchanged. Callers must
+ * finish with it before doing anything that may change blocks, and it may
+ * be reused for another point by calling {@link #reset(int, int, int)}.</p>
+ *
+ * @author sk89q
+ */
+public class BlockNeighborhood {
+    /**
+     * Center of the snapshot.
+     */
+    private int x;
+    private int y;
+    private int z;
+    /**
+     * Block IDs, indexed by {@link #index(int, int, int)}.
+     */
+    private final int[] ids = new int[27];
+    /**
+     * Block data values, indexed by {@link #index(int, int, int)}.
+     */
+    private final int[] data = new int[27];
+    /**
+     * Bit set of the IDs that have been read.
+     */
+    private int idsRead;
+    /**
+     * Bit set of the data values that have been read.
+     */
+    private int dataRead;
+
+    /**
+     * Point the snapshot at a new center, forgetting everything read.
+     *
+     * @param x
+     * @param y
+     * @param z
+     */
+    public void reset(int x, int y, int z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        idsRead = 0;
+        dataRead = 0;
+    }
+
+    /**
+     * Get the X coordinate of the center.
+     *
+     * @return
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * Get the Y coordinate of the center.
+     *
+     * @return
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Get the Z coordinate of the center.
+     *
+     * @return
+     */
+    public int getZ() {
+        return z;
+    }
+
+    /**
+     * Get the index of an offset. Offsets must be between -1 and 1.
+     *
+     * @param dx
+     * @param dy
+     * @param dz
+     * @return
+     */
+    private static int index(int dx, int dy, int dz) {
+        return (dx + 1) * 9 + (dy + 1) * 3 + (dz + 1);
+    }
+
+    /**
+     * Get the block ID at an offset from the center.
+     *
+     * @param dx
+     * @param dy
+     * @param dz
+     * @return
+     */
+    public int getID(int dx, int dy, int dz) {
+        int i = index(dx, dy, dz);
+        if ((idsRead & (1 << i)) == 0) {
+            ids[i] = CraftBook.getBlockID(x + dx, y + dy, z + dz);
+            idsRead |= 1 << i;
+        }
+        return ids[i];
+    }
+
+    /**
+     * Get the block data at an offset from the center.
+     *
+     * @param dx
+     * @param dy
+     * @param dz
+     * @return
+     */
+    public int getData(int dx, int dy, int dz) {
+        int i = index(dx, dy, dz);
+        if ((dataRead & (1 << i)) == 0) {
+            data[i] = CraftBook.getBlockData(x + dx, y + dy, z + dz);
+            dataRead |= 1 << i;
+        }
+        return data[i];
+    }
+}
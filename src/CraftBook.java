@@ -43,14 +43,39 @@ public class CraftBook extends Plugin {
     
     private final RedstoneDelayer delay = new RedstoneDelayer(listener);
 
+    private final RedstoneCoalescer coalescer =
+            new RedstoneCoalescer(listener);
+
+    private final MechanicExecutor executor = new MechanicExecutor();
+
+    private final PlcBatch plcBatch = new PlcBatch(listener, delay);
+
+    /**
+     * Data values that are faked until they are written or cleared, keyed
+     * by packed position. Used for data that the world does not have yet,
+     * such as the level of a wire while its change is being handled and
+     * the lever outputs waiting for the end of the tick.
+     */
+    private static final LongIntHashMap fakeData = new LongIntHashMap(64);
+    /**
+     * Block IDs and data values read while CraftBook's tasks run, keyed by
+     * packed position. Each value holds the ID in the first byte and the
+     * data in the second, with flags telling which of the two are known.
+     */
+    private static final LongIntHashMap readCache = new LongIntHashMap(1024);
+    private static final int CACHED_ID = 0x10000;
+    private static final int CACHED_DATA = 0x20000;
     /**
-     * Used to fake the data value at a point.
+     * Indicates whether reads are cached.
      */
-    private static BlockVector fakeDataPos;
+    private static boolean readCacheEnabled;
     /**
-     * Used to fake the data value at a point.
+     * Indicates whether CraftBook's tasks are running, so that reads go
+     * through the cache.
      */
-    private static int fakeDataVal;
+    private static boolean readCacheActive;
+    private static long readCacheHits;
+    private static long readCacheMisses;
     /**
      * Cached CraftBook version.
      */
@@ -68,6 +93,7 @@ public class CraftBook extends Plugin {
         registerHook("COMMAND", PluginListener.Priority.MEDIUM);
         registerHook("DISCONNECT", PluginListener.Priority.MEDIUM);
         registerHook("COMPLEX_BLOCK_CHANGE", PluginListener.Priority.MEDIUM);
+        registerHook("SERVERCOMMAND", PluginListener.Priority.MEDIUM);
 
         if (!registerHook("REDSTONE_CHANGE", PluginListener.Priority.MEDIUM)) {
             logger.log(Level.WARNING, "CraftBook: Your version of hMod is "
@@ -84,7 +110,45 @@ public class CraftBook extends Plugin {
             registerHook("VEHICLE_DAMAGE", PluginListener.Priority.MEDIUM);
         }
         
+        // Only CraftBook's own tasks read through the cache. The world
+        // tick and the hooks called from it change blocks without telling
+        // CraftBook, so the cache is emptied and left before they run
+        TickPatch.addTask(TickPatch.wrapRunnable(this, new Runnable() {
+            public void run() {
+                beginReadCache();
+            }
+        }));
+        TickPatch.addTask(TickPatch.wrapRunnable(this, coalescer));
+        TickPatch.addTask(TickPatch.wrapRunnable(this, new Runnable() {
+            public void run() {
+                listener.tickThrottle();
+            }
+        }));
+        TickPatch.addTask(TickPatch.wrapRunnable(this, new Runnable() {
+            public void run() {
+                listener.tickICClock();
+            }
+        }));
+        TickPatch.addTask(TickPatch.wrapRunnable(this, executor));
+        TickPatch.addTask(TickPatch.wrapRunnable(this, plcBatch));
+        TickPatch.addTask(TickPatch.wrapRunnable(this, new Runnable() {
+            public void run() {
+                listener.tickICNetlists();
+            }
+        }));
         TickPatch.addTask(TickPatch.wrapRunnable(this, delay));
+        TickPatch.addTask(TickPatch.wrapRunnable(this, new Runnable() {
+            public void run() {
+                listener.tickICStates();
+                listener.tickReceivers();
+                listener.tickICProfiler();
+            }
+        }));
+        TickPatch.addTask(TickPatch.wrapRunnable(this, new Runnable() {
+            public void run() {
+                endReadCache();
+            }
+        }));
     }
 
     /**
@@ -119,7 +183,13 @@ public class CraftBook extends Plugin {
      * Disables the plugin.
      */
     @Override
-    public void disable() {}
+    public void disable() {
+        // Finishes queued PLC ticks and stops the threads
+        plcBatch.setThreads(0);
+        listener.flushICStates();
+        listener.saveICs();
+        endReadCache();
+    }
 
     /**
      * Get the CraftBook version.
@@ -150,36 +220,89 @@ public class CraftBook extends Plugin {
         return delay;
     }
 
+    public RedstoneCoalescer getCoalescer() {
+        return coalescer;
+    }
+
+    public MechanicExecutor getExecutor() {
+        return executor;
+    }
+
+    public PlcBatch getPlcBatch() {
+        return plcBatch;
+    }
+
     protected static int getBlockID(int x, int y, int z) {
-        return etc.getServer().getBlockIdAt(x, y, z);
+        if (!readCacheActive) {
+            return etc.getServer().getBlockIdAt(x, y, z);
+        }
+
+        long key = BlockVector.toLong(x, y, z);
+        int index = readCache.indexOf(key);
+        int cached = index != -1 ? readCache.valueAt(index) : 0;
+
+        if ((cached & CACHED_ID) != 0) {
+            readCacheHits++;
+            return cached & 0xFF;
+        }
+
+        readCacheMisses++;
+        int id = etc.getServer().getBlockIdAt(x, y, z);
+        if (index != -1) {
+            readCache.setValueAt(index, cached | CACHED_ID | id & 0xFF);
+        } else {
+            readCache.put(key, CACHED_ID | id & 0xFF);
+        }
+        return id;
     }
 
     protected static int getBlockID(Vector pt) {
-        return etc.getServer().getBlockIdAt(pt.getBlockX(),
-                pt.getBlockY(), pt.getBlockZ());
+        return getBlockID(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
     }
 
     protected static int getBlockData(int x, int y, int z) {
-        if (fakeDataPos != null
-                && fakeDataPos.toBlockVector().equals(new BlockVector(x, y, z))) {
-            return fakeDataVal;
+        if (!fakeData.isEmpty()) {
+            int index = fakeData.indexOf(BlockVector.toLong(x, y, z));
+            if (index != -1) {
+                return fakeData.valueAt(index);
+            }
+        }
+
+        if (!readCacheActive) {
+            return etc.getServer().getBlockData(x, y, z);
+        }
+
+        long key = BlockVector.toLong(x, y, z);
+        int index = readCache.indexOf(key);
+        int cached = index != -1 ? readCache.valueAt(index) : 0;
+
+        if ((cached & CACHED_DATA) != 0) {
+            readCacheHits++;
+            return (cached >> 8) & 0xFF;
+        }
+
+        readCacheMisses++;
+        int data = etc.getServer().getBlockData(x, y, z);
+        if (index != -1) {
+            readCache.setValueAt(index, cached | CACHED_DATA | (data & 0xFF) << 8);
+        } else {
+            readCache.put(key, CACHED_DATA | (data & 0xFF) << 8);
         }
-        return etc.getServer().getBlockData(x, y, z);
+        return data;
     }
 
     protected static int getBlockData(Vector pt) {
-        if (fakeDataPos != null
-                && fakeDataPos.equals(pt.toBlockVector())) {
-            return fakeDataVal;
-        }
-        return etc.getServer().getBlockData(pt.getBlockX(),
-                pt.getBlockY(), pt.getBlockZ());
+        return getBlockData(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
     }
 
     protected static boolean setBlockID(int x, int y, int z, int type) {
         if (y < 127 && BlockType.isBottomDependentBlock(getBlockID(x, y + 1, z))) {
+            clearFakeBlockData(x, y + 1, z);
+            invalidateBlock(x, y + 1, z);
             etc.getServer().setBlockAt(0, x, y + 1, z);
         }
+        clearFakeBlockData(x, y, z);
+        invalidateBlock(x, y, z);
         return etc.getServer().setBlockAt(type, x, y, z);
     }
 
@@ -188,6 +311,8 @@ public class CraftBook extends Plugin {
     }
 
     protected static boolean setBlockData(int x, int y, int z, int data) {
+        clearFakeBlockData(x, y, z);
+        invalidateBlock(x, y, z);
         return etc.getServer().setBlockData(x, y, z, data);
     }
 
@@ -196,21 +321,81 @@ public class CraftBook extends Plugin {
     }
 
     public static void dropSign(int x, int y, int z) {
+        invalidateBlock(x, y, z);
         etc.getServer().setBlockAt(0, x, y, z);
         etc.getServer().dropItem(x, y, z, 323);
     }
 
     protected static void fakeBlockData(int x, int y, int z, int data) {
-        fakeDataPos = new BlockVector(x, y, z);
-        fakeDataVal = data;
+        fakeData.put(BlockVector.toLong(x, y, z), data);
     }
 
     protected static void fakeBlockData(Vector pt, int data) {
-        fakeDataPos = pt.toBlockVector();
-        fakeDataVal = data;
+        fakeBlockData(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ(), data);
+    }
+
+    protected static void clearFakeBlockData(int x, int y, int z) {
+        if (!fakeData.isEmpty()) {
+            fakeData.remove(BlockVector.toLong(x, y, z));
+        }
     }
 
     protected static void clearFakeBlockData() {
-        fakeDataPos = null;
+        fakeData.clear();
+    }
+
+    /**
+     * Forget the cached reads of a block. Must be called for every block
+     * that changes without going through CraftBook.
+     *
+     * @param x
+     * @param y
+     * @param z
+     */
+    protected static void invalidateBlock(int x, int y, int z) {
+        if (readCacheActive && !readCache.isEmpty()) {
+            readCache.remove(BlockVector.toLong(x, y, z));
+        }
+    }
+
+    /**
+     * Start reading through the cache, if it is enabled. Called before
+     * CraftBook's tasks run.
+     */
+    protected static void beginReadCache() {
+        readCache.clear();
+        readCacheActive = readCacheEnabled;
+    }
+
+    /**
+     * Forget all cached reads and read from the server again. Called after
+     * CraftBook's tasks run.
+     */
+    protected static void endReadCache() {
+        readCache.clear();
+        readCacheActive = false;
+    }
+
+    /**
+     * Enable or disable the caching of reads within CraftBook's tasks.
+     *
+     * @param enabled
+     */
+    protected static void setReadCacheEnabled(boolean enabled) {
+        readCache.clear();
+        readCacheEnabled = enabled;
+        readCacheActive = false;
+    }
+
+    protected static boolean isReadCacheEnabled() {
+        return readCacheEnabled;
+    }
+
+    protected static long getReadCacheHits() {
+        return readCacheHits;
+    }
+
+    protected static long getReadCacheMisses() {
+        return readCacheMisses;
     }
 }
@@ -35,6 +35,7 @@ import lymia.customic.CustomICAccepter;
 import lymia.customic.CustomICException;
 import lymia.customic.CustomICLoader;
 import lymia.perlstone.Perlstone_1_0;
+import lymia.plc.PlcBase;
 
 /**
  * Event listener for Hey0's server mod.
@@ -50,6 +51,14 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
      * Deprecated block source types.
      */
     private static final List<String> DEPRECATED_SOURCES = Arrays.asList(new String[]{"unlimited-black-hole"});
+    /**
+     * File that wireless receivers are saved to.
+     */
+    private static final String RECEIVERS_FILE = "craftbook-receivers.txt";
+    /**
+     * File that the positions of self-clocked ICs are saved to.
+     */
+    private static final String CLOCKS_FILE = "craftbook-clocks.txt";
     /** 
      * Block source types.
      */
@@ -123,11 +132,81 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
      */
     private Map<String,RegisteredIC> icList = 
             new HashMap<String,RegisteredIC>();
+    /**
+     * Index of mechanic signs for redstone handling.
+     */
+    private MechanicSignIndex signIndex = new MechanicSignIndex();
+    /**
+     * Positions of the inputs and outputs of ICs, keyed by the packed
+     * position of the sign.
+     */
+    private LongHashMap<ICInstance> icInstances =
+            new LongHashMap<ICInstance>(64);
+    /**
+     * Schedules self-clocked ICs by the packed position of their sign.
+     */
+    private TimingWheel icClock = new TimingWheel(256);
+    /**
+     * Passed as the changed input when an IC thinks on its own. It is not
+     * a block position, as Y is out of range.
+     */
+    private static final long NO_INPUT = -1;
+    /**
+     * Ticks until a self-clocked IC in a chunk that is not loaded is
+     * looked at again.
+     */
+    private static final int UNLOADED_CLOCK_TICKS = 100;
+    /**
+     * Bands of wireless transmitters and receivers.
+     */
+    private WirelessBands bands = new WirelessBands();
+    /**
+     * Wireless receivers whose band changed while their chunk was not
+     * loaded, by packed position.
+     */
+    private final LongIntHashMap deferredReceivers = new LongIntHashMap(16);
+    /**
+     * Ticks between looks at the deferred receivers.
+     */
+    private static final int DEFERRED_RECEIVER_TICKS = 20;
+    private int ticksSinceReceiverCheck;
+    /**
+     * Compiled groups of simple gate ICs that are wired to each other.
+     */
+    private ICNetlists netlists = new ICNetlists(this);
     
     /**
-     * The block that was changed.
+     * The block that was changed, packed with {@link BlockVector#toLong}.
+     */
+    private long changedRedstoneInput;
+    /**
+     * Blocks around the block that was changed.
+     */
+    private final BlockNeighborhood edgeArea = new BlockNeighborhood();
+    /**
+     * Blocks around a block whose inputs are being tested.
+     */
+    private final BlockNeighborhood inputArea = new BlockNeighborhood();
+    /**
+     * Redstone statistics.
+     */
+    private final MechanicStats stats = new MechanicStats();
+    /**
+     * Kind of the mechanic last triggered, for statistics.
      */
-    private BlockVector changedRedstoneInput;
+    private MechanicKind dispatchedKind = MechanicKind.NONE;
+    /**
+     * Limits how often mechanics can be triggered.
+     */
+    private final MechanicThrottle throttle = new MechanicThrottle();
+    /**
+     * Measures the time taken by ICs.
+     */
+    private final ICProfiler icProfiler = new ICProfiler();
+    /**
+     * Code of PLCs by column.
+     */
+    private final PlcCodeCache plcCodes = new PlcCodeCache();
 
     /**
      * Indicates whether each function should check permissions when using.
@@ -181,6 +260,13 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
     private int minecartTriggerBlock = BlockType.IRON_ORE;
     private int minecartEjectBlock = BlockType.IRON_BLOCK;
 
+    private boolean redstoneCoalesce = false;
+    /**
+     * Ticks between writes of changed IC state to signs.
+     */
+    private int icStateFlushTicks = 100;
+    private int ticksSinceICStateFlush;
+
     private boolean rsLock = false;
 
     /**
@@ -190,6 +276,17 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
      */
     public CraftBookListener(CraftBook craftBook) {
         this.craftBook = craftBook;
+
+        bands.setListener(new WirelessBands.Listener() {
+            public boolean receiverChanged(long pos, boolean state) {
+                return setReceiverOutput(pos, state);
+            }
+        });
+        signIndex.setListener(new MechanicSignIndex.Listener() {
+            public void signParsed(long key, Sign sign, MechanicSign mechanic) {
+                startIC(key, sign, mechanic);
+            }
+        });
     }
 
     /**
@@ -279,6 +376,27 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
         redstoneICs = properties.getBoolean("redstone-ics", true);
         redstonePLCs = properties.getBoolean("redstone-plcs", true);
         redstonePLCsRequirePermission = properties.getBoolean("redstone-plcs-require-permission", false);
+        redstoneCoalesce = properties.getBoolean("redstone-coalesce", false);
+        icStateFlushTicks = Math.max(1, properties.getInt("ic-state-flush-ticks", 100));
+        icProfiler.setEnabled(properties.getBoolean("ic-profile", false));
+        icProfiler.setLogInterval(properties.getInt("ic-profile-log-minutes", 10));
+        netlists.clear();
+        plcCodes.clear();
+        netlists.setEnabled(properties.getBoolean("ic-netlists", false));
+        netlists.setDepth(properties.getInt("ic-netlist-depth", 0));
+        Perlstone_1_0.setJitThreshold(properties.getInt("perlstone-jit-threshold", 0));
+        CraftBook.setReadCacheEnabled(properties.getBoolean("block-read-cache", false));
+        stats.setEnabled(properties.getBoolean("redstone-stats", false));
+        craftBook.getExecutor().setBudget(properties.getLong("mechanic-tick-budget", 0));
+        craftBook.getPlcBatch().setThreads(properties.getInt("plc-threads", 0));
+        throttle.setEnabled(properties.getBoolean("throttle-enable", false));
+        loadThrottleLimit(MechanicKind.GATE, "gate", 4, 2);
+        loadThrottleLimit(MechanicKind.BRIDGE, "bridge", 4, 2);
+        loadThrottleLimit(MechanicKind.IC, "ic", 40, 20);
+        loadThrottleLimit(MechanicKind.PLC, "plc", 40, 20);
+        loadThrottleLimit(MechanicKind.PUMPKIN, "pumpkin", 20, 10);
+        loadThrottleLimit(MechanicKind.DISPENSER, "dispenser", 4, 1);
+        loadThrottleLimit(MechanicKind.STATION, "station", 20, 10);
         enableAmmeter = properties.getBoolean("ammeter", true);
         minecartControlBlocks = properties.getBoolean("minecart-control-blocks", true);
         hinderPressurePlateMinecartSlow = properties.getBoolean("hinder-minecart-pressure-plate-slow", true);
@@ -350,8 +468,26 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
                 e.printStackTrace();
             }
         }
+
+        loadReceivers();
+        loadClocks();
     }
     
+    /**
+     * Loads the throttle limit of a kind of mechanic.
+     *
+     * @param kind
+     * @param name
+     * @param burst
+     * @param rate
+     */
+    private void loadThrottleLimit(MechanicKind kind, String name,
+            int burst, int rate) {
+        throttle.setLimit(kind,
+                properties.getInt("throttle-" + name + "-burst", burst),
+                properties.getInt("throttle-" + name + "-rate", rate));
+    }
+
     private void addDefaultICs() {
         internalRegisterIC("MC1000", new MC1000(), ICType.SISO);
         internalRegisterIC("MC1001", new MC1001(), ICType.SISO);
@@ -359,8 +495,8 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
         internalRegisterIC("MC1018", new MC1018(), ICType.SISO);
         internalRegisterIC("MC1020", new MC1020(), ICType.SISO);
         internalRegisterIC("MC1025", new MC1025(), ICType.SISO);
-        internalRegisterIC("MC1110", new MC1110(), ICType.SISO);
-        internalRegisterIC("MC1111", new MC1111(), ICType.SISO);
+        internalRegisterIC("MC1110", new MC1110(bands), ICType.SISO);
+        internalRegisterIC("MC1111", new MC1111(bands), ICType.SISO);
         internalRegisterIC("MC1200", new MC1200(), ICType.SISO);
         internalRegisterIC("MC1201", new MC1201(), ICType.SISO);
         internalRegisterIC("MC1202", new MC1202(), ICType.SISO);
@@ -369,6 +505,7 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
         internalRegisterIC("MC1225", new MC1225(), ICType.SISO);
         internalRegisterIC("MC1230", new MC1230(), ICType.SISO);
         internalRegisterIC("MC1231", new MC1231(), ICType.SISO);
+        internalRegisterIC("MC1422", new MC1422(), ICType.SISO);
         internalRegisterIC("MC2020", new MC2020(), ICType.SI3O);
         internalRegisterIC("MC3020", new MC3020(), ICType._3ISO);
         internalRegisterIC("MC3002", new MC3002(), ICType._3ISO);
@@ -388,8 +525,8 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
         internalRegisterIC("MC4110", new MC4110(), ICType._3I3O);
         internalRegisterIC("MC4200", new MC4200(), ICType._3I3O);
         
-        internalRegisterIC("MC5000", new DefaultPLC(new Perlstone_1_0()), ICType.VIVO, true);
-        internalRegisterIC("MC5001", new DefaultPLC(new Perlstone_1_0()), ICType._3I3O, true);
+        internalRegisterIC("MC5000", new DefaultPLC(new Perlstone_1_0(), plcCodes), ICType.VIVO, true);
+        internalRegisterIC("MC5001", new DefaultPLC(new Perlstone_1_0(), plcCodes), ICType._3I3O, true);
     }
     
     private void internalRegisterIC(String name, IC ic, ICType type) {
@@ -408,6 +545,34 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
      */
     @Override
     public boolean onBlockDestroy(Player player, Block block) {
+        // The block may be gone once this returns
+        try {
+            return doBlockDestroy(player, block);
+        } finally {
+            CraftBook.invalidateBlock(block.getX(), block.getY(), block.getZ());
+        }
+    }
+
+    /**
+     * Called when a block is hit with the primary attack.
+     * 
+     * @param player
+     * @param block
+     * @return
+     */
+    private boolean doBlockDestroy(Player player, Block block) {
+        // Called for every hit, but only status 3 breaks the block
+        if (block.getStatus() == 3 || CraftBook.getBlockID(block.getX(),
+                block.getY(), block.getZ()) == BlockType.AIR) {
+            signIndex.remove(block.getX(), block.getY(), block.getZ());
+            long key = BlockVector.toLong(block.getX(), block.getY(), block.getZ());
+            dropICInstance(key, true);
+            icClock.cancel(key);
+            bands.unsubscribe(key);
+            netlists.invalidate(block.getX(), block.getY(), block.getZ());
+            plcCodes.invalidate(block.getX(), block.getZ());
+        }
+
         // Random apple drops
         if (dropAppleChance > 0 && block.getType() == BlockType.LEAVES
                 && checkPermission(player, "/appledrops")) {
@@ -446,18 +611,48 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
             Block blockClicked, int itemInHand) {
         try {
             return doBlockCreate(player, blockPlaced, blockClicked, itemInHand);
-        } catch (OutOfBlocksException e) {
-            player.sendMessage(Colors.Rose + "Uh oh! Ran out of: " + toBlockName(e.getID()));
+        } catch (BlockSourceException e) {
+            reportBlockSourceException(player, e);
+        } finally {
+            // The block is placed once this returns
+            if (blockPlaced != null) {
+                CraftBook.invalidateBlock(blockPlaced.getX(),
+                        blockPlaced.getY(), blockPlaced.getZ());
+                netlists.invalidate(blockPlaced.getX(),
+                        blockPlaced.getY(), blockPlaced.getZ());
+                plcCodes.invalidate(blockPlaced.getX(), blockPlaced.getZ());
+            }
+            if (blockClicked != null) {
+                CraftBook.invalidateBlock(blockClicked.getX(),
+                        blockClicked.getY(), blockClicked.getZ());
+                netlists.invalidate(blockClicked.getX(),
+                        blockClicked.getY(), blockClicked.getZ());
+            }
+        }
+
+        return true; // On error
+    }
+
+    /**
+     * Tell a player about a block source problem.
+     *
+     * @param player
+     * @param e
+     */
+    private void reportBlockSourceException(Player player,
+            BlockSourceException e) {
+        if (e instanceof OutOfBlocksException) {
+            player.sendMessage(Colors.Rose + "Uh oh! Ran out of: "
+                    + toBlockName(((OutOfBlocksException)e).getID()));
             player.sendMessage(Colors.Rose + "Make sure nearby block sources have the necessary");
             player.sendMessage(Colors.Rose + "materials.");
-        } catch (OutOfSpaceException e) {
-            player.sendMessage(Colors.Rose + "No room left to put: " + toBlockName(e.getID()));
+        } else if (e instanceof OutOfSpaceException) {
+            player.sendMessage(Colors.Rose + "No room left to put: "
+                    + toBlockName(((OutOfSpaceException)e).getID()));
             player.sendMessage(Colors.Rose + "Make sure nearby block sources have free slots.");
-        } catch (BlockSourceException e) {
+        } else {
             player.sendMessage(Colors.Rose + "Error: " + e.getMessage());
         }
-
-        return true; // On error
     }
 
     /**
@@ -469,7 +664,7 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
      * @param itemInHand
      * @return
      */
-    private boolean doBlockCreate(Player player, Block blockPlaced,
+    private boolean doBlockCreate(final Player player, Block blockPlaced,
             Block blockClicked, int itemInHand) throws BlockSourceException {
 
         int current = -1;
@@ -572,28 +767,54 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
                 // Gate
                 if (gateSwitchModule != null && line2.equalsIgnoreCase("[Gate]")
                         && checkPermission(player, "/gate")) {
-                    BlockSource bag = getBlockSource(pt);
-                    bag.addSourcePosition(pt);
-
                     informUser(player);
 
-                    // A gate may toggle or not
-                    if (gateSwitchModule.toggleGates(pt, bag)) {
-                        player.sendMessage(Colors.Gold + "*screeetch* Gate moved!");
-                    } else {
-                        player.sendMessage(Colors.Rose + "No nearby gate to toggle.");
-                    }
+                    final GateSwitch gates = gateSwitchModule;
+                    final Vector gatePt = pt;
+                    craftBook.getExecutor().execute(new Runnable() {
+                        public void run() {
+                            BlockSource bag = getBlockSource(gatePt);
+                            bag.addSourcePosition(gatePt);
+
+                            // A gate may toggle or not
+                            try {
+                                if (gates.toggleGates(gatePt, bag)) {
+                                    player.sendMessage(Colors.Gold + "*screeetch* Gate moved!");
+                                } else {
+                                    player.sendMessage(Colors.Rose + "No nearby gate to toggle.");
+                                }
+                            } catch (BlockSourceException e) {
+                                reportBlockSourceException(player, e);
+                            }
+                        }
+                    });
                 
                 // Light switch
                 } else if (lightSwitchModule != null &&
                         (line2.equalsIgnoreCase("[|]") || line2.equalsIgnoreCase("[I]"))
                         && checkPermission(player, "/lightswitch")) {
-                    BlockSource bag = getBlockSource(pt);
-                    bag.addSourcePosition(pt);
+                    if (!lightSwitchModule.hasStateTorch(pt)) {
+                        return false;
+                    }
 
                     informUser(player);
-                    
-                    return lightSwitchModule.toggleLights(pt, bag);
+
+                    final LightSwitch lights = lightSwitchModule;
+                    final Vector switchPt = pt;
+                    craftBook.getExecutor().execute(new Runnable() {
+                        public void run() {
+                            BlockSource bag = getBlockSource(switchPt);
+                            bag.addSourcePosition(switchPt);
+
+                            try {
+                                lights.toggleLights(switchPt, bag);
+                            } catch (BlockSourceException e) {
+                                reportBlockSourceException(player, e);
+                            }
+                        }
+                    });
+
+                    return true;
 
                 // Elevator
                 } else if (elevatorModule != null
@@ -624,64 +845,80 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
 
                     informUser(player);
 
-                    try {
-                        BlockSource bag = getBlockSource(pt);
-                        bag.addSourcePosition(pt);
-                        CuboidCopy copy = copies.load(name);
-                        if (copy.distance(pt) <= 4) {
-                            copy.toggle(bag);
-                            
-                            // Get missing
-                            Map<Integer,Integer> missing = bag.getMissing();
-                            if (missing.size() > 0) {
-                                for (Map.Entry<Integer,Integer> entry : missing.entrySet()) {
-                                    player.sendMessage(Colors.Rose + "Missing "
-                                            + entry.getValue() + "x "
-                                            + toBlockName(entry.getKey()));
+                    final String areaName = name;
+                    final Vector areaPt = pt;
+                    craftBook.getExecutor().execute(new Runnable() {
+                        public void run() {
+                            try {
+                                BlockSource bag = getBlockSource(areaPt);
+                                bag.addSourcePosition(areaPt);
+                                CuboidCopy copy = copies.load(areaName);
+                                if (copy.distance(areaPt) <= 4) {
+                                    copy.toggle(bag);
+
+                                    // Get missing
+                                    Map<Integer,Integer> missing = bag.getMissing();
+                                    if (missing.size() > 0) {
+                                        for (Map.Entry<Integer,Integer> entry : missing.entrySet()) {
+                                            player.sendMessage(Colors.Rose + "Missing "
+                                                    + entry.getValue() + "x "
+                                                    + toBlockName(entry.getKey()));
+                                        }
+                                    } else {
+                                        player.sendMessage(Colors.Gold + "Toggled!");
+                                    }
+                                } else {
+                                    player.sendMessage(Colors.Rose + "This sign is too far away!");
                                 }
-                            } else {
-                                player.sendMessage(Colors.Gold + "Toggled!");
+                            } catch (CuboidCopyException e) {
+                                player.sendMessage(Colors.Rose + "Could not load area: " + e.getMessage());
+                            } catch (IOException e2) {
+                                player.sendMessage(Colors.Rose + "Could not load area: " + e2.getMessage());
+                            } catch (BlockSourceException e3) {
+                                reportBlockSourceException(player, e3);
                             }
-                        } else {
-                            player.sendMessage(Colors.Rose + "This sign is too far away!");
                         }
-                    } catch (CuboidCopyException e) {
-                        player.sendMessage(Colors.Rose + "Could not load area: " + e.getMessage());
-                    } catch (IOException e2) {
-                        player.sendMessage(Colors.Rose + "Could not load area: " + e2.getMessage());
-                    }
+                    });
 
                 // Bridges
                 } else if (bridgeModule != null
                         && blockClicked.getType() == BlockType.SIGN_POST
                         && line2.equalsIgnoreCase("[Bridge]")
                         && checkPermission(player, "/bridge")) {
-                    int data = CraftBook.getBlockData(x, y, z);
-
                     informUser(player);
 
-                    try {
-                        BlockSource bag = getBlockSource(pt);
-                        bag.addSourcePosition(pt);
-                        
-                        if (data == 0x0) {
-                            bridgeModule.toggleBridge(new Vector(x, y, z), Bridge.Direction.EAST, bag);
-                            player.sendMessage(Colors.Gold + "Bridge toggled.");
-                        } else if (data == 0x4) {
-                            bridgeModule.toggleBridge(new Vector(x, y, z), Bridge.Direction.SOUTH, bag);
-                            player.sendMessage(Colors.Gold + "Bridge toggled.");
-                        } else if (data == 0x8) {
-                            bridgeModule.toggleBridge(new Vector(x, y, z), Bridge.Direction.WEST, bag);
-                            player.sendMessage(Colors.Gold + "Bridge toggled.");
-                        } else if (data == 0xC) {
-                            bridgeModule.toggleBridge(new Vector(x, y, z), Bridge.Direction.NORTH, bag);
-                            player.sendMessage(Colors.Gold + "Bridge toggled.");
-                        } else {
-                            player.sendMessage(Colors.Rose + "That sign is not in a right direction.");
+                    final Bridge bridges = bridgeModule;
+                    final Vector bridgePt = pt;
+                    craftBook.getExecutor().execute(new Runnable() {
+                        public void run() {
+                            int data = CraftBook.getBlockData(bridgePt);
+
+                            try {
+                                BlockSource bag = getBlockSource(bridgePt);
+                                bag.addSourcePosition(bridgePt);
+
+                                if (data == 0x0) {
+                                    bridges.toggleBridge(bridgePt, Bridge.Direction.EAST, bag);
+                                    player.sendMessage(Colors.Gold + "Bridge toggled.");
+                                } else if (data == 0x4) {
+                                    bridges.toggleBridge(bridgePt, Bridge.Direction.SOUTH, bag);
+                                    player.sendMessage(Colors.Gold + "Bridge toggled.");
+                                } else if (data == 0x8) {
+                                    bridges.toggleBridge(bridgePt, Bridge.Direction.WEST, bag);
+                                    player.sendMessage(Colors.Gold + "Bridge toggled.");
+                                } else if (data == 0xC) {
+                                    bridges.toggleBridge(bridgePt, Bridge.Direction.NORTH, bag);
+                                    player.sendMessage(Colors.Gold + "Bridge toggled.");
+                                } else {
+                                    player.sendMessage(Colors.Rose + "That sign is not in a right direction.");
+                                }
+                            } catch (OperationException e) {
+                                player.sendMessage(Colors.Rose + e.getMessage());
+                            } catch (BlockSourceException e) {
+                                reportBlockSourceException(player, e);
+                            }
                         }
-                    } catch (OperationException e) {
-                        player.sendMessage(Colors.Rose + e.getMessage());
-                    }
+                    });
                 }
             }
 
@@ -717,11 +954,19 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
     * @param newLevel the new current
     */
     public int onRedstoneChange(Block block, int oldLevel, int newLevel) {
-        return onRedstoneChange(new BlockVector(block.getX(),block.getY(),block.getZ()),oldLevel,newLevel);
+        return onRedstoneChange(block.getX(), block.getY(), block.getZ(),
+                oldLevel, newLevel);
     }
     public int onRedstoneChange(BlockVector v, int oldLevel, int newLevel) {
+        return onRedstoneChange(v.getBlockX(), v.getBlockY(), v.getBlockZ(),
+                oldLevel, newLevel);
+    }
+    public int onRedstoneChange(int x, int y, int z, int oldLevel, int newLevel) {
+        // The level is stored once this returns
+        CraftBook.invalidateBlock(x, y, z);
+
         if(rsLock) {
-            craftBook.getDelay().delayRsChange(v, oldLevel, newLevel);
+            craftBook.getDelay().delayRsChange(x, y, z, oldLevel, newLevel);
             return newLevel;
         }
         
@@ -740,15 +985,55 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
             return newLevel;
         }
 
-        int x = v.getBlockX();
-        int y = v.getBlockY();
-        int z = v.getBlockZ();
+        // Handle the edge once the tick is over, along with the other
+        // edges of the tick
+        if (redstoneCoalesce) {
+            craftBook.getCoalescer().add(x, y, z, oldLevel, newLevel);
+            return newLevel;
+        }
+
+        dispatchRedstoneChange(x, y, z, oldLevel, newLevel);
+
+        return newLevel;
+    }
+
+    /**
+     * Handles a change between off and on at a block.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param oldLevel
+     * @param newLevel
+     */
+    void dispatchRedstoneChange(int x, int y, int z, int oldLevel, int newLevel) {
+        if (!stats.isEnabled()) {
+            doRedstoneChange(x, y, z, oldLevel, newLevel);
+            return;
+        }
+
+        long start = System.nanoTime();
+        doRedstoneChange(x, y, z, oldLevel, newLevel);
+        stats.recordEdge(System.nanoTime() - start);
+    }
+
+    /**
+     * Handles a change between off and on at a block.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param oldLevel
+     * @param newLevel
+     */
+    private void doRedstoneChange(int x, int y, int z, int oldLevel, int newLevel) {
+        boolean isOn = newLevel >= 1;
 
         int type = CraftBook.getBlockID(x, y, z);
         //Unused
         //int above = CraftBook.getBlockID(x, y + 1, z);
 
-        changedRedstoneInput = new BlockVector(x, y, z);
+        changedRedstoneInput = BlockVector.toLong(x, y, z);
 
         // When this hook has been called, the level in the world has not
         // yet been updated, so we're going to do this very ugly thing of
@@ -783,66 +1068,79 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
                 // Fake data
                 CraftBook.fakeBlockData(x, y, z, newLevel);
 
-                int westSide = CraftBook.getBlockID(x, y, z + 1);
-                int westSideAbove = CraftBook.getBlockID(x, y + 1, z + 1);
-                int westSideBelow = CraftBook.getBlockID(x, y - 1, z + 1);
-                int eastSide = CraftBook.getBlockID(x, y, z - 1);
-                int eastSideAbove = CraftBook.getBlockID(x, y + 1, z - 1);
-                int eastSideBelow = CraftBook.getBlockID(x, y - 1, z - 1);
-
-                int northSide = CraftBook.getBlockID(x - 1, y, z);
-                int northSideAbove = CraftBook.getBlockID(x - 1, y + 1, z);
-                int northSideBelow = CraftBook.getBlockID(x - 1, y - 1, z);
-                int southSide = CraftBook.getBlockID(x + 1, y, z);
-                int southSideAbove = CraftBook.getBlockID(x + 1, y + 1, z);
-                int southSideBelow = CraftBook.getBlockID(x + 1, y - 1, z);
+                // Work out the direction before handling any input, as
+                // mechanics may change the blocks around the wire
+                edgeArea.reset(x, y, z);
 
                 // Make sure that the wire points to only this block
-                if (!BlockType.isRedstoneBlock(westSide)
-                        && !BlockType.isRedstoneBlock(eastSide)
-                        && (!BlockType.isRedstoneBlock(westSideAbove) || westSide == 0)
-                        && (!BlockType.isRedstoneBlock(eastSideAbove) || eastSide == 0)
-                        && (!BlockType.isRedstoneBlock(westSideBelow) || westSide != 0)
-                        && (!BlockType.isRedstoneBlock(eastSideBelow) || eastSide != 0)) {
+                boolean northSouth = !isWireConnectedSideways(edgeArea, 0, 1);
+                boolean westEast = !isWireConnectedSideways(edgeArea, 1, 0);
+
+                if (northSouth) {
                     // Possible blocks north / south
-                    handleDirectWireInput(new Vector(x - 1, y, z), isOn);
-                    handleDirectWireInput(new Vector(x + 1, y, z), isOn);
+                    handleDirectWireInput(x - 1, y, z, isOn);
+                    handleDirectWireInput(x + 1, y, z, isOn);
                 }
 
-                if (!BlockType.isRedstoneBlock(northSide)
-                        && !BlockType.isRedstoneBlock(southSide)
-                        && (!BlockType.isRedstoneBlock(northSideAbove) || northSide == 0)
-                        && (!BlockType.isRedstoneBlock(southSideAbove) || southSide == 0)
-                        && (!BlockType.isRedstoneBlock(northSideBelow) || northSide != 0)
-                        && (!BlockType.isRedstoneBlock(southSideBelow) || southSide != 0)) {
+                if (westEast) {
                     // Possible blocks west / east
-                    handleDirectWireInput(new Vector(x, y, z - 1), isOn);
-                    handleDirectWireInput(new Vector(x, y, z + 1), isOn);
+                    handleDirectWireInput(x, y, z - 1, isOn);
+                    handleDirectWireInput(x, y, z + 1, isOn);
                 }
 
                 // Can be triggered from below
-                handleDirectWireInput(new Vector(x, y + 1, z), isOn);
+                handleDirectWireInput(x, y + 1, z, isOn);
 
-                return newLevel;
+                return;
             }
 
             // For redstone wires, the code already exited this method
             // Non-wire blocks proceed
 
-            handleDirectWireInput(new Vector(x - 1, y, z), isOn);
-            handleDirectWireInput(new Vector(x + 1, y, z), isOn);
-            handleDirectWireInput(new Vector(x, y, z - 1), isOn);
-            handleDirectWireInput(new Vector(x, y, z + 1), isOn);
+            handleDirectWireInput(x - 1, y, z, isOn);
+            handleDirectWireInput(x + 1, y, z, isOn);
+            handleDirectWireInput(x, y, z - 1, isOn);
+            handleDirectWireInput(x, y, z + 1, isOn);
 
             // Can be triggered from below
-            handleDirectWireInput(new Vector(x, y + 1, z), isOn);
+            handleDirectWireInput(x, y + 1, z, isOn);
 
-            return newLevel;
+            return;
         } finally {
-            CraftBook.clearFakeBlockData();
+            CraftBook.clearFakeBlockData(x, y, z);
+            CraftBook.invalidateBlock(x, y, z);
         }
     }
 
+    /**
+     * Checks whether the wire at the center of an area connects to the
+     * blocks at (dx, dz) and (-dx, -dz) from it, either on the same level,
+     * up a step or down a step.
+     *
+     * @param area
+     * @param dx
+     * @param dz
+     * @return
+     */
+    private static boolean isWireConnectedSideways(BlockNeighborhood area,
+            int dx, int dz) {
+        int side1 = area.getID(dx, 0, dz);
+        if (BlockType.isRedstoneBlock(side1)) {
+            return true;
+        }
+        int side2 = area.getID(-dx, 0, -dz);
+        if (BlockType.isRedstoneBlock(side2)) {
+            return true;
+        }
+
+        // Wires one step up are considered when the side is not air,
+        // and wires one step down when it is
+        return BlockType.isRedstoneBlock(
+                    area.getID(dx, side1 != 0 ? 1 : -1, dz))
+                || BlockType.isRedstoneBlock(
+                    area.getID(-dx, side2 != 0 ? 1 : -1, -dz));
+    }
+
     /**
      * Handles the wire input at a block in the case when the wire is
      * directly connected to the block in question only.
@@ -852,13 +1150,50 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
      * @param z
      * @param isOn
      */
-    public void handleDirectWireInput(Vector pt, boolean isOn) {
-        int type = CraftBook.getBlockID(pt);
-        
+    public void handleDirectWireInput(int x, int y, int z, boolean isOn) {
+        int type = CraftBook.getBlockID(x, y, z);
+
+        // Most blocks next to a wire are not mechanics, so leave before
+        // a Vector is made for the block
+        if (type != BlockType.PUMPKIN && type != BlockType.JACKOLANTERN
+                && type != BlockType.CHEST && type != minecartStationBlock
+                && type != BlockType.WALL_SIGN && type != BlockType.SIGN_POST) {
+            return;
+        }
+
+        if (!stats.isEnabled()) {
+            handleMechanicInput(new Vector(x, y, z), type, isOn);
+            return;
+        }
+
+        MechanicKind outerKind = dispatchedKind;
+        dispatchedKind = MechanicKind.NONE;
+        long start = System.nanoTime();
+        try {
+            handleMechanicInput(new Vector(x, y, z), type, isOn);
+        } finally {
+            stats.record(dispatchedKind, x, y, z, System.nanoTime() - start);
+            dispatchedKind = outerKind;
+        }
+    }
+
+    /**
+     * Handles the wire input at a block that may be a mechanic.
+     *
+     * @param pt
+     * @param type
+     * @param isOn
+     */
+    private void handleMechanicInput(Vector pt, int type, boolean isOn) {
         // Redstone pumpkins
         if (redstonePumpkins
                 && (type == BlockType.PUMPKIN || type == BlockType.JACKOLANTERN)) {
-            Boolean useOn = testAnyRedstoneInput(pt);
+            if (!startMechanic(MechanicKind.PUMPKIN, pt, isOn)) {
+                return;
+            }
+
+            Boolean useOn = testAnyRedstoneInput(
+                    pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
 
             if (useOn != null && useOn) {
                 CraftBook.setBlockID(pt, BlockType.JACKOLANTERN);
@@ -875,11 +1210,15 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
             
             Vector signPos = pt.add(0, -2, 0);
 
-            if (!doesSignSay(signPos, 1, "[Dispenser]")) {
+            if (!isMechanicSign(signPos, MechanicKind.DISPENSER)) {
                 signPos = pt.add(0, -1, 0);
             }
 
-            if (!doesSignSay(signPos, 1, "[Dispenser]")) {
+            if (!isMechanicSign(signPos, MechanicKind.DISPENSER)) {
+                return;
+            }
+
+            if (!startMechanic(MechanicKind.DISPENSER, pt, isOn)) {
                 return;
             }
 
@@ -912,23 +1251,21 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
                 && CraftBook.getBlockID(pt.add(0, 1, 0)) == BlockType.MINECART_TRACKS
                 && (CraftBook.getBlockID(pt.add(0, -2, 0)) == BlockType.SIGN_POST
                     || CraftBook.getBlockID(pt.add(0, -1, 0)) == BlockType.SIGN_POST)) {
-            ComplexBlock cblock = etc.getServer().getComplexBlock(
+            MechanicSign mechanic = signIndex.get(
                     pt.getBlockX(), pt.getBlockY() - 2, pt.getBlockZ());
 
             // Maybe it's the sign directly below
-            if (cblock == null || !(cblock instanceof Sign)) {
-                cblock = etc.getServer().getComplexBlock(
+            if (mechanic == null) {
+                mechanic = signIndex.get(
                         pt.getBlockX(), pt.getBlockY() - 1, pt.getBlockZ());
             }
 
-            if (cblock == null || !(cblock instanceof Sign)) {
+            if (mechanic == null
+                    || mechanic.getKind() != MechanicKind.STATION) {
                 return;
             }
 
-            Sign sign = (Sign)cblock;
-            String line2 = sign.getText(1);
-
-            if (!line2.equalsIgnoreCase("[Station]")) {
+            if (!startMechanic(MechanicKind.STATION, pt, isOn)) {
                 return;
             }
 
@@ -965,49 +1302,75 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
         // Sign gates
         } else if (type == BlockType.WALL_SIGN
                 || type == BlockType.SIGN_POST) {
-            ComplexBlock cblock = etc.getServer().getComplexBlock(
-                    pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+            MechanicSign mechanic = signIndex.get(
+                    pt.getBlockX(), pt.getBlockY(), pt.getBlockZ(), type);
 
-            if (!(cblock instanceof Sign)) {
+            if (mechanic == null) {
                 return;
             }
 
-            Sign sign = (Sign)cblock;
-            String line2 = sign.getText(1);
-            int len = line2.length();
+            MechanicKind kind = mechanic.getKind();
 
             // Gate
             if (gateSwitchModule != null && redstoneGates
-                    && line2.equalsIgnoreCase("[Gate]")) {
-                BlockSource bag = getBlockSource(pt);
-                bag.addSourcePosition(pt);
-
-                // A gate may toggle or not
-                try {
-                    gateSwitchModule.setGateState(pt, bag, isOn);
-                } catch (BlockSourceException e) {
+                    && kind == MechanicKind.GATE) {
+                if (!startMechanic(MechanicKind.GATE, pt, isOn)) {
+                    return;
                 }
 
+                final GateSwitch gates = gateSwitchModule;
+                final Vector gatePt = pt;
+                final boolean gateOn = isOn;
+                craftBook.getExecutor().execute(new Runnable() {
+                    public void run() {
+                        BlockSource bag = getBlockSource(gatePt);
+                        bag.addSourcePosition(gatePt);
+
+                        // A gate may toggle or not
+                        try {
+                            gates.setGateState(gatePt, bag, gateOn);
+                        } catch (BlockSourceException e) {
+                        }
+                    }
+                });
+
             // Bridges
             } else if (bridgeModule != null
                     && redstoneBridges
                     && type == BlockType.SIGN_POST
-                    && line2.equalsIgnoreCase("[Bridge]")) {
+                    && kind == MechanicKind.BRIDGE) {
+                if (!startMechanic(MechanicKind.BRIDGE, pt, isOn)) {
+                    return;
+                }
                 craftBook.getDelay().toggleBridge(pt, isOn);
             // ICs
             } else if (redstoneICs
                     && type == BlockType.WALL_SIGN
-                    && line2.length() > 4
-                    && line2.substring(0, 3).equalsIgnoreCase("[MC") &&
-                    line2.charAt(len - 1) == ']') {
-                String id = line2.substring(1, len - 1).toUpperCase();
-                SignText signText = new SignText(sign.getText(0),sign.getText(1),
-                                                 sign.getText(2),sign.getText(3));
+                    && kind == MechanicKind.IC) {
+                ComplexBlock cblock = etc.getServer().getComplexBlock(
+                        pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+
+                if (!(cblock instanceof Sign)) {
+                    return;
+                }
+
+                Sign sign = (Sign)cblock;
+                String line2 = sign.getText(1);
+
+                // The text was changed behind our back
+                if (!mechanic.matches(line2)) {
+                    signIndex.update(sign);
+                    handleMechanicInput(pt, type, isOn);
+                    return;
+                }
+
+                String id = mechanic.getICId();
 
                 RegisteredIC icType = icList.get(id);
                 if(icType==null) {
                     sign.setText(1, Colors.Red + line2);
                     sign.update();
+                    signIndex.update(sign);
                     return;
                 }
                 
@@ -1016,211 +1379,843 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
                     sign.setText(2, "!ERROR!");
                     sign.setText(3, "plcs disabled");
                     sign.update();
+                    signIndex.update(sign);
                     return;
                 }
-                
-                icType.think(pt, changedRedstoneInput, signText, sign, craftBook.getDelay());
-
-                if (signText.isChanged()) {
-                    sign.setText(0, signText.getLine1());
-                    sign.setText(1, signText.getLine2());
-                    sign.setText(2, signText.getLine3());
-                    sign.setText(3, signText.getLine4());
-                    if(signText.update()) sign.update();
+
+                if (!startMechanic(icType.isPlc ? MechanicKind.PLC : MechanicKind.IC, pt, isOn)) {
+                    return;
+                }
+
+                final Vector icPt = pt;
+                final long changed = changedRedstoneInput;
+                final RegisteredIC ic = icType;
+                final Sign icSign = sign;
+                final MechanicSign icMechanic = mechanic;
+                craftBook.getExecutor().execute(new Runnable() {
+                    public void run() {
+                        thinkIC(icPt, changed, ic, icSign, icMechanic);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Lets an IC handle a change of its inputs. The sign is read here
+     * rather than when the input changed, as the IC may have been queued.
+     *
+     * @param pt
+     * @param changed packed position of the input that changed
+     * @param icType
+     * @param sign
+     * @param mechanic
+     */
+    private void thinkIC(Vector pt, long changed, RegisteredIC icType,
+            Sign sign, MechanicSign mechanic) {
+        if (!ICProfiler.isEnabled()) {
+            doThinkIC(pt, changed, icType, sign, mechanic);
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            doThinkIC(pt, changed, icType, sign, mechanic);
+        } finally {
+            icProfiler.record(mechanic.getICId(), pt.getBlockX(),
+                    pt.getBlockY(), pt.getBlockZ(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Lets an IC handle a change of its inputs.
+     *
+     * @param pt
+     * @param changed packed position of the input that changed
+     * @param icType
+     * @param sign
+     * @param mechanic
+     */
+    private void doThinkIC(Vector pt, long changed, RegisteredIC icType,
+            Sign sign, MechanicSign mechanic) {
+        // The sign may be gone by now
+        if (CraftBook.getBlockID(pt) != BlockType.WALL_SIGN
+                || !mechanic.matches(sign.getText(1))) {
+            return;
+        }
+
+        ICInstance inst = getICInstance(pt, icType);
+
+        // Signs placed before a restart start their clock when first used
+        if (inst.getClockPeriod() < 0) {
+            startICClock(inst, icType, sign);
+        }
+
+        // Simple gates do not need the sign text
+        if (icType.bitwise != null) {
+            long key = BlockVector.toLong(pt.getBlockX(), pt.getBlockY(),
+                    pt.getBlockZ());
+            if (!netlists.think(key, inst, changed, craftBook.getDelay())) {
+                icType.type.thinkBitwise(inst, changed, icType.bitwise,
+                        craftBook.getDelay());
+            }
+            return;
+        }
+
+        PlcBatch plcBatch = craftBook.getPlcBatch();
+        if (icType.plc != null && plcBatch.isEnabled()) {
+            plcBatch.think(pt, changed, icType.type, icType.plc, inst, sign,
+                    mechanic);
+            return;
+        }
+
+        SignText signText = new SignText(sign.getText(0),sign.getText(1),
+                                         sign.getText(2),sign.getText(3));
+
+        icType.think(inst, changed, signText, sign, craftBook.getDelay());
+
+        writeSignText(sign, signText, mechanic);
+    }
+
+    /**
+     * Write the text of an IC sign if the IC changed it.
+     *
+     * @param sign
+     * @param signText
+     * @param mechanic
+     */
+    void writeSignText(Sign sign, SignText signText, MechanicSign mechanic) {
+        if (signText.isChanged()) {
+            sign.setText(0, signText.getLine1());
+            sign.setText(1, signText.getLine2());
+            sign.setText(2, signText.getLine3());
+            sign.setText(3, signText.getLine4());
+            if(signText.update()) sign.update();
+            if(!mechanic.matches(signText.getLine2())) signIndex.update(sign);
+        }
+    }
+
+    /**
+     * Schedule an IC to think on its own if it is self-clocked.
+     *
+     * @param inst
+     * @param icType
+     * @param sign
+     */
+    private void startICClock(ICInstance inst, RegisteredIC icType, Sign sign) {
+        int period = 0;
+
+        if (icType.ic instanceof SelfClockedIC) {
+            SignText signText = new SignText(sign.getText(0),sign.getText(1),
+                                             sign.getText(2),sign.getText(3));
+            period = Math.max(0, ((SelfClockedIC)icType.ic).getClockPeriod(signText));
+        }
+
+        inst.setClockPeriod(period);
+
+        long key = BlockVector.toLong(sign.getX(), sign.getY(), sign.getZ());
+        if (period > 0) {
+            icClock.schedule(key, period);
+        } else {
+            icClock.cancel(key);
+        }
+    }
+
+    /**
+     * Set the output of a wireless receiver on the next tick, after its
+     * band changed. Receivers in chunks that are not loaded are told later
+     * by {@link #tickReceivers()}, as reading or writing their blocks
+     * would load the chunk.
+     *
+     * @param pos packed position of the receiver's sign
+     * @param state
+     * @return false if the sign is gone or is not a receiver
+     */
+    private boolean setReceiverOutput(long pos, boolean state) {
+        int x = BlockVector.unpackX(pos);
+        int y = BlockVector.unpackY(pos);
+        int z = BlockVector.unpackZ(pos);
+        if (!etc.getServer().isChunkLoaded(x, y, z)) {
+            deferredReceivers.put(pos, 1);
+            return true;
+        }
+
+        ICInstance inst = icInstances.get(pos);
+        if (inst == null) {
+            // Not used since the sign was indexed or the server started
+            if (!redstoneICs) {
+                deferredReceivers.put(pos, 1);
+                return true;
+            }
+
+            int type = CraftBook.getBlockID(x, y, z);
+            MechanicSign mechanic = signIndex.get(x, y, z, type);
+            RegisteredIC icType = type == BlockType.WALL_SIGN
+                    && mechanic != null && mechanic.getKind() == MechanicKind.IC
+                    ? icList.get(mechanic.getICId()) : null;
+            if (icType == null || !(icType.ic instanceof MC1111)) {
+                return false;
+            }
+            inst = getICInstance(new Vector(x, y, z), icType);
+        }
+
+        long out = inst.getOutput(0);
+        int outX = BlockVector.unpackX(out);
+        int outY = BlockVector.unpackY(out);
+        int outZ = BlockVector.unpackZ(out);
+        if (!etc.getServer().isChunkLoaded(outX, outY, outZ)) {
+            deferredReceivers.put(pos, 1);
+            return true;
+        }
+
+        craftBook.getDelay().setOut(outX, outY, outZ, state);
+        return true;
+    }
+
+    /**
+     * Called every tick to tell the wireless receivers that were put off
+     * about their band, once their chunks are loaded.
+     */
+    void tickReceivers() {
+        if (deferredReceivers.isEmpty()
+                || ++ticksSinceReceiverCheck < DEFERRED_RECEIVER_TICKS) {
+            return;
+        }
+        ticksSinceReceiverCheck = 0;
+
+        // Backwards, as removing moves the last entry into the hole
+        for (int i = deferredReceivers.size() - 1; i >= 0; i--) {
+            long pos = deferredReceivers.keyAt(i);
+            if (!etc.getServer().isChunkLoaded(BlockVector.unpackX(pos),
+                    BlockVector.unpackY(pos), BlockVector.unpackZ(pos))) {
+                continue;
+            }
+            deferredReceivers.remove(pos);
+
+            // Gone if it was unsubscribed in the meantime
+            int band = bands.getReceiverBand(pos);
+            if (band != -1 && !setReceiverOutput(pos, bands.get(band))) {
+                bands.unsubscribe(pos);
+            }
+        }
+    }
+
+    /**
+     * Start the ICs that work without being triggered when their sign is
+     * parsed. Wireless receivers are subscribed to their band, and
+     * self-clocked ICs are put on the clock.
+     *
+     * @param key packed position of the sign
+     * @param sign
+     * @param mechanic
+     */
+    private void startIC(long key, Sign sign, MechanicSign mechanic) {
+        if (mechanic.getKind() != MechanicKind.IC
+                || mechanic.getSignType() != BlockType.WALL_SIGN) {
+            return;
+        }
+
+        RegisteredIC icType = icList.get(mechanic.getICId());
+        if (icType == null) {
+            return;
+        }
+
+        if (icType.ic instanceof MC1111) {
+            String band = sign.getText(2);
+            if (band.length() > 0) {
+                bands.subscribe(bands.getBand(band), key);
+            }
+        } else if (icType.ic instanceof SelfClockedIC
+                && !icClock.isScheduled(key)) {
+            Vector pt = new Vector(sign.getX(), sign.getY(), sign.getZ());
+            startICClock(getICInstance(pt, icType), icType, sign);
+        }
+    }
+
+    /**
+     * Save the wireless receivers and self-clocked ICs to file, so that
+     * they work again after a restart without having to be used first.
+     */
+    void saveICs() {
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < bands.getReceiverCount(); i++) {
+            lines.add(formatPosition(bands.getReceiverAt(i)) + " "
+                    + bands.getReceiverBandAt(i));
+        }
+        writeLines(RECEIVERS_FILE, lines);
+
+        lines.clear();
+        for (long key : icClock.getKeys()) {
+            lines.add(formatPosition(key));
+        }
+        writeLines(CLOCKS_FILE, lines);
+    }
+
+    /**
+     * Subscribe the wireless receivers saved by {@link #saveICs()}. Their
+     * signs are checked when their band changes.
+     */
+    private void loadReceivers() {
+        for (String line : readLines(RECEIVERS_FILE)) {
+            String[] parts = line.split(" ", 4);
+            long pos = parts.length == 4 && parts[3].length() > 0
+                    ? parsePosition(parts) : -1;
+            if (pos == -1) {
+                logger.log(Level.WARNING, "Invalid line in "
+                        + RECEIVERS_FILE + ": '" + line + "'");
+                continue;
+            }
+            bands.subscribe(bands.getBand(parts[3]), pos);
+        }
+    }
+
+    /**
+     * Put the self-clocked ICs saved by {@link #saveICs()} back on the
+     * clock. Their signs are checked when they are first due.
+     */
+    private void loadClocks() {
+        for (String line : readLines(CLOCKS_FILE)) {
+            long pos = parsePosition(line.split(" "));
+            if (pos == -1) {
+                logger.log(Level.WARNING, "Invalid line in "
+                        + CLOCKS_FILE + ": '" + line + "'");
+                continue;
+            }
+            if (!icClock.isScheduled(pos)) {
+                icClock.schedule(pos, 1);
+            }
+        }
+    }
+
+    /**
+     * Format a packed position for saving.
+     *
+     * @param pos
+     * @return
+     */
+    private static String formatPosition(long pos) {
+        return BlockVector.unpackX(pos) + " " + BlockVector.unpackY(pos)
+                + " " + BlockVector.unpackZ(pos);
+    }
+
+    /**
+     * Parse a position saved with {@link #formatPosition(long)}.
+     *
+     * @param parts at least three, for X, Y and Z
+     * @return packed position, or -1 if it is not valid
+     */
+    private static long parsePosition(String[] parts) {
+        if (parts.length < 3) {
+            return -1;
+        }
+
+        try {
+            return BlockVector.toLong(Integer.parseInt(parts[0]),
+                    Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Write a file of lines.
+     *
+     * @param path
+     * @param lines
+     */
+    private static void writeLines(String path, List<String> lines) {
+        Writer output = null;
+
+        try {
+            output = new BufferedWriter(new FileWriter(new File(path)));
+            for (String line : lines) {
+                output.write(line + "\n");
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, path + " not saved: " + e.getMessage());
+        } finally {
+            try {
+                if (output != null) {
+                    output.close();
+                }
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Read the lines of a file that are not blank.
+     *
+     * @param path
+     * @return lines, or none if the file does not exist
+     */
+    private static List<String> readLines(String path) {
+        List<String> lines = new ArrayList<String>();
+        File file = new File(path);
+        if (!file.exists()) {
+            return lines;
+        }
+
+        FileReader input = null;
+
+        try {
+            input = new FileReader(file);
+            BufferedReader buff = new BufferedReader(input);
+
+            String line;
+            while ((line = buff.readLine()) != null) {
+                if (line.trim().length() > 0) {
+                    lines.add(line);
                 }
             }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, path + " not loaded: " + e.getMessage());
+        } finally {
+            try {
+                if (input != null) {
+                    input.close();
+                }
+            } catch (IOException e) {
+            }
+        }
+
+        return lines;
+    }
+
+    /**
+     * Called every tick to let self-clocked ICs think.
+     */
+    void tickICClock() {
+        icClock.advance(icClockListener);
+    }
+
+    /**
+     * Lets self-clocked ICs think when they are due.
+     */
+    private final TimingWheel.Listener icClockListener =
+            new TimingWheel.Listener() {
+        public void expired(long key) {
+            clockIC(key);
+        }
+    };
+
+    /**
+     * Let a self-clocked IC think on its own.
+     *
+     * @param key packed position of the sign
+     */
+    private void clockIC(long key) {
+        // Dropped when the sign was changed or destroyed
+        ICInstance inst = icInstances.get(key);
+        if (inst != null && inst.getClockPeriod() == 0) {
+            return;
+        }
+
+        // Without an instance, the IC was loaded from file or its sign was
+        // replaced, and its period is worked out from the sign below
+        boolean started = inst != null && inst.getClockPeriod() > 0;
+        icClock.schedule(key, started
+                ? inst.getClockPeriod() : UNLOADED_CLOCK_TICKS);
+
+        int x = BlockVector.unpackX(key);
+        int y = BlockVector.unpackY(key);
+        int z = BlockVector.unpackZ(key);
+
+        // Reading the sign would load its chunk
+        if (!redstoneICs || !etc.getServer().isChunkLoaded(x, y, z)) {
+            return;
+        }
+
+        int type = CraftBook.getBlockID(x, y, z);
+        MechanicSign mechanic = signIndex.get(x, y, z, type);
+
+        if (type != BlockType.WALL_SIGN || mechanic == null
+                || mechanic.getKind() != MechanicKind.IC) {
+            dropICInstance(key, true);
+            icClock.cancel(key);
+            return;
+        }
+
+        final RegisteredIC icType = icList.get(mechanic.getICId());
+        if (icType == null || (icType.isPlc && !redstonePLCs)) {
+            return;
+        }
+
+        ComplexBlock cblock = etc.getServer().getComplexBlock(x, y, z);
+        if (!(cblock instanceof Sign)) {
+            return;
+        }
+
+        final Vector pt = new Vector(x, y, z);
+        final Sign sign = (Sign)cblock;
+        if (!started) {
+            if (!(icType.ic instanceof SelfClockedIC)) {
+                icClock.cancel(key);
+                return;
+            }
+            inst = getICInstance(pt, icType);
+            startICClock(inst, icType, sign);
+            if (inst.getClockPeriod() == 0) {
+                return;
+            }
+        }
+
+        final MechanicSign icMechanic = mechanic;
+        craftBook.getExecutor().execute(new Runnable() {
+            public void run() {
+                thinkIC(pt, NO_INPUT, icType, sign, icMechanic);
+            }
+        });
+    }
+
+    /**
+     * Called every tick to carry on with IC netlists that take more than
+     * one tick.
+     */
+    void tickICNetlists() {
+        netlists.tick(craftBook.getDelay());
+    }
+
+    /**
+     * Called every tick to write the IC profile to the log from time to
+     * time.
+     */
+    void tickICProfiler() {
+        icProfiler.tick();
+    }
+
+    /**
+     * Called every tick to write changed IC state to signs from time to
+     * time.
+     */
+    void tickICStates() {
+        if (++ticksSinceICStateFlush >= icStateFlushTicks) {
+            flushICStates();
+        }
+    }
+
+    /**
+     * Write all changed IC state to signs.
+     */
+    void flushICStates() {
+        ticksSinceICStateFlush = 0;
+
+        for (int i = 0; i < icInstances.capacity(); i++) {
+            ICInstance inst = icInstances.valueAt(i);
+            if (inst != null) {
+                writeICState(icInstances.keyAt(i), inst);
+            }
+        }
+    }
+
+    /**
+     * Write the state of an IC to its sign if it has changed.
+     *
+     * @param key packed position of the sign
+     * @param inst
+     */
+    private void writeICState(long key, ICInstance inst) {
+        if (!inst.isStateDirty()) {
+            return;
+        }
+        inst.setStateDirty(false);
+
+        int x = BlockVector.unpackX(key);
+        int y = BlockVector.unpackY(key);
+        int z = BlockVector.unpackZ(key);
+        ComplexBlock cblock = etc.getServer().getComplexBlock(x, y, z);
+        if (!(cblock instanceof Sign)) {
+            return;
+        }
+
+        // The state is not the sign's own if the sign was changed to
+        // another IC or turned without CraftBook seeing it
+        Sign sign = (Sign)cblock;
+        MechanicSign mechanic = MechanicSign.parse(BlockType.WALL_SIGN,
+                sign.getText(1));
+        if (mechanic.getKind() != MechanicKind.IC
+                || CraftBook.getBlockID(x, y, z) != BlockType.WALL_SIGN
+                || !inst.matches(mechanic.getICId(), inst.getType(),
+                        CraftBook.getBlockData(x, y, z))) {
+            return;
+        }
+
+        SignText signText = new SignText(sign.getText(0),sign.getText(1),
+                                         sign.getText(2),sign.getText(3));
+
+        inst.getState().write(signText);
+
+        if (signText.isChanged()) {
+            sign.setText(0, signText.getLine1());
+            sign.setText(1, signText.getLine2());
+            sign.setText(2, signText.getLine3());
+            sign.setText(3, signText.getLine4());
+            sign.update();
+        }
+    }
+
+    /**
+     * Forget the IC at a position. A queued PLC tick is finished first.
+     *
+     * @param key packed position of the sign
+     * @param keepState true to write the state to the sign, if it is still
+     *            the same IC, or false to throw it away
+     */
+    private void dropICInstance(long key, boolean keepState) {
+        craftBook.getPlcBatch().finish(key);
+        ICInstance inst = icInstances.remove(key);
+        if (inst != null && keepState) {
+            writeICState(key, inst);
+        }
+    }
+
+    /**
+     * Get the positions of the inputs and outputs of an IC, working them
+     * out if the sign is new or has turned.
+     *
+     * @param pt
+     * @param icType
+     * @return
+     */
+    private ICInstance getICInstance(Vector pt, RegisteredIC icType) {
+        int x = pt.getBlockX();
+        int y = pt.getBlockY();
+        int z = pt.getBlockZ();
+        long key = BlockVector.toLong(x, y, z);
+        int data = CraftBook.getBlockData(x, y, z);
+
+        ICInstance inst = icInstances.get(key);
+        if (inst == null || !inst.matches(icType.id, icType.type, data)) {
+            // The state of another IC, or of the sign before it was
+            // replaced, is thrown away
+            if (inst != null) {
+                craftBook.getPlcBatch().finish(key);
+            }
+            inst = new ICInstance(icType.id, icType.type, x, y, z, data);
+            icInstances.put(key, inst);
         }
+
+        return inst;
     }
 
     /**
-     * Attempts to detect redstone input. If there are many inputs to one
-     * block, only one of the inputs has to be high.
-     * 
+     * Get the registered IC whose sign is at a block.
+     *
      * @param x
      * @param y
      * @param z
-     * @return
+     * @return IC, or null if there is none that can be used
      */
-    private Boolean testAnyRedstoneInput(Vector pt) {
-        Boolean result = null;
-        Boolean temp = null;
-
-        int x = pt.getBlockX();
-        int y = pt.getBlockY();
-        int z = pt.getBlockZ();
+    private RegisteredIC findIC(int x, int y, int z) {
+        if (!redstoneICs
+                || CraftBook.getBlockID(x, y, z) != BlockType.WALL_SIGN) {
+            return null;
+        }
 
-        // Check block above
-        int above = CraftBook.getBlockID(x, y + 1, z);
-        temp = isRedstoneHigh(new Vector(x, y + 1, z), above, true);
-        if (temp != null) {
-            if (temp == true) {
-                return true;
-            } else {
-                result = false;
-            }
+        MechanicSign mechanic = signIndex.get(x, y, z, BlockType.WALL_SIGN);
+        if (mechanic == null || mechanic.getKind() != MechanicKind.IC) {
+            return null;
         }
 
-        // Check block below
-        int below = CraftBook.getBlockID(x, y - 1, z);
-        temp = isRedstoneHigh(new Vector(x, y - 1, z), below, true);
-        if (temp != null) {
-            if (temp == true) {
-                return true;
-            } else {
-                result = false;
-            }
+        RegisteredIC icType = icList.get(mechanic.getICId());
+        if (icType == null || (icType.isPlc && !redstonePLCs)) {
+            return null;
         }
+        return icType;
+    }
 
-        int north = CraftBook.getBlockID(x - 1, y, z);
-        int south = CraftBook.getBlockID(x + 1, y, z);
-        int west = CraftBook.getBlockID(x, y, z + 1);
-        int east = CraftBook.getBlockID(x, y, z - 1);
+    /**
+     * Get the positions of the IC whose sign is at a block.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return positions, or null if there is no IC
+     */
+    ICInstance findICInstance(int x, int y, int z) {
+        RegisteredIC icType = findIC(x, y, z);
+        return icType != null ? getICInstance(new Vector(x, y, z), icType) : null;
+    }
 
-        // For wires that lead up to only this block
-        if (north == BlockType.REDSTONE_WIRE) {
-            temp = isRedstoneWireHigh(new Vector(x - 1, y, z),
-                                      new Vector(x - 1, y, z - 1),
-                                      new Vector(x - 1, y, z + 1));
-            if (temp != null) {
-                if (temp == true) {
-                    return true;
-                } else {
-                    result = false;
-                }
-            }
-        }
+    /**
+     * Get the simple gate IC whose sign is at a block.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return IC, or null if there is no IC that can be run with bit masks
+     */
+    BitwiseIC findBitwiseIC(int x, int y, int z) {
+        RegisteredIC icType = findIC(x, y, z);
+        return icType != null ? icType.bitwise : null;
+    }
 
-        if (south == BlockType.REDSTONE_WIRE) {
-            temp = isRedstoneWireHigh(new Vector(x + 1, y, z),
-                                      new Vector(x + 1, y, z - 1),
-                                      new Vector(x + 1, y, z + 1));
-            if (temp != null) {
-                if (temp == true) {
-                    return true;
-                } else {
-                    result = false;
-                }
-            }
+    /**
+     * Called before a mechanic is triggered by redstone.
+     *
+     * @param kind
+     * @param pt
+     * @param isOn new level of the input
+     * @return false if the trigger is throttled
+     */
+    private boolean startMechanic(MechanicKind kind, Vector pt, boolean isOn) {
+        if (throttle.isEnabled() && !throttle.allow(kind,
+                pt.getBlockX(), pt.getBlockY(), pt.getBlockZ(),
+                isOn, changedRedstoneInput)) {
+            return false;
         }
+        dispatchedKind = kind;
+        return true;
+    }
 
-        if (west == BlockType.REDSTONE_WIRE) {
-            temp = isRedstoneWireHigh(new Vector(x, y, z + 1),
-                                      new Vector(x + 1, y, z + 1),
-                                      new Vector(x - 1, y, z + 1));
-            if (temp != null) {
-                if (temp == true) {
-                    return true;
-                } else {
-                    result = false;
-                }
-            }
-        }
+    /**
+     * Called every tick to replay the triggers that the throttle dropped,
+     * so that throttled mechanics catch up with their input.
+     */
+    void tickThrottle() {
+        throttle.replay(throttleListener);
+    }
 
-        if (east == BlockType.REDSTONE_WIRE) {
-            temp = isRedstoneWireHigh(new Vector(x, y, z - 1),
-                                      new Vector(x + 1, y, z - 1),
-                                      new Vector(x - 1, y, z - 1));
-            if (temp != null) {
-                if (temp == true) {
-                    return true;
-                } else {
-                    result = false;
-                }
+    /**
+     * Triggers throttled mechanics again.
+     */
+    private final MechanicThrottle.Listener throttleListener =
+            new MechanicThrottle.Listener() {
+        public void replay(int x, int y, int z, boolean level, long input) {
+            long outerInput = changedRedstoneInput;
+            changedRedstoneInput = input;
+            try {
+                handleDirectWireInput(x, y, z, level);
+            } finally {
+                changedRedstoneInput = outerInput;
             }
         }
+    };
 
-        // The sides of the block
-        temp = isRedstoneHigh(new Vector(x - 1, y, z), north, false);
-        if (temp != null) {
-            if (temp == true) {
-                return true;
-            } else {
-                result = false;
-            }
-        }
+    /**
+     * Checks whether there is a sign for a certain mechanic at a location.
+     * 
+     * @param pt
+     * @param kind
+     * @return
+     */
+    private boolean isMechanicSign(Vector pt, MechanicKind kind) {
+        MechanicSign mechanic = signIndex.get(
+                pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+        return mechanic != null && mechanic.getKind() == kind;
+    }
 
-        temp = isRedstoneHigh(new Vector(x + 1, y, z), south, false);
-        if (temp != null) {
-            if (temp == true) {
-                return true;
-            } else {
-                result = false;
-            }
-        }
-        
-        temp = isRedstoneHigh(new Vector(x, y, z + 1), west, false);
-        if (temp != null) {
-            if (temp == true) {
-                return true;
-            } else {
-                result = false;
-            }
-        }
+    /**
+     * Attempts to detect redstone input. If there are many inputs to one
+     * block, only one of the inputs has to be high.
+     * 
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    private Boolean testAnyRedstoneInput(int x, int y, int z) {
+        BlockNeighborhood area = inputArea;
+        area.reset(x, y, z);
 
-        temp = isRedstoneHigh(new Vector(x, y, z - 1), east, false);
-        if (temp != null) {
-            if (temp == true) {
-                return true;
-            } else {
-                result = false;
-            }
-        }
+        Boolean result = null;
+        Boolean temp;
+
+        // Check blocks above and below
+        temp = isRedstoneHigh(area, 0, 1, 0, true);
+        if (temp != null) if (temp) return true; else result = false;
+        temp = isRedstoneHigh(area, 0, -1, 0, true);
+        if (temp != null) if (temp) return true; else result = false;
+
+        // For wires that lead up to only this block
+        temp = isRedstoneWireHigh(area, -1, 0, 0, 1);
+        if (temp != null) if (temp) return true; else result = false;
+        temp = isRedstoneWireHigh(area, 1, 0, 0, 1);
+        if (temp != null) if (temp) return true; else result = false;
+        temp = isRedstoneWireHigh(area, 0, 1, 1, 0);
+        if (temp != null) if (temp) return true; else result = false;
+        temp = isRedstoneWireHigh(area, 0, -1, 1, 0);
+        if (temp != null) if (temp) return true; else result = false;
+
+        // The sides of the block
+        temp = isRedstoneHigh(area, -1, 0, 0, false);
+        if (temp != null) if (temp) return true; else result = false;
+        temp = isRedstoneHigh(area, 1, 0, 0, false);
+        if (temp != null) if (temp) return true; else result = false;
+        temp = isRedstoneHigh(area, 0, 0, 1, false);
+        if (temp != null) if (temp) return true; else result = false;
+        temp = isRedstoneHigh(area, 0, 0, -1, false);
+        if (temp != null) if (temp) return true; else result = false;
 
         return result;
     }
 
     /**
-     * Checks to see whether a wire is high and directed.
+     * Checks to see whether a wire next to the center of an area is high
+     * and directed. The wire is at (wx, 0, wz) from the center and its
+     * sides are the blocks at (dx, dz) and (-dx, -dz) from the wire. If
+     * there is no such wire, null will be returned.
      * 
-     * @param pt
-     * @param sidePt1
-     * @param sidePt2
+     * @param area
+     * @param wx
+     * @param wz
+     * @param dx
+     * @param dz
      * @return
      */
-    private Boolean isRedstoneWireHigh(Vector pt, Vector sidePt1, Vector sidePt2) {
-        int side1 = CraftBook.getBlockID(sidePt1);
-        int side1Above = CraftBook.getBlockID(sidePt1.add(0, 1, 0));
-        int side1Below = CraftBook.getBlockID(sidePt1.add(0, -1, 0));
-        int side2 = CraftBook.getBlockID(sidePt2);
-        int side2Above = CraftBook.getBlockID(sidePt2.add(0, 1, 0));
-        int side2Below = CraftBook.getBlockID(sidePt2.add(0, -1, 0));
+    private static Boolean isRedstoneWireHigh(BlockNeighborhood area,
+            int wx, int wz, int dx, int dz) {
+        if (area.getID(wx, 0, wz) != BlockType.REDSTONE_WIRE) {
+            return null;
+        }
+
+        int side1 = area.getID(wx + dx, 0, wz + dz);
+        int side2 = area.getID(wx - dx, 0, wz - dz);
 
         if (!BlockType.isRedstoneBlock(side1)
-                && !BlockType.isRedstoneBlock(side1Above)
-                && (!BlockType.isRedstoneBlock(side1Below) || side1 != 0)
+                && !BlockType.isRedstoneBlock(area.getID(wx + dx, 1, wz + dz))
+                && (side1 != 0 || !BlockType.isRedstoneBlock(
+                        area.getID(wx + dx, -1, wz + dz)))
                 && !BlockType.isRedstoneBlock(side2)
-                && !BlockType.isRedstoneBlock(side2Above)
-                && (!BlockType.isRedstoneBlock(side2Below) || side2 != 0)) {
-            return CraftBook.getBlockData(pt) > 0;
+                && !BlockType.isRedstoneBlock(area.getID(wx - dx, 1, wz - dz))
+                && (side2 != 0 || !BlockType.isRedstoneBlock(
+                        area.getID(wx - dx, -1, wz - dz)))) {
+            return area.getData(wx, 0, wz) > 0;
         }
 
         return null;
     }
 
     /**
-     * Tests to see if a block is high, possibly including redstone wires. If
-     * there was no redstone at that location, null will be returned.
+     * Tests to see if a block in an area is high, possibly including
+     * redstone wires. If there was no redstone at that location, null
+     * will be returned.
      * 
-     * @param pt
-     * @param type
+     * @param area
+     * @param dx
+     * @param dy
+     * @param dz
      * @param considerWires
      * @return
      */
-    private static Boolean isRedstoneHigh(Vector pt, int type, boolean considerWires) {
+    private static Boolean isRedstoneHigh(BlockNeighborhood area,
+            int dx, int dy, int dz, boolean considerWires) {
+        int type = area.getID(dx, dy, dz);
+
         if (type == BlockType.LEVER) {
-            return (CraftBook.getBlockData(pt) & 0x8) == 0x8;
+            return (area.getData(dx, dy, dz) & 0x8) == 0x8;
         } else if (type == BlockType.STONE_PRESSURE_PLATE) {
-            return (CraftBook.getBlockData(pt) & 0x1) == 0x1;
+            return (area.getData(dx, dy, dz) & 0x1) == 0x1;
         } else if (type == BlockType.WOODEN_PRESSURE_PLATE) {
-            return (CraftBook.getBlockData(pt) & 0x1) == 0x1;
+            return (area.getData(dx, dy, dz) & 0x1) == 0x1;
         } else if (type == BlockType.REDSTONE_TORCH_ON) {
             return true;
         } else if (type == BlockType.REDSTONE_TORCH_OFF) {
             return false;
         } else if (type == BlockType.STONE_BUTTON) {
-            return (CraftBook.getBlockData(pt) & 0x8) == 0x8;
+            return (area.getData(dx, dy, dz) & 0x8) == 0x8;
         } else if (considerWires && type == BlockType.REDSTONE_WIRE) {
-            return CraftBook.getBlockData(pt) > 0;
+            return area.getData(dx, dy, dz) > 0;
         }
 
         return null;
@@ -1229,14 +2224,47 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
     /**
      * Tests to see if a block is high, possibly including redstone wires. If
      * there was no redstone at that location, null will be returned.
-     *
+     * 
      * @param pt
-     * @param icName
+     * @param type
+     * @param considerWires
+     * @return
+     */
+    private static Boolean isRedstoneHigh(Vector pt, int type, boolean considerWires) {
+        return isRedstoneHigh(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ(),
+                type, considerWires);
+    }
+
+    /**
+     * Tests to see if a block is high, possibly including redstone wires. If
+     * there was no redstone at that location, null will be returned.
+     * 
+     * @param x
+     * @param y
+     * @param z
+     * @param type
      * @param considerWires
      * @return
      */
-    private Boolean isRedstoneHigh(Vector pt, boolean considerWires) {
-        return isRedstoneHigh(pt, CraftBook.getBlockID(pt), considerWires);
+    private static Boolean isRedstoneHigh(int x, int y, int z, int type,
+            boolean considerWires) {
+        if (type == BlockType.LEVER) {
+            return (CraftBook.getBlockData(x, y, z) & 0x8) == 0x8;
+        } else if (type == BlockType.STONE_PRESSURE_PLATE) {
+            return (CraftBook.getBlockData(x, y, z) & 0x1) == 0x1;
+        } else if (type == BlockType.WOODEN_PRESSURE_PLATE) {
+            return (CraftBook.getBlockData(x, y, z) & 0x1) == 0x1;
+        } else if (type == BlockType.REDSTONE_TORCH_ON) {
+            return true;
+        } else if (type == BlockType.REDSTONE_TORCH_OFF) {
+            return false;
+        } else if (type == BlockType.STONE_BUTTON) {
+            return (CraftBook.getBlockData(x, y, z) & 0x8) == 0x8;
+        } else if (considerWires && type == BlockType.REDSTONE_WIRE) {
+            return CraftBook.getBlockData(x, y, z) > 0;
+        }
+
+        return null;
     }
 
     /**
@@ -1257,6 +2285,22 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
         }
     }
 
+    /**
+     * Tests to see if a block is high, possibly including redstone wires.
+     *
+     * @param pos packed position
+     * @param considerWires
+     * @return
+     */
+    static boolean isRedstoneHighBinary(long pos, boolean considerWires) {
+        int x = BlockVector.unpackX(pos);
+        int y = BlockVector.unpackY(pos);
+        int z = BlockVector.unpackZ(pos);
+        Boolean result = isRedstoneHigh(x, y, z,
+                CraftBook.getBlockID(x, y, z), considerWires);
+        return result != null && result;
+    }
+
     /**
      * Tests the simple input at a block.
      * 
@@ -1264,18 +2308,21 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
      * @return
      */
     public Boolean testRedstoneSimpleInput(Vector pt) {
+        BlockNeighborhood area = inputArea;
+        area.reset(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+
         Boolean result = null;
         Boolean temp;
 
-        temp = isRedstoneHigh(pt.add(1, 0, 0), true);
+        temp = isRedstoneHigh(area, 1, 0, 0, true);
         if (temp != null) if (temp) return true; else result = false;
-        temp = isRedstoneHigh(pt.add(-1, 0, 0), true);
+        temp = isRedstoneHigh(area, -1, 0, 0, true);
         if (temp != null) if (temp) return true; else result = false;
-        temp = isRedstoneHigh(pt.add(0, 0, 1), true);
+        temp = isRedstoneHigh(area, 0, 0, 1, true);
         if (temp != null) if (temp) return true; else result = false;
-        temp = isRedstoneHigh(pt.add(0, 0, -1), true);
+        temp = isRedstoneHigh(area, 0, 0, -1, true);
         if (temp != null) if (temp) return true; else result = false;
-        temp = isRedstoneHigh(pt.add(0, -1, 0), true);
+        temp = isRedstoneHigh(area, 0, -1, 0, true);
         if (temp != null) if (temp) return true; else result = false;
         return result;
     }
@@ -1294,6 +2341,23 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
         }
     }
 
+    /**
+     * Gets the output state of a redstone IC at a location.
+     *
+     * @param pos packed position
+     * @return
+     */
+    static boolean getRedstoneOutput(long pos) {
+        int x = BlockVector.unpackX(pos);
+        int y = BlockVector.unpackY(pos);
+        int z = BlockVector.unpackZ(pos);
+        if (CraftBook.getBlockID(x, y, z) == BlockType.LEVER) {
+            return (CraftBook.getBlockData(x, y, z) & 0x8) == 0x8;
+        } else {
+            return false;
+        }
+    }
+
     /**
      * Sets the output state of a minecart trigger at a location.
      *
@@ -1328,6 +2392,41 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
      * @return true if you want any changes to be reverted
      */
     public boolean onComplexBlockChange(Player player, ComplexBlock cblock) {
+        boolean revert = doComplexBlockChange(player, cblock);
+
+        if (cblock instanceof Sign) {
+            // Worked out again on the next use. State kept in memory, such
+            // as PLC storage, is thrown away, as the text that the player
+            // wrote takes its place
+            long key = BlockVector.toLong(
+                    cblock.getX(), cblock.getY(), cblock.getZ());
+            dropICInstance(key, false);
+            icClock.cancel(key);
+            bands.unsubscribe(key);
+            netlists.invalidate(cblock.getX(), cblock.getY(), cblock.getZ());
+            plcCodes.invalidate(cblock.getX(), cblock.getZ());
+
+            if (revert) {
+                signIndex.remove(cblock.getX(), cblock.getY(), cblock.getZ());
+            } else {
+                // Receivers and self-clocked ICs are started again
+                signIndex.update((Sign)cblock);
+            }
+        }
+
+        return revert;
+    }
+
+    /**
+     * Called when either a sign, chest or furnace is changed.
+     *
+     * @param player
+     *            player who changed it
+     * @param cblock
+     *            complex block that changed
+     * @return true if you want any changes to be reverted
+     */
+    private boolean doComplexBlockChange(Player player, ComplexBlock cblock) {
         if (cblock instanceof Sign) {
             Sign sign = (Sign)cblock;
             int type = CraftBook.getBlockID(
@@ -1497,6 +2596,14 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
      */
     @Override
     public boolean onCommand(Player player, String[] split) {
+        // Signs hold the state of ICs when the world is saved, and the
+        // receivers and clocks are saved with them
+        if (split[0].equalsIgnoreCase("/save-all")
+                || split[0].equalsIgnoreCase("/stop")) {
+            flushICStates();
+            saveICs();
+        }
+
         try {
             return runCommand(player, split);
         } catch (InsufficientArgumentsException e) {
@@ -1519,6 +2626,24 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
             return true;
         }
     }
+
+    /**
+     * Called when a command is run from the server console.
+     *
+     * @param split
+     * @return whether the command was processed
+     */
+    public boolean onConsoleCommand(String[] split) {
+        // Signs hold the state of ICs when the world is saved, and the
+        // receivers and clocks are saved with them
+        if (split[0].equalsIgnoreCase("save-all")
+                || split[0].equalsIgnoreCase("stop")) {
+            flushICStates();
+            saveICs();
+        }
+
+        return false;
+    }
     
     /**
      *
@@ -1568,6 +2693,147 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
             loadConfiguration();
         }
         
+        if (split[0].equalsIgnoreCase("/cbstats") && canUse(player, "/cbstats")) {
+            checkArgs(split, 0, 1, split[0]);
+
+            if (split.length > 1) {
+                if (split[1].equalsIgnoreCase("on")) {
+                    stats.setEnabled(true);
+                    player.sendMessage(Colors.Gold + "Redstone statistics enabled.");
+                } else if (split[1].equalsIgnoreCase("off")) {
+                    stats.setEnabled(false);
+                    player.sendMessage(Colors.Gold + "Redstone statistics disabled.");
+                } else if (split[1].equalsIgnoreCase("reset")) {
+                    stats.reset();
+                    player.sendMessage(Colors.Gold + "Redstone statistics reset.");
+                } else if (split[1].equalsIgnoreCase("netlists")) {
+                    player.sendMessage(Colors.Gold + "IC netlists: "
+                            + netlists.report());
+                } else if (split[1].equalsIgnoreCase("bands")) {
+                    player.sendMessage(Colors.Gold + "Wireless bands: "
+                            + bands.size() + " bands, "
+                            + bands.getReceiverCount() + " receivers");
+                    for (String line : bands.report(5)) {
+                        player.sendMessage(Colors.Yellow + line);
+                    }
+                } else {
+                    player.sendMessage(Colors.Rose + "Usage: /cbstats [on|off|reset|bands|netlists]");
+                }
+                return true;
+            }
+
+            RedstoneCoalescer coalescer = craftBook.getCoalescer();
+            player.sendMessage(Colors.Gold + "Redstone edges: "
+                    + coalescer.getReceived() + " received, "
+                    + coalescer.getDispatched() + " dispatched, "
+                    + coalescer.getCollapsed() + " collapsed"
+                    + (redstoneCoalesce ? "" : " (coalescing disabled)"));
+            player.sendMessage(Colors.Gold + "Block read cache: "
+                    + CraftBook.getReadCacheHits() + " hits, "
+                    + CraftBook.getReadCacheMisses() + " misses"
+                    + (CraftBook.isReadCacheEnabled() ? "" : " (disabled)"));
+            MechanicExecutor executor = craftBook.getExecutor();
+            player.sendMessage(Colors.Gold + "Mechanic queue: "
+                    + executor.getQueueSize() + " waiting, "
+                    + executor.getPeakQueueSize() + " peak, "
+                    + executor.getDeferred() + " deferred"
+                    + (executor.getBudget() == 0 ? " (no budget)" : ""));
+            PlcBatch plcBatch = craftBook.getPlcBatch();
+            player.sendMessage(Colors.Gold + "PLC batches: "
+                    + plcBatch.getBatches() + " run, "
+                    + plcBatch.getTicks() + " ticks, "
+                    + plcBatch.getLargestBatch() + " largest"
+                    + (plcBatch.isEnabled() ? " (" + plcBatch.getThreads()
+                            + " threads)" : " (disabled)"));
+            RedstoneDelayer delay = craftBook.getDelay();
+            player.sendMessage(Colors.Gold + "Outputs: "
+                    + delay.getWritesRequested() + " set, "
+                    + delay.getWritesMerged() + " merged, "
+                    + delay.getWritesApplied() + " written, "
+                    + delay.getWritesElided() + " elided");
+
+            if (!stats.isEnabled()) {
+                player.sendMessage(Colors.Gold + "Redstone statistics are disabled (/cbstats on).");
+            }
+            for (String line : stats.report(5)) {
+                player.sendMessage(Colors.Yellow + line);
+            }
+            return true;
+        }
+
+        if (split[0].equalsIgnoreCase("/cbthrottle") && canUse(player, "/cbthrottle")) {
+            checkArgs(split, 0, 1, split[0]);
+
+            if (split.length > 1) {
+                if (split[1].equalsIgnoreCase("clear")) {
+                    throttle.clear();
+                    player.sendMessage(Colors.Gold + "Throttled positions cleared.");
+                } else {
+                    player.sendMessage(Colors.Rose + "Usage: /cbthrottle [clear]");
+                }
+                return true;
+            }
+
+            if (!throttle.isEnabled()) {
+                player.sendMessage(Colors.Gold + "The throttle is disabled (throttle-enable).");
+                return true;
+            }
+
+            List<String> lines = throttle.report(10);
+            if (lines.size() == 0) {
+                player.sendMessage(Colors.Gold + "No mechanics were throttled recently.");
+            } else {
+                player.sendMessage(Colors.Gold + "Throttled mechanics:");
+                for (String line : lines) {
+                    player.sendMessage(Colors.Yellow + line);
+                }
+            }
+            return true;
+        }
+
+        if (split[0].equalsIgnoreCase("/icprofile") && canUse(player, "/icprofile")) {
+            checkArgs(split, 0, 2, split[0]);
+
+            int top = 5;
+            if (split.length == 2 && split[1].equalsIgnoreCase("on")) {
+                icProfiler.setEnabled(true);
+                player.sendMessage(Colors.Gold + "IC profiling enabled.");
+                return true;
+            } else if (split.length == 2 && split[1].equalsIgnoreCase("off")) {
+                icProfiler.setEnabled(false);
+                player.sendMessage(Colors.Gold + "IC profiling disabled.");
+                return true;
+            } else if (split.length == 2 && split[1].equalsIgnoreCase("reset")) {
+                icProfiler.reset();
+                player.sendMessage(Colors.Gold + "IC profile reset.");
+                return true;
+            } else if (split.length == 3 && split[1].equalsIgnoreCase("top")) {
+                try {
+                    top = Math.max(1, Math.min(20, Integer.parseInt(split[2])));
+                } catch (NumberFormatException e) {
+                    player.sendMessage(Colors.Rose + "Invalid number \"" + split[2] + "\"");
+                    return true;
+                }
+            } else if (split.length > 1) {
+                player.sendMessage(Colors.Rose + "Usage: /icprofile [top N|reset|on|off]");
+                return true;
+            }
+
+            if (!ICProfiler.isEnabled()) {
+                player.sendMessage(Colors.Gold + "IC profiling is disabled (/icprofile on).");
+            }
+            List<String> lines = icProfiler.report(top);
+            if (lines.size() == 0) {
+                player.sendMessage(Colors.Gold + "No ICs were profiled.");
+            } else {
+                player.sendMessage(Colors.Gold + "IC profile:");
+                for (String line : lines) {
+                    player.sendMessage(Colors.Yellow + line);
+                }
+            }
+            return true;
+        }
+
         if(listICs && split[0].equalsIgnoreCase("/listics") && canUse(player, "/listics")) {
             String[] lines = generateICText(player);
             int pages = ((lines.length-1)/10)+1;
@@ -2249,6 +3515,10 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
     public void setRsLock(boolean value) {
         rsLock = value;
     }
+
+    MechanicExecutor getExecutor() {
+        return craftBook.getExecutor();
+    }
     
     /**
      * Joins a string from an array of strings.
@@ -2308,7 +3578,7 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
      * Registers a new IC.
      */
     public void registerIC(String name, IC ic, ICType type, boolean isPlc) {
-        icList.put(name, new RegisteredIC(ic,type,isPlc));
+        icList.put(name, new RegisteredIC(name,ic,type,isPlc));
     }
     
     public boolean icListEnabled() {
@@ -2319,16 +3589,29 @@ public class CraftBookListener extends PluginListener implements CustomICAccepte
      * Storage class for registered ICs.
      */
     private static class RegisteredIC {
+        final String id;
         final ICType type;
         final IC ic;
         final boolean isPlc;
-        RegisteredIC(IC ic, ICType type, boolean isPlc) {
+        /**
+         * The IC if it can be run with bit masks, otherwise null.
+         */
+        final BitwiseIC bitwise;
+        /**
+         * The IC if it runs a PLC program, otherwise null.
+         */
+        final PlcBase plc;
+        RegisteredIC(String id, IC ic, ICType type, boolean isPlc) {
+            this.id = id;
             this.type = type;
             this.ic = ic;
             this.isPlc = isPlc;
+            this.bitwise = ic instanceof BitwiseIC && type.supportsBitwise()
+                    ? (BitwiseIC)ic : null;
+            this.plc = ic instanceof PlcBase ? (PlcBase)ic : null;
         }
-        void think(Vector pt, Vector changedRedstoneInput, SignText signText, Sign sign, RedstoneDelayer r) {
-            type.think(pt, changedRedstoneInput, signText, sign, ic, r);
+        void think(ICInstance inst, long changedRedstoneInput, SignText signText, Sign sign, RedstoneDelayer r) {
+            type.think(inst, changedRedstoneInput, signText, sign, ic, r);
         }
     }
 }
@@ -19,13 +19,19 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 import lymia.plc.PlcBase;
 import lymia.plc.PlcException;
 import lymia.plc.PlcLang;
+import lymia.plc.PlcProgram;
 
 import com.sk89q.craftbook.BlockType;
 import com.sk89q.craftbook.SignText;
 import com.sk89q.craftbook.Vector;
 
 public class DefaultPLC extends PlcBase {
-    public DefaultPLC(PlcLang language) {super(language);}
+    private final PlcCodeCache codes;
+    public DefaultPLC(PlcLang language) {this(language, null);}
+    public DefaultPLC(PlcLang language, PlcCodeCache codes) {
+        super(language);
+        this.codes = codes;
+    }
     
     public String getTitle() {
         return "PLC ("+getLanguage().getName()+")";
@@ -51,4 +57,16 @@ public class DefaultPLC extends PlcBase {
         }
         throw new PlcException("code not found");
     }
+    protected PlcProgram getProgram(Vector v) throws PlcException {
+        if(codes==null) return super.getProgram(v);
+        int x = v.getBlockX();
+        int y = v.getBlockY();
+        int z = v.getBlockZ();
+        PlcProgram program = codes.get(x, y, z);
+        if(program==null) {
+            program = new PlcProgram(getCode(v));
+            codes.put(x, y, z, program);
+        }
+        return program;
+    }
 }
@@ -0,0 +1,256 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import com.sk89q.craftbook.BlockVector;
+import com.sk89q.craftbook.Vector;
+import com.sk89q.craftbook.ic.ICState;
+
+/**
+ * The positions of the inputs and outputs of a placed IC. These only
+ * depend on the type of the IC and the direction that its sign faces,
+ * so they are worked out once and kept until the sign is changed or
+ * destroyed. Positions are packed with {@link BlockVector#toLong}.
+ *
+ * <p>Input 1 is behind the sign, and inputs 2 and 3 are to its sides.
+ * Output 1 is in front of the IC block, and outputs 2 and 3 are to the
+ * sides of the block before it.</p>
+ *
+ * @author sk89q
+ */
+public class ICInstance {
+    /**
+     * ID of the IC, such as MC1000.
+     */
+    private final String id;
+    private final ICType type;
+    /**
+     * Data of the sign, which gives its direction.
+     */
+    private final int signData;
+    private final Vector position;
+    private final Vector blockPosition;
+    private final long[] inputs;
+    private final long[] outputs;
+    /**
+     * State kept in memory by the IC.
+     */
+    private ICState state;
+    /**
+     * Indicates whether the state has to be written to the sign.
+     */
+    private boolean stateDirty;
+    /**
+     * Ticks between thinks of a self-clocked IC, 0 if the IC is not
+     * self-clocked, or -1 if not yet known.
+     */
+    private int clockPeriod = -1;
+
+    /**
+     * Work out the positions of an IC.
+     *
+     * @param id ID of the IC
+     * @param type
+     * @param x
+     * @param y
+     * @param z
+     * @param signData data of the wall sign
+     */
+    public ICInstance(String id, ICType type, int x, int y, int z,
+            int signData) {
+        this.id = id;
+        this.type = type;
+        this.signData = signData;
+
+        // Same directions as CraftBookListener.getWallSignBack/Side
+        int backX = 0;
+        int backZ = 0;
+        int sideX = 0;
+        int sideZ = 0;
+        if (signData == 0x2) { // East
+            backZ = 1;
+            sideX = 1;
+        } else if (signData == 0x3) { // West
+            backZ = -1;
+            sideX = -1;
+        } else if (signData == 0x4) { // North
+            backX = 1;
+            sideZ = -1;
+        } else {
+            backX = -1;
+            sideZ = 1;
+        }
+
+        position = new Vector(x, y, z);
+        blockPosition = new Vector(x + backX, y, z + backZ);
+
+        inputs = new long[type.inputs];
+        inputs[0] = BlockVector.toLong(x - backX, y, z - backZ);
+        if (inputs.length > 1) {
+            inputs[1] = BlockVector.toLong(x + sideX, y, z + sideZ);
+            inputs[2] = BlockVector.toLong(x - sideX, y, z - sideZ);
+        }
+
+        int reach = type.outputDistance;
+        outputs = new long[type.outputs];
+        outputs[0] = BlockVector.toLong(
+                x + backX * reach, y, z + backZ * reach);
+        if (outputs.length > 1) {
+            int shiftX = backX * (reach - 1);
+            int shiftZ = backZ * (reach - 1);
+            outputs[1] = BlockVector.toLong(
+                    x + sideX + shiftX, y, z + sideZ + shiftZ);
+            outputs[2] = BlockVector.toLong(
+                    x - sideX + shiftX, y, z - sideZ + shiftZ);
+        }
+    }
+
+    /**
+     * Returns true if the positions are still right for an IC.
+     *
+     * @param type
+     * @param signData
+     * @return
+     */
+    public boolean matches(ICType type, int signData) {
+        return this.type == type && this.signData == signData;
+    }
+
+    /**
+     * Returns true if the instance is still right for an IC, and the
+     * state it keeps belongs to it.
+     *
+     * @param id
+     * @param type
+     * @param signData
+     * @return
+     */
+    public boolean matches(String id, ICType type, int signData) {
+        return this.id.equals(id) && matches(type, signData);
+    }
+
+    /**
+     * Get the ID of the IC.
+     *
+     * @return
+     */
+    public String getID() {
+        return id;
+    }
+
+    /**
+     * Get the type.
+     *
+     * @return
+     */
+    public ICType getType() {
+        return type;
+    }
+
+    /**
+     * Get the position of the sign.
+     *
+     * @return
+     */
+    public Vector getPosition() {
+        return position;
+    }
+
+    /**
+     * Get the position of the IC block.
+     *
+     * @return
+     */
+    public Vector getBlockPosition() {
+        return blockPosition;
+    }
+
+    /**
+     * Get the packed position of an input.
+     *
+     * @param n input index, starting at 0
+     * @return
+     */
+    public long getInput(int n) {
+        return inputs[n];
+    }
+
+    /**
+     * Get the packed position of an output.
+     *
+     * @param n output index, starting at 0
+     * @return
+     */
+    public long getOutput(int n) {
+        return outputs[n];
+    }
+
+    /**
+     * Get the state kept in memory by the IC.
+     *
+     * @return state or null
+     */
+    public ICState getState() {
+        return state;
+    }
+
+    /**
+     * Set the state kept in memory by the IC.
+     *
+     * @param state
+     */
+    public void setState(ICState state) {
+        this.state = state;
+    }
+
+    /**
+     * Returns true if the state has to be written to the sign.
+     *
+     * @return
+     */
+    public boolean isStateDirty() {
+        return stateDirty && state != null;
+    }
+
+    /**
+     * Set whether the state has to be written to the sign.
+     *
+     * @param dirty
+     */
+    public void setStateDirty(boolean dirty) {
+        stateDirty = dirty;
+    }
+
+    /**
+     * Get the number of ticks between thinks of a self-clocked IC.
+     *
+     * @return ticks, 0 if not self-clocked, or -1 if not yet known
+     */
+    public int getClockPeriod() {
+        return clockPeriod;
+    }
+
+    /**
+     * Set the number of ticks between thinks of a self-clocked IC.
+     *
+     * @param clockPeriod ticks, or 0 if not self-clocked
+     */
+    public void setClockPeriod(int clockPeriod) {
+        this.clockPeriod = clockPeriod;
+    }
+}
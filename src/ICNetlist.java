@@ -0,0 +1,401 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import com.sk89q.craftbook.BlockVector;
+import com.sk89q.craftbook.LongIntHashMap;
+import com.sk89q.craftbook.Vector;
+import com.sk89q.craftbook.ic.BitwiseIC;
+
+/**
+ * A compiled group of simple gate ICs whose output levers feed each
+ * other's inputs, either directly or through a short run of wire. The
+ * members are kept in topological order, so a change can be carried
+ * through the whole group in one pass instead of one hop per tick.
+ *
+ * <p>Inputs that are fed by other members are taken from the outputs
+ * worked out by the plan. All other inputs are read from the world. The
+ * levers of every member are still set through the delayer, so the world
+ * shows the same thing as the plan once the outputs are written.</p>
+ *
+ * @author sk89q
+ */
+public class ICNetlist {
+    private final ICInstance[] members;
+    private final BitwiseIC[] ics;
+    /**
+     * Length of the longest path from a member without internal inputs.
+     * Never decreases along the member order.
+     */
+    private final int[] levels;
+    /**
+     * Sources of each input of each member, as the index of the member
+     * shifted left by 2 and or'ed with the output. Null where the input
+     * is read from the world.
+     */
+    private final int[][][] sources;
+    /**
+     * Members that have an input fed by each member.
+     */
+    private final int[][] dependents;
+    /**
+     * Index of each member by the packed position of its sign.
+     */
+    private final LongIntHashMap index;
+    /**
+     * Packed positions of the blocks that the plan depends on.
+     */
+    private final long[] blocks;
+
+    private final int[] inputs;
+    private final int[] outputs;
+    private final int[] triggered;
+    private final boolean[] dirty;
+    private int dirtyCount;
+    private boolean valid = true;
+    private boolean pending;
+    private long evaluations;
+
+    /**
+     * Construct the plan. The members must be in topological order.
+     *
+     * @param members
+     * @param ics
+     * @param levels
+     * @param sources
+     * @param blocks
+     */
+    ICNetlist(ICInstance[] members, BitwiseIC[] ics, int[] levels,
+            int[][][] sources, long[] blocks) {
+        this.members = members;
+        this.ics = ics;
+        this.levels = levels;
+        this.sources = sources;
+        this.blocks = blocks;
+
+        int size = members.length;
+        index = new LongIntHashMap(size);
+        inputs = new int[size];
+        outputs = new int[size];
+        triggered = new int[size];
+        dirty = new boolean[size];
+
+        int[] counts = new int[size];
+        for (int m = 0; m < size; m++) {
+            Vector pt = members[m].getPosition();
+            index.put(BlockVector.toLong(pt.getBlockX(), pt.getBlockY(),
+                    pt.getBlockZ()), m);
+            for (int[] src : sources[m]) {
+                if (src != null) {
+                    for (int s : src) {
+                        counts[s >> 2]++;
+                    }
+                }
+            }
+        }
+
+        dependents = new int[size][];
+        for (int m = 0; m < size; m++) {
+            dependents[m] = new int[counts[m]];
+            counts[m] = 0;
+        }
+        for (int m = 0; m < size; m++) {
+            for (int[] src : sources[m]) {
+                if (src == null) {
+                    continue;
+                }
+                for (int s : src) {
+                    int[] list = dependents[s >> 2];
+                    int count = counts[s >> 2];
+                    // A member may be fed twice by the same one
+                    if (count == 0 || list[count - 1] != m) {
+                        list[counts[s >> 2]++] = m;
+                    }
+                }
+            }
+        }
+        for (int m = 0; m < size; m++) {
+            if (counts[m] < dependents[m].length) {
+                int[] list = new int[counts[m]];
+                System.arraycopy(dependents[m], 0, list, 0, counts[m]);
+                dependents[m] = list;
+            }
+        }
+
+        // Start from what the world shows
+        for (int m = 0; m < size; m++) {
+            ICInstance inst = members[m];
+            for (int n = 0; n < inst.getType().outputs; n++) {
+                if (CraftBookListener.getRedstoneOutput(inst.getOutput(n))) {
+                    outputs[m] |= 1 << n;
+                }
+            }
+        }
+        for (int m = 0; m < size; m++) {
+            inputs[m] = readInputs(m);
+        }
+    }
+
+    /**
+     * Get the number of members.
+     *
+     * @return
+     */
+    public int size() {
+        return members.length;
+    }
+
+    /**
+     * Get a member.
+     *
+     * @param m
+     * @return
+     */
+    public ICInstance getMember(int m) {
+        return members[m];
+    }
+
+    /**
+     * Get the index of a member.
+     *
+     * @param key packed position of the sign
+     * @return index, or -1 if the sign is not a member
+     */
+    public int indexOf(long key) {
+        return index.get(key, -1);
+    }
+
+    /**
+     * Get the packed positions of the blocks that the plan depends on.
+     *
+     * @return
+     */
+    public long[] getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Get the input of a member that is fed by another member and is
+     * read at a position.
+     *
+     * @param m
+     * @param pos packed position
+     * @return input index, or -1 if there is no such input
+     */
+    public int getInternalInput(int m, long pos) {
+        ICInstance inst = members[m];
+        for (int n = 0; n < inst.getType().inputs; n++) {
+            if (sources[m][n] != null && inst.getInput(n) == pos) {
+                return n;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the value of an input as worked out by the plan.
+     *
+     * @param m
+     * @param n
+     * @return
+     */
+    public boolean getPlannedInput(int m, int n) {
+        int[] src = sources[m][n];
+        if (src == null) {
+            return false;
+        }
+        for (int s : src) {
+            if ((outputs[s >> 2] & (1 << (s & 3))) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Mark a member to think on the next propagation.
+     *
+     * @param m
+     * @param changed packed position of the input that changed
+     */
+    public void trigger(int m, long changed) {
+        ICInstance inst = members[m];
+        for (int n = 0; n < inst.getType().inputs; n++) {
+            if (inst.getInput(n) == changed) {
+                triggered[m] |= 1 << n;
+            }
+        }
+        markDirty(m);
+    }
+
+    /**
+     * Let the marked members think in order, together with the members
+     * that their changed outputs feed. Outputs are set through the
+     * delayer.
+     *
+     * @param depth number of levels to go through, or 0 for all
+     * @param r
+     * @return true if members are left for a later propagation
+     */
+    public boolean propagate(int depth, RedstoneDelayer r) {
+        int limit = Integer.MAX_VALUE;
+
+        for (int m = 0; m < members.length && dirtyCount > 0; m++) {
+            if (!dirty[m]) {
+                continue;
+            }
+            if (depth > 0 && limit == Integer.MAX_VALUE) {
+                limit = levels[m] + depth;
+            }
+            if (levels[m] >= limit) {
+                return true;
+            }
+            dirty[m] = false;
+            dirtyCount--;
+            evaluate(m, r);
+        }
+
+        return false;
+    }
+
+    /**
+     * Let a member think.
+     *
+     * @param m
+     * @param r
+     */
+    private void evaluate(int m, RedstoneDelayer r) {
+        ICInstance inst = members[m];
+        ICType type = inst.getType();
+        evaluations++;
+
+        int in = readInputs(m);
+        int internal = 0;
+        for (int n = 0; n < type.inputs; n++) {
+            if (sources[m][n] != null) {
+                internal |= 1 << n;
+            }
+        }
+        // Inputs fed by members would have triggered on their own
+        int trig = triggered[m] | ((in ^ inputs[m]) & internal);
+        triggered[m] = 0;
+        inputs[m] = in;
+
+        // Pending lever outputs are already faked for reads
+        int out = 0;
+        for (int n = 0; n < type.outputs; n++) {
+            if (CraftBookListener.getRedstoneOutput(inst.getOutput(n))) {
+                out |= 1 << n;
+            }
+        }
+
+        int mask = (1 << type.outputs) - 1;
+        int result = ics[m].think(in, trig, out) & mask;
+
+        // Same as ChipState.isModified(): all outputs are set again
+        if (result != out) {
+            for (int n = 0; n < type.outputs; n++) {
+                long pos = inst.getOutput(n);
+                r.setOut(BlockVector.unpackX(pos), BlockVector.unpackY(pos),
+                        BlockVector.unpackZ(pos), (result & (1 << n)) != 0);
+            }
+        }
+
+        if (result != outputs[m]) {
+            outputs[m] = result;
+            for (int d : dependents[m]) {
+                markDirty(d);
+            }
+        }
+    }
+
+    /**
+     * Work out the inputs of a member.
+     *
+     * @param m
+     * @return
+     */
+    private int readInputs(int m) {
+        ICInstance inst = members[m];
+        int in = 0;
+        for (int n = 0; n < inst.getType().inputs; n++) {
+            boolean high = sources[m][n] == null
+                    ? CraftBookListener.isRedstoneHighBinary(inst.getInput(n), true)
+                    : getPlannedInput(m, n);
+            if (high) {
+                in |= 1 << n;
+            }
+        }
+        return in;
+    }
+
+    /**
+     * Mark a member to think.
+     *
+     * @param m
+     */
+    private void markDirty(int m) {
+        if (!dirty[m]) {
+            dirty[m] = true;
+            dirtyCount++;
+        }
+    }
+
+    /**
+     * Returns true if the plan can still be used.
+     *
+     * @return
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Stop the plan from being used.
+     */
+    public void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * Returns true if the plan is waiting to propagate on the next tick.
+     *
+     * @return
+     */
+    public boolean isPending() {
+        return pending;
+    }
+
+    /**
+     * Set whether the plan is waiting to propagate on the next tick.
+     *
+     * @param pending
+     */
+    public void setPending(boolean pending) {
+        this.pending = pending;
+    }
+
+    /**
+     * Get the number of times that members have thought.
+     *
+     * @return
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+}
@@ -0,0 +1,980 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sk89q.craftbook.BlockType;
+import com.sk89q.craftbook.BlockVector;
+import com.sk89q.craftbook.LongHashMap;
+import com.sk89q.craftbook.LongIntHashMap;
+import com.sk89q.craftbook.Vector;
+import com.sk89q.craftbook.ic.BitwiseIC;
+
+/**
+ * Finds groups of simple gate ICs that are wired to each other and
+ * compiles them into {@link ICNetlist}s, so that a change goes through a
+ * whole group in one tick. Plans are kept by the signs of their members
+ * and thrown away when any block that they depend on is placed, removed
+ * or used.
+ *
+ * <p>An input is only taken from the plan when nothing but the levers of
+ * members can power it. That is the case for a lever that one member
+ * sets, or for a flat run of wire whose only power sources are such
+ * levers, close enough to reach the input. The levers may be next to the
+ * wire or on a block next to it, which passes their power on. Anything
+ * else is read from the world as usual.</p>
+ *
+ * @author sk89q
+ */
+public class ICNetlists {
+    /**
+     * Largest number of ICs in a plan.
+     */
+    private static final int MAX_MEMBERS = 256;
+    /**
+     * Largest run of wire followed to an input.
+     */
+    private static final int MAX_WIRE = 64;
+    /**
+     * Number of wire blocks that a lever can power through beyond the
+     * first one.
+     */
+    private static final int WIRE_REACH = 14;
+    /**
+     * Time before an IC that could not be compiled is tried again.
+     */
+    private static final int RETRY_SECONDS = 30;
+    /**
+     * Most ICs whose outputs can reach a lever.
+     */
+    private static final int MAX_DRIVERS = 8;
+
+    private static final int[] SIDE_X = {1, -1, 0, 0};
+    private static final int[] SIDE_Z = {0, 0, 1, -1};
+    private static final int[] FACE_X = {1, -1, 0, 0, 0, 0};
+    private static final int[] FACE_Y = {0, 0, 0, 0, 1, -1};
+    private static final int[] FACE_Z = {0, 0, 1, -1, 0, 0};
+
+    private final CraftBookListener listener;
+    private boolean enabled;
+    /**
+     * Levels of a plan to go through per tick, or 0 for all.
+     */
+    private int depth;
+    /**
+     * Plans by the packed position of the signs of their members.
+     */
+    private final LongHashMap<ICNetlist> bySign =
+            new LongHashMap<ICNetlist>(64);
+    /**
+     * Plans by the packed position of the blocks that they depend on.
+     */
+    private final LongHashMap<ICNetlist[]> byBlock =
+            new LongHashMap<ICNetlist[]>(256);
+    /**
+     * Time in seconds when ICs could not be compiled.
+     */
+    private final LongIntHashMap rejected = new LongIntHashMap(64);
+    /**
+     * Plans with members left to think on the next tick.
+     */
+    private final List<ICNetlist> pending = new ArrayList<ICNetlist>();
+
+    private int planCount;
+    private int memberCount;
+    private long compiled;
+    private long rejections;
+    private long invalidations;
+    private long evaluations;
+
+    /**
+     * Construct the registry.
+     *
+     * @param listener
+     */
+    public ICNetlists(CraftBookListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns true if ICs are compiled into plans.
+     *
+     * @return
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enable or disable plans.
+     *
+     * @param enabled
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    /**
+     * Set the number of levels of a plan to go through per tick.
+     *
+     * @param depth levels, or 0 to go through a whole plan in one tick
+     */
+    public void setDepth(int depth) {
+        this.depth = Math.max(0, depth);
+    }
+
+    /**
+     * Let an IC think as part of its plan, compiling the plan if needed.
+     *
+     * @param key packed position of the sign
+     * @param inst
+     * @param changed packed position of the input that changed
+     * @param r
+     * @return false if the IC has to think on its own
+     */
+    public boolean think(long key, ICInstance inst, long changed,
+            RedstoneDelayer r) {
+        if (!enabled) {
+            return false;
+        }
+
+        ICNetlist net = bySign.get(key);
+        if (net == null) {
+            int now = (int)(System.currentTimeMillis() / 1000);
+            int index = rejected.indexOf(key);
+            if (index != -1 && now - rejected.valueAt(index) < RETRY_SECONDS) {
+                return false;
+            }
+            net = compile(key, inst);
+            if (net == null) {
+                rejected.put(key, now);
+                rejections++;
+                return false;
+            }
+            rejected.remove(key);
+        }
+
+        int m = net.indexOf(key);
+        if (net.getMember(m) != inst) {
+            invalidate(net);
+            return false;
+        }
+
+        int n = net.getInternalInput(m, changed);
+        if (n != -1) {
+            // Our own output arriving; the plan has already used it
+            if (CraftBookListener.isRedstoneHighBinary(changed, true)
+                    == net.getPlannedInput(m, n)) {
+                return true;
+            }
+            // Something else set it
+            invalidate(net);
+            return false;
+        }
+
+        net.trigger(m, changed);
+        propagate(net, r);
+        return true;
+    }
+
+    /**
+     * Let the members of a plan think.
+     *
+     * @param net
+     * @param r
+     */
+    private void propagate(ICNetlist net, RedstoneDelayer r) {
+        long before = net.getEvaluations();
+        boolean more = net.propagate(depth, r);
+        evaluations += net.getEvaluations() - before;
+
+        if (more && !net.isPending()) {
+            net.setPending(true);
+            pending.add(net);
+        }
+    }
+
+    /**
+     * Called every tick to carry on with plans that were cut short.
+     *
+     * @param r
+     */
+    public void tick(RedstoneDelayer r) {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        ICNetlist[] nets = pending.toArray(new ICNetlist[pending.size()]);
+        pending.clear();
+
+        for (ICNetlist net : nets) {
+            net.setPending(false);
+            if (net.isValid()) {
+                propagate(net, r);
+            }
+        }
+    }
+
+    /**
+     * Throw away the plans that depend on a block.
+     *
+     * @param x
+     * @param y
+     * @param z
+     */
+    public void invalidate(int x, int y, int z) {
+        if (planCount == 0) {
+            return;
+        }
+
+        ICNetlist[] nets = byBlock.get(BlockVector.toLong(x, y, z));
+        if (nets != null) {
+            for (ICNetlist net : nets) {
+                invalidate(net);
+            }
+        }
+    }
+
+    /**
+     * Throw away a plan.
+     *
+     * @param net
+     */
+    private void invalidate(ICNetlist net) {
+        if (!net.isValid()) {
+            return;
+        }
+        net.invalidate();
+        planCount--;
+        memberCount -= net.size();
+        invalidations++;
+
+        for (int m = 0; m < net.size(); m++) {
+            Vector pt = net.getMember(m).getPosition();
+            long key = BlockVector.toLong(pt.getBlockX(), pt.getBlockY(),
+                    pt.getBlockZ());
+            if (bySign.get(key) == net) {
+                bySign.remove(key);
+            }
+        }
+
+        for (long key : net.getBlocks()) {
+            ICNetlist[] nets = byBlock.get(key);
+            if (nets == null) {
+                continue;
+            }
+            int count = 0;
+            for (ICNetlist other : nets) {
+                if (other != net) {
+                    count++;
+                }
+            }
+            if (count == 0) {
+                byBlock.remove(key);
+            } else if (count < nets.length) {
+                ICNetlist[] rest = new ICNetlist[count];
+                count = 0;
+                for (ICNetlist other : nets) {
+                    if (other != net) {
+                        rest[count++] = other;
+                    }
+                }
+                byBlock.put(key, rest);
+            }
+        }
+    }
+
+    /**
+     * Throw away all plans.
+     */
+    public void clear() {
+        for (int i = 0; i < bySign.capacity(); i++) {
+            ICNetlist net = bySign.valueAt(i);
+            if (net != null) {
+                net.invalidate();
+            }
+        }
+        bySign.clear();
+        byBlock.clear();
+        rejected.clear();
+        pending.clear();
+        planCount = 0;
+        memberCount = 0;
+    }
+
+    /**
+     * Find the group of ICs that an IC is wired to and compile it.
+     *
+     * @param seedKey packed position of the sign
+     * @param seed
+     * @return plan, or null if the IC is not wired to any other
+     */
+    private ICNetlist compile(long seedKey, ICInstance seed) {
+        LongIntHashMap index = new LongIntHashMap(16);
+        List<ICInstance> insts = new ArrayList<ICInstance>();
+        List<BitwiseIC> ics = new ArrayList<BitwiseIC>();
+        long[] wires = new long[MAX_WIRE];
+        int[] dist = new int[MAX_WIRE];
+
+        addMember(seedKey, index, insts, ics);
+
+        // Follow levers and wires both ways
+        for (int m = 0; m < insts.size(); m++) {
+            if (insts.size() > MAX_MEMBERS) {
+                return null;
+            }
+
+            ICInstance inst = insts.get(m);
+            ICType type = inst.getType();
+
+            for (int n = 0; n < type.inputs; n++) {
+                long pos = inst.getInput(n);
+                int id = getBlockID(pos);
+                if (id == BlockType.LEVER) {
+                    addDrivers(pos, index, insts, ics);
+                } else if (id == BlockType.REDSTONE_WIRE) {
+                    int count = findWire(pos, wires, dist);
+                    for (int i = 0; i < count; i++) {
+                        for (int d = 0; d < 6; d++) {
+                            long other = offset(wires[i], FACE_X[d],
+                                    FACE_Y[d], FACE_Z[d]);
+                            int otherID = getBlockID(other);
+                            if (otherID == BlockType.LEVER && FACE_Y[d] == 0) {
+                                addDrivers(other, index, insts, ics);
+                            } else if (!BlockType.canPassThrough(otherID)) {
+                                addBlockDrivers(other, index, insts, ics);
+                            }
+                        }
+                    }
+                }
+            }
+
+            for (int n = 0; n < type.outputs; n++) {
+                long lever = inst.getOutput(n);
+                if (getBlockID(lever) != BlockType.LEVER) {
+                    continue;
+                }
+                addReaders(lever, index, insts, ics);
+                long block = getAttachedBlock(lever);
+                for (int d = 0; d < 4 + 6; d++) {
+                    // Wire next to the lever, then next to its block
+                    long pos = d < 4
+                            ? offset(lever, SIDE_X[d], 0, SIDE_Z[d])
+                            : offset(block, FACE_X[d - 4], FACE_Y[d - 4],
+                                    FACE_Z[d - 4]);
+                    if (getBlockID(pos) != BlockType.REDSTONE_WIRE) {
+                        continue;
+                    }
+                    int count = findWire(pos, wires, dist);
+                    for (int i = 0; i < count; i++) {
+                        addReaders(wires[i], index, insts, ics);
+                    }
+                }
+            }
+        }
+
+        int size = insts.size();
+        if (size < 2 || size > MAX_MEMBERS) {
+            return null;
+        }
+
+        // Work out where each input comes from
+        LongIntHashMap blocks = new LongIntHashMap(size * 16);
+        int[][][] sources = new int[size][][];
+        int[] inDegree = new int[size];
+        int edges = 0;
+
+        for (int m = 0; m < size; m++) {
+            ICInstance inst = insts.get(m);
+            ICType type = inst.getType();
+            sources[m] = new int[type.inputs][];
+
+            addBlock(blocks, inst.getPosition());
+            addBlock(blocks, inst.getBlockPosition());
+            for (int n = 0; n < type.inputs; n++) {
+                long pos = inst.getInput(n);
+                blocks.put(pos, 0);
+                int[] src = findSources(pos, index, wires, dist, blocks);
+                sources[m][n] = src;
+                if (src != null) {
+                    inDegree[m] += src.length;
+                    edges += src.length;
+                }
+            }
+            for (int n = 0; n < type.outputs; n++) {
+                long pos = inst.getOutput(n);
+                blocks.put(pos, 0);
+                for (int d = 0; d < 4; d++) {
+                    blocks.put(offset(pos, SIDE_X[d], 0, SIDE_Z[d]), 0);
+                }
+                blocks.put(offset(pos, 0, 1, 0), 0);
+                blocks.put(offset(pos, 0, -1, 0), 0);
+            }
+        }
+
+        if (edges == 0) {
+            return null;
+        }
+
+        // Order by level; members left over are in a loop
+        int[] levels = new int[size];
+        int[] order = new int[size];
+        int head = 0;
+        int tail = 0;
+        for (int m = 0; m < size; m++) {
+            if (inDegree[m] == 0) {
+                order[tail++] = m;
+            }
+        }
+        while (head < tail) {
+            int m = order[head++];
+            for (int d = 0; d < size; d++) {
+                for (int[] src : sources[d]) {
+                    if (src == null) {
+                        continue;
+                    }
+                    for (int s : src) {
+                        if ((s >> 2) != m) {
+                            continue;
+                        }
+                        levels[d] = Math.max(levels[d], levels[m] + 1);
+                        if (--inDegree[d] == 0) {
+                            order[tail++] = d;
+                        }
+                    }
+                }
+            }
+        }
+        if (tail < size) {
+            return null;
+        }
+
+        // Sort by level, keeping the order otherwise
+        int maxLevel = 0;
+        for (int m = 0; m < size; m++) {
+            maxLevel = Math.max(maxLevel, levels[m]);
+        }
+        int[] newIndex = new int[size];
+        int next = 0;
+        for (int level = 0; level <= maxLevel; level++) {
+            for (int m = 0; m < size; m++) {
+                if (levels[m] == level) {
+                    newIndex[m] = next++;
+                }
+            }
+        }
+
+        ICInstance[] members = new ICInstance[size];
+        BitwiseIC[] memberICs = new BitwiseIC[size];
+        int[] memberLevels = new int[size];
+        int[][][] memberSources = new int[size][][];
+        for (int m = 0; m < size; m++) {
+            int i = newIndex[m];
+            members[i] = insts.get(m);
+            memberICs[i] = ics.get(m);
+            memberLevels[i] = levels[m];
+            memberSources[i] = sources[m];
+            for (int[] src : sources[m]) {
+                if (src == null) {
+                    continue;
+                }
+                for (int j = 0; j < src.length; j++) {
+                    src[j] = (newIndex[src[j] >> 2] << 2) | (src[j] & 3);
+                }
+            }
+        }
+
+        long[] blockKeys = new long[blocks.size()];
+        for (int i = 0; i < blockKeys.length; i++) {
+            blockKeys[i] = blocks.keyAt(i);
+        }
+
+        ICNetlist net = new ICNetlist(members, memberICs, memberLevels,
+                memberSources, blockKeys);
+        register(net);
+        compiled++;
+        return net;
+    }
+
+    /**
+     * Index a new plan.
+     *
+     * @param net
+     */
+    private void register(ICNetlist net) {
+        for (int m = 0; m < net.size(); m++) {
+            Vector pt = net.getMember(m).getPosition();
+            long key = BlockVector.toLong(pt.getBlockX(), pt.getBlockY(),
+                    pt.getBlockZ());
+            ICNetlist old = bySign.get(key);
+            if (old != null) {
+                invalidate(old);
+            }
+            bySign.put(key, net);
+        }
+
+        for (long key : net.getBlocks()) {
+            ICNetlist[] nets = byBlock.get(key);
+            if (nets == null) {
+                byBlock.put(key, new ICNetlist[] {net});
+            } else {
+                ICNetlist[] more = new ICNetlist[nets.length + 1];
+                System.arraycopy(nets, 0, more, 0, nets.length);
+                more[nets.length] = net;
+                byBlock.put(key, more);
+            }
+        }
+
+        planCount++;
+        memberCount += net.size();
+    }
+
+    /**
+     * Work out where an input comes from.
+     *
+     * @param pos packed position of the input
+     * @param index
+     * @param wires
+     * @param dist
+     * @param blocks receives the blocks that were looked at
+     * @return sources, or null if the input has to be read from the world
+     */
+    private int[] findSources(long pos, LongIntHashMap index, long[] wires,
+            int[] dist, LongIntHashMap blocks) {
+        int id = getBlockID(pos);
+
+        if (id == BlockType.LEVER) {
+            int source = findSource(pos, index);
+            return source == -1 ? null : new int[] {source};
+        } else if (id != BlockType.REDSTONE_WIRE) {
+            return null;
+        }
+
+        int count = findWire(pos, wires, dist);
+        if (count == -1) {
+            return null;
+        }
+
+        int[] found = new int[4];
+        int foundCount = 0;
+        int[] through = new int[6];
+
+        for (int i = 0; i < count; i++) {
+            long wire = wires[i];
+            blocks.put(wire, 0);
+
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int d = 0; d < 4; d++) {
+                    long other = offset(wire, SIDE_X[d], dy, SIDE_Z[d]);
+                    blocks.put(other, 0);
+                    if (dy == 0 && indexOf(wires, count, other) != -1) {
+                        continue;
+                    }
+
+                    int otherID = getBlockID(other);
+                    int throughCount = 0;
+                    if (otherID == BlockType.LEVER && dy == 0) {
+                        through[0] = dist[i] <= WIRE_REACH
+                                ? findSource(other, index) : -1;
+                        if (through[0] == -1) {
+                            return null;
+                        }
+                        throughCount = 1;
+                    } else if (dy == 0 ? isPowerSource(otherID)
+                            : otherID == BlockType.REDSTONE_WIRE) {
+                        // Wire going up or down a block is not followed
+                        return null;
+                    } else if (dy == 0 && !BlockType.canPassThrough(otherID)) {
+                        throughCount = findBlockSources(other, dist[i],
+                                index, wires, count, blocks, through);
+                        if (throughCount == -1) {
+                            return null;
+                        }
+                    }
+
+                    for (int j = 0; j < throughCount; j++) {
+                        if (indexOf(found, foundCount, through[j]) == -1) {
+                            found = add(found, foundCount++, through[j]);
+                        }
+                    }
+                }
+
+                if (dy != 0) {
+                    long other = offset(wire, 0, dy, 0);
+                    blocks.put(other, 0);
+                    int otherID = getBlockID(other);
+                    if (isPowerSource(otherID)) {
+                        return null;
+                    } else if (!BlockType.canPassThrough(otherID)) {
+                        int throughCount = findBlockSources(other, dist[i],
+                                index, wires, count, blocks, through);
+                        if (throughCount == -1) {
+                            return null;
+                        }
+                        for (int j = 0; j < throughCount; j++) {
+                            if (indexOf(found, foundCount, through[j]) == -1) {
+                                found = add(found, foundCount++, through[j]);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        if (foundCount == 0) {
+            return null;
+        }
+
+        int[] result = new int[foundCount];
+        System.arraycopy(found, 0, result, 0, foundCount);
+        return result;
+    }
+
+    /**
+     * Work out where a solid block next to a run of wire gets its power
+     * from, as it passes the power on to the wire. A lever on the block
+     * is a source. A torch, button, plate or other wire next to the block
+     * leaves the input to be read from the world, even where it would not
+     * power the block.
+     *
+     * @param block packed position of the block
+     * @param dist number of wire blocks from the input to the wire next to
+     *        the block
+     * @param index
+     * @param wires the run of wire
+     * @param count number of wire blocks in the run
+     * @param blocks receives the blocks that were looked at
+     * @param found receives the sources, at most 6
+     * @return number of sources, or -1 if the input has to be read from
+     *         the world
+     */
+    private int findBlockSources(long block, int dist, LongIntHashMap index,
+            long[] wires, int count, LongIntHashMap blocks, int[] found) {
+        int foundCount = 0;
+
+        for (int d = 0; d < 6; d++) {
+            long other = offset(block, FACE_X[d], FACE_Y[d], FACE_Z[d]);
+            blocks.put(other, 0);
+            if (indexOf(wires, count, other) != -1) {
+                continue;
+            }
+
+            int id = getBlockID(other);
+            if (id == BlockType.LEVER) {
+                // Levers only power the block that they are on
+                if (getAttachedBlock(other) != block) {
+                    continue;
+                }
+                int source = dist <= WIRE_REACH ? findSource(other, index) : -1;
+                if (source == -1) {
+                    return -1;
+                }
+                found[foundCount++] = source;
+            } else if (isPowerSource(id)) {
+                return -1;
+            }
+        }
+
+        return foundCount;
+    }
+
+    /**
+     * Find the member that alone sets a lever.
+     *
+     * @param lever packed position
+     * @param index
+     * @return member index shifted left by 2 and or'ed with the output,
+     *         or -1 if there is no such member
+     */
+    private int findSource(long lever, LongIntHashMap index) {
+        long[] keys = new long[MAX_DRIVERS];
+        int[] outputs = new int[MAX_DRIVERS];
+        if (findDrivers(lever, keys, outputs) != 1) {
+            return -1;
+        }
+        int m = index.get(keys[0], -1);
+        return m == -1 ? -1 : (m << 2) | outputs[0];
+    }
+
+    /**
+     * Add the simple gate ICs that set a lever.
+     *
+     * @param lever
+     * @param index
+     * @param insts
+     * @param ics
+     */
+    private void addDrivers(long lever, LongIntHashMap index,
+            List<ICInstance> insts, List<BitwiseIC> ics) {
+        long[] keys = new long[MAX_DRIVERS];
+        int[] outputs = new int[MAX_DRIVERS];
+        int count = findDrivers(lever, keys, outputs);
+        for (int i = 0; i < count; i++) {
+            addMember(keys[i], index, insts, ics);
+        }
+    }
+
+    /**
+     * Add the simple gate ICs that set the levers on a block.
+     *
+     * @param block packed position
+     * @param index
+     * @param insts
+     * @param ics
+     */
+    private void addBlockDrivers(long block, LongIntHashMap index,
+            List<ICInstance> insts, List<BitwiseIC> ics) {
+        for (int d = 0; d < 6; d++) {
+            long lever = offset(block, FACE_X[d], FACE_Y[d], FACE_Z[d]);
+            if (getBlockID(lever) == BlockType.LEVER
+                    && getAttachedBlock(lever) == block) {
+                addDrivers(lever, index, insts, ics);
+            }
+        }
+    }
+
+    /**
+     * Find the ICs that have an output at a lever.
+     *
+     * @param lever packed position
+     * @param keys receives the packed positions of the signs
+     * @param outputs receives the output indexes
+     * @return number of outputs found
+     */
+    private int findDrivers(long lever, long[] keys, int[] outputs) {
+        int x = BlockVector.unpackX(lever);
+        int y = BlockVector.unpackY(lever);
+        int z = BlockVector.unpackZ(lever);
+        int count = 0;
+
+        // Outputs are at most 3 blocks away from the sign
+        for (int dx = -3; dx <= 3; dx++) {
+            for (int dz = -3; dz <= 3; dz++) {
+                if (Math.abs(dx) + Math.abs(dz) > 3) {
+                    continue;
+                }
+                ICInstance inst = listener.findICInstance(x + dx, y, z + dz);
+                if (inst == null) {
+                    continue;
+                }
+                for (int n = 0; n < inst.getType().outputs; n++) {
+                    if (inst.getOutput(n) == lever && count < keys.length) {
+                        keys[count] = BlockVector.toLong(x + dx, y, z + dz);
+                        outputs[count] = n;
+                        count++;
+                    }
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Add the simple gate ICs that have an input at a block.
+     *
+     * @param pos packed position
+     * @param index
+     * @param insts
+     * @param ics
+     */
+    private void addReaders(long pos, LongIntHashMap index,
+            List<ICInstance> insts, List<BitwiseIC> ics) {
+        // Inputs are next to the sign
+        for (int d = 0; d < 4; d++) {
+            long key = offset(pos, SIDE_X[d], 0, SIDE_Z[d]);
+            ICInstance inst = listener.findICInstance(BlockVector.unpackX(key),
+                    BlockVector.unpackY(key), BlockVector.unpackZ(key));
+            if (inst == null) {
+                continue;
+            }
+            for (int n = 0; n < inst.getType().inputs; n++) {
+                if (inst.getInput(n) == pos) {
+                    addMember(key, index, insts, ics);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Add an IC to a group if it is a simple gate and not already there.
+     *
+     * @param key packed position of the sign
+     * @param index
+     * @param insts
+     * @param ics
+     */
+    private void addMember(long key, LongIntHashMap index,
+            List<ICInstance> insts, List<BitwiseIC> ics) {
+        if (index.containsKey(key)) {
+            return;
+        }
+
+        int x = BlockVector.unpackX(key);
+        int y = BlockVector.unpackY(key);
+        int z = BlockVector.unpackZ(key);
+        BitwiseIC ic = listener.findBitwiseIC(x, y, z);
+        if (ic == null) {
+            return;
+        }
+
+        index.put(key, insts.size());
+        insts.add(listener.findICInstance(x, y, z));
+        ics.add(ic);
+    }
+
+    /**
+     * Find the flat run of wire that a wire block is part of.
+     *
+     * @param start packed position of the wire
+     * @param wires receives the packed positions of the wire blocks
+     * @param dist receives the number of blocks from the start
+     * @return number of wire blocks, or -1 if there are too many
+     */
+    private static int findWire(long start, long[] wires, int[] dist) {
+        wires[0] = start;
+        dist[0] = 0;
+        int count = 1;
+
+        for (int i = 0; i < count; i++) {
+            for (int d = 0; d < 4; d++) {
+                long pos = offset(wires[i], SIDE_X[d], 0, SIDE_Z[d]);
+                if (getBlockID(pos) != BlockType.REDSTONE_WIRE
+                        || indexOf(wires, count, pos) != -1) {
+                    continue;
+                }
+                if (count == wires.length) {
+                    return -1;
+                }
+                wires[count] = pos;
+                dist[count] = dist[i] + 1;
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns true if a block can power wire next to it. Doors are not
+     * counted.
+     *
+     * @param id
+     * @return
+     */
+    private static boolean isPowerSource(int id) {
+        return id == BlockType.REDSTONE_WIRE
+                || id == BlockType.LEVER
+                || id == BlockType.STONE_PRESSURE_PLATE
+                || id == BlockType.WOODEN_PRESSURE_PLATE
+                || id == BlockType.REDSTONE_TORCH_ON
+                || id == BlockType.REDSTONE_TORCH_OFF
+                || id == BlockType.STONE_BUTTON;
+    }
+
+    /**
+     * Get the block that a lever is on, from its data.
+     *
+     * @param lever packed position
+     * @return packed position
+     */
+    private static long getAttachedBlock(long lever) {
+        int data = CraftBook.getBlockData(BlockVector.unpackX(lever),
+                BlockVector.unpackY(lever), BlockVector.unpackZ(lever)) & 0x7;
+        if (data == 1) {
+            return offset(lever, -1, 0, 0);
+        } else if (data == 2) {
+            return offset(lever, 1, 0, 0);
+        } else if (data == 3) {
+            return offset(lever, 0, 0, -1);
+        } else if (data == 4) {
+            return offset(lever, 0, 0, 1);
+        } else {
+            return offset(lever, 0, -1, 0);
+        }
+    }
+
+    /**
+     * Add a value at the end of an array, growing it if needed.
+     *
+     * @param values
+     * @param count number of values in the array
+     * @param value
+     * @return the array, or a larger copy of it
+     */
+    private static int[] add(int[] values, int count, int value) {
+        if (count == values.length) {
+            int[] more = new int[count * 2];
+            System.arraycopy(values, 0, more, 0, count);
+            values = more;
+        }
+        values[count] = value;
+        return values;
+    }
+
+    private static int indexOf(long[] keys, int count, long key) {
+        for (int i = 0; i < count; i++) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long offset(long pos, int dx, int dy, int dz) {
+        return BlockVector.toLong(BlockVector.unpackX(pos) + dx,
+                BlockVector.unpackY(pos) + dy, BlockVector.unpackZ(pos) + dz);
+    }
+
+    private static int getBlockID(long pos) {
+        return CraftBook.getBlockID(BlockVector.unpackX(pos),
+                BlockVector.unpackY(pos), BlockVector.unpackZ(pos));
+    }
+
+    private static void addBlock(LongIntHashMap blocks, Vector pt) {
+        blocks.put(BlockVector.toLong(pt.getBlockX(), pt.getBlockY(),
+                pt.getBlockZ()), 0);
+    }
+
+    /**
+     * Get a report for display.
+     *
+     * @return
+     */
+    public String report() {
+        return planCount + " plans (" + memberCount + " ICs), "
+                + compiled + " compiled, " + rejections + " rejected, "
+                + invalidations + " invalidated, " + evaluations
+                + " thinks" + (enabled ? "" : " (disabled)");
+    }
+}
@@ -0,0 +1,193 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.sk89q.craftbook.BlockVector;
+import com.sk89q.craftbook.SpaceSaving;
+
+/**
+ * Measures the time that ICs take to think, per IC id and per sign. The
+ * signs are tracked with a {@link SpaceSaving} sketch weighted by time,
+ * so only the most expensive ones are kept. Callers check
+ * {@link #isEnabled()} before timing anything, so there is no cost while
+ * the profiler is off.
+ *
+ * @author sk89q
+ */
+public class ICProfiler {
+    /**
+     * Logger.
+     */
+    private static final Logger logger = Logger.getLogger("Minecraft");
+
+    /**
+     * Checked on every think, so it is static.
+     */
+    private static boolean enabled;
+
+    /**
+     * Timings of an IC id.
+     */
+    private static class Entry {
+        long count;
+        long nanos;
+        long maxNanos;
+    }
+
+    private final Map<String,Entry> entries = new HashMap<String,Entry>();
+    /**
+     * Signs that took the most time, weighted by nanoseconds.
+     */
+    private final SpaceSaving hotSigns = new SpaceSaving(128);
+    /**
+     * Milliseconds between dumps to the log, or 0 for none.
+     */
+    private long logInterval;
+    private long lastLog = System.currentTimeMillis();
+
+    /**
+     * Returns true if ICs are being profiled.
+     *
+     * @return
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enable or disable profiling.
+     *
+     * @param enabled
+     */
+    public void setEnabled(boolean enabled) {
+        ICProfiler.enabled = enabled;
+        lastLog = System.currentTimeMillis();
+    }
+
+    /**
+     * Set how often the profile is written to the log.
+     *
+     * @param minutes minutes between dumps, or 0 for none
+     */
+    public void setLogInterval(int minutes) {
+        logInterval = Math.max(0, minutes) * 60000L;
+    }
+
+    /**
+     * Record a think.
+     *
+     * @param id IC id
+     * @param x
+     * @param y
+     * @param z
+     * @param nanos
+     */
+    public void record(String id, int x, int y, int z, long nanos) {
+        Entry entry = entries.get(id);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(id, entry);
+        }
+        entry.count++;
+        entry.nanos += nanos;
+        if (nanos > entry.maxNanos) {
+            entry.maxNanos = nanos;
+        }
+
+        hotSigns.offer(BlockVector.toLong(x, y, z), Math.max(1, nanos));
+    }
+
+    /**
+     * Forget everything recorded.
+     */
+    public void reset() {
+        entries.clear();
+        hotSigns.clear();
+    }
+
+    /**
+     * Called every tick to write the profile to the log from time to time.
+     */
+    public void tick() {
+        if (!enabled || logInterval == 0) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - lastLog < logInterval) {
+            return;
+        }
+        lastLog = now;
+
+        if (entries.isEmpty()) {
+            return;
+        }
+        logger.info("CraftBook: IC profile:");
+        for (String line : report(10)) {
+            logger.info("CraftBook:   " + line);
+        }
+    }
+
+    /**
+     * Get a report for display, most expensive first.
+     *
+     * @param top number of IC ids and signs to list
+     * @return
+     */
+    public List<String> report(int top) {
+        List<String> ids = new ArrayList<String>(entries.keySet());
+        Collections.sort(ids, new Comparator<String>() {
+            public int compare(String a, String b) {
+                long na = entries.get(a).nanos;
+                long nb = entries.get(b).nanos;
+                return na > nb ? -1 : na < nb ? 1 : a.compareTo(b);
+            }
+        });
+
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < ids.size() && i < top; i++) {
+            Entry entry = entries.get(ids.get(i));
+            lines.add(ids.get(i) + ": " + entry.count + " thinks, "
+                    + MechanicStats.formatNanos(entry.nanos) + " total (avg "
+                    + MechanicStats.formatNanos(entry.nanos / entry.count)
+                    + ", max " + MechanicStats.formatNanos(entry.maxNanos) + ")");
+        }
+
+        long[] keys = new long[top];
+        long[] nanos = new long[top];
+        long[] errors = new long[top];
+        int n = hotSigns.top(keys, nanos, errors);
+        for (int i = 0; i < n; i++) {
+            long key = keys[i];
+            lines.add("#" + (i + 1) + " " + BlockVector.unpackX(key) + ","
+                    + BlockVector.unpackY(key) + "," + BlockVector.unpackZ(key)
+                    + ": " + MechanicStats.formatNanos(nanos[i])
+                    + (errors[i] > 0 ? " (-" + MechanicStats.formatNanos(errors[i]) + ")" : ""));
+        }
+
+        return lines;
+    }
+}
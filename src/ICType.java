@@ -18,8 +18,9 @@
 */
 
 import com.sk89q.craftbook.BlockType;
+import com.sk89q.craftbook.BlockVector;
 import com.sk89q.craftbook.SignText;
-import com.sk89q.craftbook.Vector;
+import com.sk89q.craftbook.ic.BitwiseIC;
 import com.sk89q.craftbook.ic.ChipState;
 import com.sk89q.craftbook.ic.IC;
 import com.sk89q.craftbook.ic.Signal;
@@ -31,199 +32,329 @@ public enum ICType {
     /**
      * Single input, single output
      */
-    SISO ("SISO") {
-        void think(Vector pt, Vector changedRedstoneInput, SignText signText, Sign sign, IC sisoIC, RedstoneDelayer r) {
-            Vector outputVec = CraftBookListener.getWallSignBack(pt, 2);
-            Vector in0 = CraftBookListener.getWallSignBack(pt, -1);
-            Vector backVec = CraftBookListener.getWallSignBack(pt, 1);
-
+    SISO ("SISO", 1, 1, 2) {
+        ChipState newChip(ICInstance inst, long changedRedstoneInput, SignText signText) {
             Signal[] in = new Signal[1];
-            in[0] = new Signal(CraftBookListener.isRedstoneHighBinary(in0, true),
-                    changedRedstoneInput.equals(in0));
+            in[0] = input(inst.getInput(0), changedRedstoneInput);
             
             Signal[] out = new Signal[1];
-            out[0] = new Signal(CraftBookListener.getRedstoneOutput(outputVec));
-            
-            ChipState chip = new ChipState(pt, backVec, in, out, signText);
-            
-            sisoIC.think(chip);
+            out[0] = output(inst.getOutput(0));
             
-            if (chip.isModified()) {
-                r.setOut(outputVec, chip.getOut(1).is());
-            }
+            return new ChipState(inst.getPosition(),
+                    inst.getBlockPosition(), in, out, signText);
         }
     },
     /**
      * Single input, triple output
      */
-    SI3O ("SI3O") {
-        void think(Vector pt, Vector changedRedstoneInput, SignText signText, Sign sign, IC si3oIC, RedstoneDelayer r) {
-            Vector backVec = CraftBookListener.getWallSignBack(pt, 1);
-            Vector backShift = backVec.subtract(pt);
-            Vector in0 = CraftBookListener.getWallSignBack(pt, -1);
-            Vector output1Vec = CraftBookListener.getWallSignBack(pt, 2);
-            Vector output2Vec = CraftBookListener.getWallSignSide(pt, 1).add(backShift);
-            Vector output3Vec = CraftBookListener.getWallSignSide(pt, -1).add(backShift);
-
+    SI3O ("SI3O", 1, 3, 2) {
+        ChipState newChip(ICInstance inst, long changedRedstoneInput, SignText signText) {
             Signal[] in = new Signal[1];
-            in[0] = new Signal(CraftBookListener.isRedstoneHighBinary(in0, true),
-                    changedRedstoneInput.equals(in0));
+            in[0] = input(inst.getInput(0), changedRedstoneInput);
 
             Signal[] out = new Signal[3];
-            out[0] = new Signal(CraftBookListener.getRedstoneOutput(output1Vec));
-            out[1] = new Signal(CraftBookListener.getRedstoneOutput(output2Vec));
-            out[2] = new Signal(CraftBookListener.getRedstoneOutput(output3Vec));
-
-            ChipState chip = new ChipState(pt, backVec, in, out, signText);
+            out[0] = output(inst.getOutput(0));
+            out[1] = output(inst.getOutput(1));
+            out[2] = output(inst.getOutput(2));
 
-            // The most important part...
-            si3oIC.think(chip);
-
-            if (chip.isModified()) {
-                r.setOut(output1Vec, chip.getOut(1).is());
-                r.setOut(output2Vec, chip.getOut(2).is());
-                r.setOut(output3Vec, chip.getOut(3).is());
-            }
+            return new ChipState(inst.getPosition(),
+                    inst.getBlockPosition(), in, out, signText);
         }
     },
     /**
      * Triple input, single output
      */
-    _3ISO ("3ISO") {
-        void think(Vector pt, Vector changedRedstoneInput, SignText signText, Sign sign, IC _3isoIC, RedstoneDelayer r) {
-            Vector backVec = CraftBookListener.getWallSignBack(pt, 1);
-            Vector outputVec = CraftBookListener.getWallSignBack(pt, 2);
-            Vector input1Vec = CraftBookListener.getWallSignBack(pt, -1);
-            Vector input2Vec = CraftBookListener.getWallSignSide(pt, 1);
-            Vector input3Vec = CraftBookListener.getWallSignSide(pt, -1);
-
+    _3ISO ("3ISO", 3, 1, 2) {
+        ChipState newChip(ICInstance inst, long changedRedstoneInput, SignText signText) {
             Signal[] in = new Signal[3];
-            in[0] = new Signal(CraftBookListener.isRedstoneHighBinary(input1Vec, true),
-                    changedRedstoneInput.equals(input1Vec));
-            in[1] = new Signal(CraftBookListener.isRedstoneHighBinary(input2Vec, true),
-                    changedRedstoneInput.equals(input2Vec));
-            in[2] = new Signal(CraftBookListener.isRedstoneHighBinary(input3Vec, true),
-                    changedRedstoneInput.equals(input3Vec));
+            in[0] = input(inst.getInput(0), changedRedstoneInput);
+            in[1] = input(inst.getInput(1), changedRedstoneInput);
+            in[2] = input(inst.getInput(2), changedRedstoneInput);
 
             Signal[] out = new Signal[1];
-            out[0] = new Signal(CraftBookListener.getRedstoneOutput(outputVec));
+            out[0] = output(inst.getOutput(0));
 
-            ChipState chip = new ChipState(pt, backVec, in, out, signText);
-
-            // The most important part...
-            _3isoIC.think(chip);
-
-            if (chip.isModified()) {
-                r.setOut(outputVec, chip.getOut(1).is());
-            }
+            return new ChipState(inst.getPosition(),
+                    inst.getBlockPosition(), in, out, signText);
         }
     },
     /**
      * Triple input, triple output
      */
-    _3I3O ("3I3O") {
-        void think(Vector pt, Vector changedRedstoneInput, SignText signText, Sign sign, IC _3i3oIC, RedstoneDelayer r) {
-            Vector backVec = CraftBookListener.getWallSignBack(pt, 1);
-            Vector backShift = CraftBookListener.getWallSignBack(pt, 2).subtract(pt);
-            
-            Vector out0 = CraftBookListener.getWallSignBack(pt, 3);
-            Vector out1 = CraftBookListener.getWallSignSide(pt, 1).add(backShift);
-            Vector out2 = CraftBookListener.getWallSignSide(pt, -1).add(backShift);
-            
-            Vector in0 = CraftBookListener.getWallSignBack(pt, -1);
-            Vector in1 = CraftBookListener.getWallSignSide(pt, 1);
-            Vector in2 = CraftBookListener.getWallSignSide(pt, -1);
-
+    _3I3O ("3I3O", 3, 3, 3) {
+        ChipState newChip(ICInstance inst, long changedRedstoneInput, SignText signText) {
             Signal[] in = new Signal[3];
-            in[0] = new Signal(CraftBookListener.isRedstoneHighBinary(in0, true),
-                    changedRedstoneInput.equals(in0));
-            in[1] = new Signal(CraftBookListener.isRedstoneHighBinary(in1, true),
-                    changedRedstoneInput.equals(in1));
-            in[2] = new Signal(CraftBookListener.isRedstoneHighBinary(in2, true),
-                    changedRedstoneInput.equals(in2));
+            in[0] = input(inst.getInput(0), changedRedstoneInput);
+            in[1] = input(inst.getInput(1), changedRedstoneInput);
+            in[2] = input(inst.getInput(2), changedRedstoneInput);
 
             Signal[] out = new Signal[3];
-            out[0] = new Signal(CraftBookListener.getRedstoneOutput(out0));
-            out[1] = new Signal(CraftBookListener.getRedstoneOutput(out1));
-            out[2] = new Signal(CraftBookListener.getRedstoneOutput(out2));
+            out[0] = output(inst.getOutput(0));
+            out[1] = output(inst.getOutput(1));
+            out[2] = output(inst.getOutput(2));
 
-            ChipState chip = new ChipState(pt, backVec, in, out, signText);
-
-            // The most important part...
-            _3i3oIC.think(chip);
-
-            if (chip.isModified()) {
-                r.setOut(out0, chip.getOut(1).is());
-                r.setOut(out1, chip.getOut(2).is());
-                r.setOut(out2, chip.getOut(3).is());
-            }
+            return new ChipState(inst.getPosition(),
+                    inst.getBlockPosition(), in, out, signText);
         }
     },
     /**
      * Variable input, variable output
      */
-    VIVO ("VIVO") {
-        void think(Vector pt, Vector changedRedstoneInput, SignText signText, Sign sign, IC vivoIC, RedstoneDelayer r) {
-            Vector backVec = CraftBookListener.getWallSignBack(pt, 1);
-            Vector backShift = backVec.subtract(pt);
-            
-            Vector out0 = CraftBookListener.getWallSignBack(pt, 2);
-            Vector out1 = CraftBookListener.getWallSignSide(pt, 1).add(backShift);
-            Vector out2 = CraftBookListener.getWallSignSide(pt, -1).add(backShift);
-            
-            Vector in0 = CraftBookListener.getWallSignBack(pt, -1);
-            Vector in1 = CraftBookListener.getWallSignSide(pt, 1);
-            Vector in2 = CraftBookListener.getWallSignSide(pt, -1);
+    VIVO ("VIVO", 3, 3, 2) {
+        ChipState newChip(ICInstance inst, long changedRedstoneInput, SignText signText) {
+            long out1 = inst.getOutput(1);
+            long out2 = inst.getOutput(2);
 
-            boolean hasOut1 = CraftBook.getBlockID(out1) == BlockType.LEVER;
-            boolean hasOut2 = CraftBook.getBlockID(out2) == BlockType.LEVER;
+            boolean hasOut1 = getBlockID(out1) == BlockType.LEVER;
+            boolean hasOut2 = getBlockID(out2) == BlockType.LEVER;
             
             Signal[] in = new Signal[3];
             Signal[] out = new Signal[3];
             
-            out[0] = new Signal(CraftBookListener.getRedstoneOutput(out0));
-            in[0] = new Signal(CraftBookListener.isRedstoneHighBinary(in0, true),
-                               changedRedstoneInput.equals(in0));
+            out[0] = output(inst.getOutput(0));
+            in[0] = input(inst.getInput(0), changedRedstoneInput);
             
             if(hasOut1) {
-                out[1] = new Signal(CraftBookListener.getRedstoneOutput(out1));
+                out[1] = output(out1);
                 in[1] = new Signal(false);
             }
             else {
                 out[1] = new Signal(false);
-                in[1] = new Signal(CraftBookListener.isRedstoneHighBinary(in1, true),
-                                   changedRedstoneInput.equals(in1));
+                in[1] = input(inst.getInput(1), changedRedstoneInput);
             }
             
             if(hasOut2) {
-                out[2] = new Signal(CraftBookListener.getRedstoneOutput(out2));
+                out[2] = output(out2);
                 in[2] = new Signal(false);
             }
             else {
                 out[2] = new Signal(false);
-                in[2] = new Signal(CraftBookListener.isRedstoneHighBinary(in2, true),
-                                   changedRedstoneInput.equals(in2));
+                in[2] = input(inst.getInput(2), changedRedstoneInput);
             }
             
-            ChipState chip = new ChipState(pt, backVec, in, out, signText);
-            
-            // The most important part...
-            vivoIC.think(chip);
+            return new ChipState(inst.getPosition(),
+                    inst.getBlockPosition(), in, out, signText);
+        }
 
-            if (chip.isModified()) {
-                r.setOut(out0, chip.getOut(1).is());
-                if(hasOut1) r.setOut(out1, chip.getOut(2).is());
-                if(hasOut2) r.setOut(out2, chip.getOut(3).is());
-            }
+        void setOuts(ChipState chip, ICInstance inst, RedstoneDelayer r) {
+            long out1 = inst.getOutput(1);
+            long out2 = inst.getOutput(2);
+
+            setOut(r, inst.getOutput(0), chip.getOut(1).is());
+            // Sides without a lever are inputs
+            if(getBlockID(out1) == BlockType.LEVER) setOut(r, out1, chip.getOut(2).is());
+            if(getBlockID(out2) == BlockType.LEVER) setOut(r, out2, chip.getOut(3).is());
         }
     };
     
     public final String name;
-    ICType(String name) {
+    /**
+     * Number of inputs.
+     */
+    final int inputs;
+    /**
+     * Number of outputs.
+     */
+    final int outputs;
+    /**
+     * Distance of the first output from the sign.
+     */
+    final int outputDistance;
+
+    ICType(String name, int inputs, int outputs, int outputDistance) {
         this.name = name;
+        this.inputs = inputs;
+        this.outputs = outputs;
+        this.outputDistance = outputDistance;
     }
     
-    abstract void think(Vector v, Vector c, SignText t, Sign s, IC i, RedstoneDelayer r);
+    /**
+     * Read the inputs and outputs of an IC.
+     *
+     * @param inst
+     * @param changedRedstoneInput
+     * @param t
+     * @return
+     */
+    abstract ChipState newChip(ICInstance inst, long changedRedstoneInput, SignText t);
+
+    /**
+     * Set all outputs of an IC.
+     *
+     * @param chip
+     * @param inst
+     * @param r
+     */
+    void setOuts(ChipState chip, ICInstance inst, RedstoneDelayer r) {
+        for (int n = 0; n < outputs; n++) {
+            setOut(r, inst.getOutput(n), chip.getOut(n + 1).is());
+        }
+    }
+
+    void think(ICInstance inst, long changedRedstoneInput, SignText t, Sign s, IC i, RedstoneDelayer r) {
+        ChipState chip = newChip(inst, changedRedstoneInput, t);
+        loadState(chip, inst);
+        i.think(chip);
+        storeState(chip, inst);
+        finish(chip, inst, r);
+    }
+
+    /**
+     * Set the outputs of an IC after it has thought.
+     *
+     * @param chip
+     * @param inst
+     * @param r
+     */
+    void finish(ChipState chip, ICInstance inst, RedstoneDelayer r) {
+        if (chip.isModified()) {
+            setOuts(chip, inst, r);
+        }
+
+        setDelayedOuts(chip, inst, r);
+    }
+
+    /**
+     * Returns true if ICs of this type can be run with bit masks. The
+     * sides of a VIVO IC can be inputs or outputs, so it always gets a
+     * chip state.
+     *
+     * @return
+     */
+    boolean supportsBitwise() {
+        return this != VIVO;
+    }
+
+    /**
+     * Let an IC that works on bit masks think. Nothing is allocated
+     * unless an output changes.
+     *
+     * @param inst
+     * @param changedRedstoneInput
+     * @param ic
+     * @param r
+     */
+    void thinkBitwise(ICInstance inst, long changedRedstoneInput,
+            BitwiseIC ic, RedstoneDelayer r) {
+        int in = 0;
+        int triggered = 0;
+        for (int n = 0; n < inputs; n++) {
+            long pos = inst.getInput(n);
+            if (CraftBookListener.isRedstoneHighBinary(pos, true)) {
+                in |= 1 << n;
+            }
+            if (pos == changedRedstoneInput) {
+                triggered |= 1 << n;
+            }
+        }
+
+        int out = 0;
+        for (int n = 0; n < outputs; n++) {
+            if (CraftBookListener.getRedstoneOutput(inst.getOutput(n))) {
+                out |= 1 << n;
+            }
+        }
+
+        int mask = (1 << outputs) - 1;
+        int result = ic.think(in, triggered, out) & mask;
+
+        // Same as ChipState.isModified(): all outputs are set again
+        if (result != out) {
+            for (int n = 0; n < outputs; n++) {
+                setOut(r, inst.getOutput(n), (result & (1 << n)) != 0);
+            }
+        }
+    }
+
+    /**
+     * Give an IC the state that it keeps in memory.
+     *
+     * @param chip
+     * @param inst
+     */
+    static void loadState(ChipState chip, ICInstance inst) {
+        chip.setState(inst.getState());
+    }
+
+    /**
+     * Keep the state of an IC in memory after it has thought.
+     *
+     * @param chip
+     * @param inst
+     */
+    static void storeState(ChipState chip, ICInstance inst) {
+        inst.setState(chip.getState());
+        if (chip.isStateChanged()) {
+            inst.setStateDirty(true);
+        }
+    }
+
+    /**
+     * Schedule the outputs that an IC set with a delay. This is done after
+     * the outputs for the next tick are set, so that the delayed ones win
+     * if they are for the same tick.
+     *
+     * @param chip
+     * @param inst
+     * @param r
+     */
+    private static void setDelayedOuts(ChipState chip, ICInstance inst,
+            RedstoneDelayer r) {
+        for (int n = 1; n <= inst.getType().outputs; n++) {
+            int delay = chip.getOutDelay(n);
+            if (delay > 0) {
+                long pos = inst.getOutput(n - 1);
+                r.setOut(BlockVector.unpackX(pos), BlockVector.unpackY(pos),
+                        BlockVector.unpackZ(pos), chip.getOutDelayedState(n),
+                        delay);
+            }
+        }
+    }
+
+    /**
+     * Read an input.
+     *
+     * @param pos packed position
+     * @param changed packed position of the input that changed
+     * @return
+     */
+    private static Signal input(long pos, long changed) {
+        return new Signal(CraftBookListener.isRedstoneHighBinary(pos, true),
+                pos == changed);
+    }
+
+    /**
+     * Read an output.
+     *
+     * @param pos packed position
+     * @return
+     */
+    private static Signal output(long pos) {
+        return new Signal(CraftBookListener.getRedstoneOutput(pos));
+    }
+
+    /**
+     * Get the block type at a packed position.
+     *
+     * @param pos
+     * @return
+     */
+    private static int getBlockID(long pos) {
+        return CraftBook.getBlockID(BlockVector.unpackX(pos),
+                BlockVector.unpackY(pos), BlockVector.unpackZ(pos));
+    }
+
+    /**
+     * Set an output.
+     *
+     * @param r
+     * @param pos packed position
+     * @param value
+     */
+    private static void setOut(RedstoneDelayer r, long pos, boolean value) {
+        r.setOut(BlockVector.unpackX(pos), BlockVector.unpackY(pos),
+                BlockVector.unpackZ(pos), value);
+    }
     
     public static ICType forName(String name) {
              if(name.equals("siso")) return SISO;
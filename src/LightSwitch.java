@@ -32,6 +32,19 @@ public class LightSwitch {
     private HistoryHashMap<BlockVector,Long> recentLightToggles
             = new HistoryHashMap<BlockVector,Long>(20);
 
+    /**
+     * Checks whether there is a torch above a switch to take the new
+     * state of the lights from.
+     *
+     * @param origin
+     * @return
+     */
+    public boolean hasStateTorch(Vector origin) {
+        int aboveID = CraftBook.getBlockID(origin.add(0, 1, 0));
+        return aboveID == BlockType.TORCH || aboveID == BlockType.REDSTONE_TORCH_OFF
+                || aboveID == BlockType.REDSTONE_TORCH_ON;
+    }
+
     /**
      * Toggle lights in the immediate area.
      * 
@@ -42,10 +55,9 @@ public class LightSwitch {
      */
     public boolean toggleLights(Vector origin, BlockSource bag)
             throws BlockSourceException {
-        int aboveID = CraftBook.getBlockID(origin.add(0, 1, 0));
+        if (hasStateTorch(origin)) {
+            int aboveID = CraftBook.getBlockID(origin.add(0, 1, 0));
 
-        if (aboveID == BlockType.TORCH || aboveID == BlockType.REDSTONE_TORCH_OFF
-                || aboveID == BlockType.REDSTONE_TORCH_ON) {
             // We will take the status we want to switch to from the torch
             // above the switch
             boolean on = aboveID != BlockType.TORCH;
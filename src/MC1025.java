@@ -17,15 +17,19 @@
  * along with this program. If not, see <http://www.gnu.org/licenses/>.
  */
 
+import com.sk89q.craftbook.SignText;
+import com.sk89q.craftbook.Vector;
 import com.sk89q.craftbook.ic.BaseIC;
 import com.sk89q.craftbook.ic.ChipState;
+import com.sk89q.craftbook.ic.SelfClockedIC;
 
 /**
- * 1-bit number based on modulus of server time.
+ * 1-bit number based on modulus of server time. With a clock period in
+ * ticks on line 3, the IC also updates on its own while the input is high.
  *
  * @author Shaun (sturmeh)
  */
-public class MC1025 extends BaseIC {
+public class MC1025 extends BaseIC implements SelfClockedIC {
     /**
      * Get the title of the IC.
      *
@@ -35,6 +39,36 @@ public class MC1025 extends BaseIC {
         return "REL TIME MOD 2";
     }
 
+    /**
+     * Validates the IC's environment. The position of the sign is given.
+     * Return a string in order to state an error message and deny
+     * creation, otherwise return null to allow.
+     *
+     * @param sign
+     * @return
+     */
+    public String validateEnvironment(Vector pos, SignText sign) {
+        if (sign.getLine3().length() != 0 && getClockPeriod(sign) == 0) {
+            return "Put a clock period in ticks on line 3, or leave it blank.";
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the number of ticks between thinks, from line 3.
+     *
+     * @param text
+     * @return ticks, or 0 to only think when the input changes
+     */
+    public int getClockPeriod(SignText text) {
+        try {
+            return Math.max(0, Integer.parseInt(text.getLine3().trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     /**
      * Think.
      * 
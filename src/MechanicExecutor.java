@@ -0,0 +1,156 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.ArrayDeque;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the expensive work of mechanics, such as moving gates and bridges,
+ * within a time budget per tick. Work runs right away while the budget
+ * lasts; after that it is queued and run on the following ticks in the
+ * order it was submitted, so a burst of activity turns into latency
+ * instead of a lag spike.
+ *
+ * <p>The budget is measured from one run of the tick task to the next,
+ * and the queue is drained first. At least one queued job runs every
+ * tick, however long it takes.</p>
+ *
+ * @author sk89q
+ */
+public class MechanicExecutor implements Runnable {
+    /**
+     * Logger.
+     */
+    private static final Logger logger = Logger.getLogger("Minecraft");
+
+    /**
+     * Queued work.
+     */
+    private final ArrayDeque<Runnable> queue = new ArrayDeque<Runnable>();
+    /**
+     * Nanoseconds allowed per tick, or 0 for no limit.
+     */
+    private long budget;
+    /**
+     * Nanoseconds used since the tick task last ran.
+     */
+    private long spent;
+    /**
+     * Number of jobs queued instead of run right away.
+     */
+    private long deferred;
+    /**
+     * Largest number of jobs waiting at once.
+     */
+    private int peakQueueSize;
+
+    /**
+     * Set the budget.
+     *
+     * @param nanos nanoseconds per tick, or 0 for no limit
+     */
+    public void setBudget(long nanos) {
+        budget = Math.max(0, nanos);
+    }
+
+    /**
+     * Get the budget.
+     *
+     * @return nanoseconds per tick, or 0 for no limit
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Run work now if the budget allows it, otherwise queue it.
+     *
+     * @param work
+     */
+    public void execute(Runnable work) {
+        if (budget == 0) {
+            work.run();
+            return;
+        }
+
+        // Queued work goes first
+        if (!queue.isEmpty() || spent >= budget) {
+            queue.add(work);
+            deferred++;
+            if (queue.size() > peakQueueSize) {
+                peakQueueSize = queue.size();
+            }
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            work.run();
+        } finally {
+            spent += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Start a new budget and run queued work.
+     */
+    public void run() {
+        spent = 0;
+
+        while (!queue.isEmpty() && (budget == 0 || spent < budget)) {
+            Runnable work = queue.poll();
+            long start = System.nanoTime();
+            try {
+                work.run();
+            } catch (Throwable t) {
+                logger.log(Level.SEVERE, "CraftBook: Queued mechanic failed", t);
+            } finally {
+                spent += System.nanoTime() - start;
+            }
+        }
+    }
+
+    /**
+     * Get the number of jobs waiting.
+     *
+     * @return
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Get the largest number of jobs that waited at once.
+     *
+     * @return
+     */
+    public int getPeakQueueSize() {
+        return peakQueueSize;
+    }
+
+    /**
+     * Get the number of jobs that were queued instead of run right away.
+     *
+     * @return
+     */
+    public long getDeferred() {
+        return deferred;
+    }
+}
@@ -0,0 +1,58 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+/**
+ * Kinds of mechanics that can be driven by redstone.
+ *
+ * @author sk89q
+ */
+public enum MechanicKind {
+    /**
+     * Not a mechanic.
+     */
+    NONE,
+    /**
+     * [Gate] sign.
+     */
+    GATE,
+    /**
+     * [Bridge] sign.
+     */
+    BRIDGE,
+    /**
+     * [MC####] sign.
+     */
+    IC,
+    /**
+     * [Station] sign below a minecart station block.
+     */
+    STATION,
+    /**
+     * [Dispenser] sign below a minecart dispenser chest.
+     */
+    DISPENSER,
+    /**
+     * Redstone pumpkin. Never the kind of a sign.
+     */
+    PUMPKIN,
+    /**
+     * IC sign of a programmable logic chip. Signs parse as {@link #IC}.
+     */
+    PLC
+}
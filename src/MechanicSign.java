@@ -0,0 +1,124 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+/**
+ * Pre-parsed description of a sign, so that redstone handling does not
+ * have to read and compare the sign text on every change.
+ *
+ * @author sk89q
+ */
+public final class MechanicSign {
+    /**
+     * Kind of mechanic.
+     */
+    private final MechanicKind kind;
+    /**
+     * Block type of the sign (wall sign or sign post).
+     */
+    private final int signType;
+    /**
+     * The second line as it was parsed.
+     */
+    private final String line2;
+    /**
+     * Upper-cased IC ID, for ICs only.
+     */
+    private final String icId;
+
+    /**
+     * Construct the object.
+     * 
+     * @param kind
+     * @param signType
+     * @param line2
+     * @param icId
+     */
+    private MechanicSign(MechanicKind kind, int signType, String line2,
+            String icId) {
+        this.kind = kind;
+        this.signType = signType;
+        this.line2 = line2;
+        this.icId = icId;
+    }
+
+    /**
+     * Parses the second line of a sign.
+     * 
+     * @param signType
+     * @param line2
+     * @return
+     */
+    public static MechanicSign parse(int signType, String line2) {
+        int len = line2.length();
+
+        if (line2.equalsIgnoreCase("[Gate]")) {
+            return new MechanicSign(MechanicKind.GATE, signType, line2, null);
+        } else if (line2.equalsIgnoreCase("[Bridge]")) {
+            return new MechanicSign(MechanicKind.BRIDGE, signType, line2, null);
+        } else if (line2.equalsIgnoreCase("[Station]")) {
+            return new MechanicSign(MechanicKind.STATION, signType, line2, null);
+        } else if (line2.equalsIgnoreCase("[Dispenser]")) {
+            return new MechanicSign(MechanicKind.DISPENSER, signType, line2, null);
+        } else if (len > 4
+                && line2.substring(0, 3).equalsIgnoreCase("[MC")
+                && line2.charAt(len - 1) == ']') {
+            return new MechanicSign(MechanicKind.IC, signType, line2,
+                    line2.substring(1, len - 1).toUpperCase());
+        }
+
+        return new MechanicSign(MechanicKind.NONE, signType, line2, null);
+    }
+
+    /**
+     * Get the kind of mechanic.
+     * 
+     * @return
+     */
+    public MechanicKind getKind() {
+        return kind;
+    }
+
+    /**
+     * Get the block type of the sign.
+     * 
+     * @return
+     */
+    public int getSignType() {
+        return signType;
+    }
+
+    /**
+     * Get the IC ID, or null if this is not an IC.
+     * 
+     * @return
+     */
+    public String getICId() {
+        return icId;
+    }
+
+    /**
+     * Checks whether the sign's second line still reads the same.
+     * 
+     * @param line2
+     * @return
+     */
+    public boolean matches(String line2) {
+        return this.line2.equals(line2);
+    }
+}
@@ -0,0 +1,157 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import com.sk89q.craftbook.BlockType;
+import com.sk89q.craftbook.BlockVector;
+import com.sk89q.craftbook.LongHashMap;
+
+/**
+ * Index of signs keyed by position. Signs are parsed the first time they
+ * are seen and whenever they are edited, so redstone handling only needs
+ * a single lookup to find out what a sign does. Entries are checked
+ * against the block type on every lookup, so signs that disappear without
+ * CraftBook noticing are dropped.
+ *
+ * @author sk89q
+ */
+public class MechanicSignIndex {
+    /**
+     * Told about signs as they are parsed.
+     */
+    public interface Listener {
+        /**
+         * Called when a sign is parsed for the first time or after it
+         * was changed.
+         *
+         * @param key packed position of the sign
+         * @param sign
+         * @param mechanic
+         */
+        public void signParsed(long key, Sign sign, MechanicSign mechanic);
+    }
+
+    /**
+     * Parsed signs.
+     */
+    private final LongHashMap<MechanicSign> signs =
+            new LongHashMap<MechanicSign>(1024);
+    private Listener listener;
+
+    /**
+     * Set the listener told about parsed signs.
+     *
+     * @param listener
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Gets the mechanic sign at a location. The block type must be provided
+     * by the caller. Returns null if there is no sign.
+     * 
+     * @param x
+     * @param y
+     * @param z
+     * @param type
+     * @return
+     */
+    public MechanicSign get(int x, int y, int z, int type) {
+        long key = BlockVector.toLong(x, y, z);
+        MechanicSign sign = signs.get(key);
+
+        if (type != BlockType.WALL_SIGN && type != BlockType.SIGN_POST) {
+            if (sign != null) {
+                signs.remove(key);
+            }
+            return null;
+        }
+
+        if (sign != null && sign.getSignType() == type) {
+            return sign;
+        }
+
+        // First time we see this sign
+        ComplexBlock cblock = etc.getServer().getComplexBlock(x, y, z);
+
+        if (!(cblock instanceof Sign)) {
+            return null;
+        }
+
+        sign = MechanicSign.parse(type, ((Sign)cblock).getText(1));
+        signs.put(key, sign);
+        if (listener != null) {
+            listener.signParsed(key, (Sign)cblock, sign);
+        }
+        return sign;
+    }
+
+    /**
+     * Gets the mechanic sign at a location. Returns null if there is
+     * no sign.
+     * 
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public MechanicSign get(int x, int y, int z) {
+        return get(x, y, z, CraftBook.getBlockID(x, y, z));
+    }
+
+    /**
+     * Re-parses a sign after it has been changed.
+     * 
+     * @param sign
+     * @return the new entry
+     */
+    public MechanicSign update(Sign sign) {
+        int x = sign.getX();
+        int y = sign.getY();
+        int z = sign.getZ();
+        long key = BlockVector.toLong(x, y, z);
+        MechanicSign parsed = MechanicSign.parse(
+                CraftBook.getBlockID(x, y, z), sign.getText(1));
+        signs.put(key, parsed);
+        if (listener != null) {
+            listener.signParsed(key, sign, parsed);
+        }
+        return parsed;
+    }
+
+    /**
+     * Forgets a sign.
+     * 
+     * @param x
+     * @param y
+     * @param z
+     */
+    public void remove(int x, int y, int z) {
+        signs.remove(BlockVector.toLong(x, y, z));
+    }
+
+    /**
+     * Get the number of indexed signs.
+     * 
+     * @return
+     */
+    public int size() {
+        return signs.size();
+    }
+}
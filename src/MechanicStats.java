@@ -0,0 +1,228 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sk89q.craftbook.BlockVector;
+import com.sk89q.craftbook.SpaceSaving;
+
+/**
+ * Counts redstone edges and the mechanics that they trigger, with a
+ * latency histogram for each kind of mechanic and the positions that are
+ * triggered most. Only the server thread records, so nothing is locked.
+ * Callers check {@link #isEnabled()} before timing anything, so there
+ * is no cost while collection is disabled.
+ *
+ * @author sk89q
+ */
+public class MechanicStats {
+    /**
+     * Number of histogram buckets. Bucket b counts durations below 2^b
+     * nanoseconds; the last bucket counts everything longer.
+     */
+    private static final int BUCKETS = 32;
+    private static final MechanicKind[] KINDS = MechanicKind.values();
+
+    private boolean enabled;
+
+    private long edges;
+    private long edgeNanos;
+    private final long[] edgeHistogram = new long[BUCKETS];
+
+    private final long[] counts = new long[KINDS.length];
+    private final long[] nanos = new long[KINDS.length];
+    private final long[] maxNanos = new long[KINDS.length];
+    private final long[][] histograms = new long[KINDS.length][BUCKETS];
+
+    /**
+     * Positions of the mechanics triggered most often.
+     */
+    private final SpaceSaving hotPositions = new SpaceSaving(64);
+
+    /**
+     * Returns true if statistics are being collected.
+     *
+     * @return
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enable or disable collection.
+     *
+     * @param enabled
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Get the histogram bucket of a duration.
+     *
+     * @param nanos
+     * @return
+     */
+    private static int bucket(long nanos) {
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+    }
+
+    /**
+     * Record the handling of a redstone edge.
+     *
+     * @param nanos
+     */
+    public void recordEdge(long nanos) {
+        edges++;
+        edgeNanos += nanos;
+        edgeHistogram[bucket(nanos)]++;
+    }
+
+    /**
+     * Record the handling of redstone input at a block.
+     *
+     * @param kind kind of mechanic triggered, or NONE
+     * @param x
+     * @param y
+     * @param z
+     * @param nanos
+     */
+    public void record(MechanicKind kind, int x, int y, int z, long nanos) {
+        int k = kind.ordinal();
+        counts[k]++;
+        this.nanos[k] += nanos;
+        if (nanos > maxNanos[k]) {
+            maxNanos[k] = nanos;
+        }
+        histograms[k][bucket(nanos)]++;
+
+        if (kind != MechanicKind.NONE) {
+            hotPositions.offer(BlockVector.toLong(x, y, z));
+        }
+    }
+
+    /**
+     * Forget everything recorded.
+     */
+    public void reset() {
+        edges = 0;
+        edgeNanos = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            edgeHistogram[b] = 0;
+        }
+        for (int k = 0; k < KINDS.length; k++) {
+            counts[k] = 0;
+            nanos[k] = 0;
+            maxNanos[k] = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                histograms[k][b] = 0;
+            }
+        }
+        hotPositions.clear();
+    }
+
+    /**
+     * Get the approximate duration below which a fraction of the
+     * recorded durations fall.
+     *
+     * @param histogram
+     * @param count
+     * @param fraction
+     * @return nanoseconds
+     */
+    private static long percentile(long[] histogram, long count,
+            double fraction) {
+        long wanted = (long)Math.ceil(count * fraction);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += histogram[b];
+            if (seen >= wanted) {
+                return 1L << b;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    /**
+     * Format a duration.
+     *
+     * @param nanos
+     * @return
+     */
+    static String formatNanos(long nanos) {
+        if (nanos < 10000) {
+            return nanos + "ns";
+        } else if (nanos < 10000000) {
+            return (nanos / 1000) + "us";
+        }
+        return (nanos / 1000000) + "ms";
+    }
+
+    /**
+     * Describe a set of timings.
+     *
+     * @param count
+     * @param nanos
+     * @param histogram
+     * @return
+     */
+    private static String describe(long count, long nanos, long[] histogram) {
+        return count + " (avg " + formatNanos(nanos / count)
+                + ", p50 <" + formatNanos(percentile(histogram, count, 0.5))
+                + ", p99 <" + formatNanos(percentile(histogram, count, 0.99))
+                + ")";
+    }
+
+    /**
+     * Get a report for display.
+     *
+     * @param top number of hot positions to list
+     * @return
+     */
+    public List<String> report(int top) {
+        List<String> lines = new ArrayList<String>();
+
+        lines.add("Edges: " + (edges == 0 ? "0"
+                : describe(edges, edgeNanos, edgeHistogram)));
+
+        for (int k = 0; k < KINDS.length; k++) {
+            if (counts[k] == 0) {
+                continue;
+            }
+            lines.add(KINDS[k].name().toLowerCase() + ": "
+                    + describe(counts[k], nanos[k], histograms[k])
+                    + " max " + formatNanos(maxNanos[k]));
+        }
+
+        long[] keys = new long[top];
+        long[] hits = new long[top];
+        long[] errors = new long[top];
+        int n = hotPositions.top(keys, hits, errors);
+        for (int i = 0; i < n; i++) {
+            long key = keys[i];
+            lines.add("#" + (i + 1) + " " + BlockVector.unpackX(key) + ","
+                    + BlockVector.unpackY(key) + "," + BlockVector.unpackZ(key)
+                    + ": " + hits[i]
+                    + (errors[i] > 0 ? " (-" + errors[i] + ")" : ""));
+        }
+
+        return lines;
+    }
+}
@@ -0,0 +1,335 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.sk89q.craftbook.BlockVector;
+import com.sk89q.craftbook.LongHashMap;
+
+/**
+ * Limits how often the mechanic at a position may be triggered, to stop
+ * fast redstone clocks from driving expensive mechanics such as gates
+ * every tick. Each position has a token bucket that refills at a rate
+ * set per kind of mechanic; a trigger takes one token and is dropped if
+ * there is none. Positions that have been idle for a while are
+ * forgotten, unless they were throttled recently.
+ *
+ * <p>Mechanics follow the level of their input, so the last trigger
+ * dropped at a position is kept and replayed once a token is available.
+ * A mechanic then ends up matching its input after a clock stops.</p>
+ *
+ * @author sk89q
+ */
+public class MechanicThrottle {
+    private static final MechanicKind[] KINDS = MechanicKind.values();
+    /**
+     * Time after which idle positions are forgotten.
+     */
+    private static final long IDLE_MILLIS = 60000;
+    /**
+     * Time for which throttled positions are kept for reporting.
+     */
+    private static final long REPORT_MILLIS = 600000;
+    /**
+     * Time between sweeps for idle positions.
+     */
+    private static final long SWEEP_MILLIS = 10000;
+
+    /**
+     * Token bucket of a position.
+     */
+    private static class Bucket {
+        MechanicKind kind;
+        double tokens;
+        long lastTime;
+        long dropped;
+        long lastDropTime;
+        /**
+         * Indicates whether a dropped trigger waits to be replayed.
+         */
+        boolean waiting;
+        boolean waitingLevel;
+        long waitingInput;
+    }
+
+    /**
+     * Replays dropped triggers.
+     */
+    public interface Listener {
+        /**
+         * Trigger the mechanic at a position again.
+         *
+         * @param x
+         * @param y
+         * @param z
+         * @param level new level of the input
+         * @param input packed position of the input that changed
+         */
+        public void replay(int x, int y, int z, boolean level, long input);
+    }
+
+    private boolean enabled;
+    /**
+     * Maximum number of tokens for each kind. Zero means no limit.
+     */
+    private final double[] burst = new double[KINDS.length];
+    /**
+     * Tokens added per millisecond for each kind.
+     */
+    private final double[] rate = new double[KINDS.length];
+    /**
+     * Buckets keyed by packed position.
+     */
+    private final LongHashMap<Bucket> buckets = new LongHashMap<Bucket>(256);
+    /**
+     * Packed positions with a dropped trigger to replay, in the order in
+     * which they were first dropped.
+     */
+    private long[] waiting = new long[16];
+    private int waitingCount;
+    private long lastSweep;
+
+    /**
+     * Returns true if triggers are being limited.
+     *
+     * @return
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enable or disable the throttle.
+     *
+     * @param enabled
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    /**
+     * Set the limit for a kind of mechanic.
+     *
+     * @param kind
+     * @param burst number of triggers allowed at once, or 0 for no limit
+     * @param perSecond number of triggers allowed per second after that
+     */
+    public void setLimit(MechanicKind kind, double burst, double perSecond) {
+        this.burst[kind.ordinal()] = Math.max(0, burst);
+        this.rate[kind.ordinal()] = Math.max(0, perSecond) / 1000.0;
+    }
+
+    /**
+     * Take a token for a trigger of the mechanic at a position. A dropped
+     * trigger replaces the one waiting to be replayed at the position.
+     *
+     * @param kind
+     * @param x
+     * @param y
+     * @param z
+     * @param level new level of the input
+     * @param input packed position of the input that changed
+     * @return false if the trigger should be dropped
+     */
+    public boolean allow(MechanicKind kind, int x, int y, int z,
+            boolean level, long input) {
+        int k = kind.ordinal();
+        if (burst[k] == 0) {
+            return true;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - lastSweep > SWEEP_MILLIS) {
+            sweep(now);
+        }
+
+        long key = BlockVector.toLong(x, y, z);
+        Bucket bucket = buckets.get(key);
+
+        if (bucket == null || bucket.kind != kind) {
+            bucket = new Bucket();
+            bucket.kind = kind;
+            bucket.tokens = burst[k];
+            bucket.lastTime = now;
+            buckets.put(key, bucket);
+        } else {
+            refill(bucket, now);
+        }
+
+        if (bucket.tokens >= 1) {
+            bucket.tokens -= 1;
+            // Newer than the dropped trigger
+            bucket.waiting = false;
+            return true;
+        }
+
+        bucket.dropped++;
+        bucket.lastDropTime = now;
+        bucket.waitingLevel = level;
+        bucket.waitingInput = input;
+        if (!bucket.waiting) {
+            bucket.waiting = true;
+            if (waitingCount == waiting.length) {
+                long[] grown = new long[waiting.length * 2];
+                System.arraycopy(waiting, 0, grown, 0, waitingCount);
+                waiting = grown;
+            }
+            waiting[waitingCount++] = key;
+        }
+        return false;
+    }
+
+    /**
+     * Add the tokens earned since a bucket was last used.
+     *
+     * @param bucket
+     * @param now
+     */
+    private void refill(Bucket bucket, long now) {
+        int k = bucket.kind.ordinal();
+        bucket.tokens = Math.min(burst[k],
+                bucket.tokens + (now - bucket.lastTime) * rate[k]);
+        bucket.lastTime = now;
+    }
+
+    /**
+     * Replay the dropped triggers of positions that have a token again.
+     * The listener is expected to call {@link #allow} to take the token.
+     * Called every tick.
+     *
+     * @param listener
+     */
+    public void replay(Listener listener) {
+        if (waitingCount == 0) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        int count = waitingCount;
+        int kept = 0;
+
+        for (int i = 0; i < count; i++) {
+            long key = waiting[i];
+            Bucket bucket = buckets.get(key);
+            if (bucket == null || !bucket.waiting) {
+                continue;
+            }
+
+            refill(bucket, now);
+            if (bucket.tokens < 1 && burst[bucket.kind.ordinal()] != 0) {
+                waiting[kept++] = key;
+                continue;
+            }
+
+            bucket.waiting = false;
+            listener.replay(BlockVector.unpackX(key),
+                    BlockVector.unpackY(key), BlockVector.unpackZ(key),
+                    bucket.waitingLevel, bucket.waitingInput);
+        }
+
+        // Keep positions dropped again while replaying
+        System.arraycopy(waiting, count, waiting, kept, waitingCount - count);
+        waitingCount = kept + waitingCount - count;
+    }
+
+    /**
+     * Forget positions that have been idle for a while.
+     *
+     * @param now
+     */
+    private void sweep(long now) {
+        lastSweep = now;
+
+        long[] stale = null;
+        int count = 0;
+
+        for (int i = 0; i < buckets.capacity(); i++) {
+            Bucket bucket = buckets.valueAt(i);
+            if (bucket == null || bucket.waiting
+                    || now - bucket.lastTime < IDLE_MILLIS
+                    || now - bucket.lastDropTime < REPORT_MILLIS) {
+                continue;
+            }
+            if (stale == null) {
+                stale = new long[buckets.size()];
+            }
+            stale[count++] = buckets.keyAt(i);
+        }
+
+        for (int i = 0; i < count; i++) {
+            buckets.remove(stale[i]);
+        }
+    }
+
+    /**
+     * Forget all positions.
+     */
+    public void clear() {
+        buckets.clear();
+        waitingCount = 0;
+    }
+
+    /**
+     * Get a report of the positions throttled recently, most throttled
+     * first.
+     *
+     * @param top number of positions to list
+     * @return
+     */
+    public List<String> report(int top) {
+        final long now = System.currentTimeMillis();
+        List<Long> keys = new ArrayList<Long>();
+
+        for (int i = 0; i < buckets.capacity(); i++) {
+            Bucket bucket = buckets.valueAt(i);
+            if (bucket != null && bucket.dropped > 0
+                    && now - bucket.lastDropTime < REPORT_MILLIS) {
+                keys.add(buckets.keyAt(i));
+            }
+        }
+
+        Collections.sort(keys, new Comparator<Long>() {
+            public int compare(Long a, Long b) {
+                long da = buckets.get(a).dropped;
+                long db = buckets.get(b).dropped;
+                return da > db ? -1 : da < db ? 1 : 0;
+            }
+        });
+
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < keys.size() && i < top; i++) {
+            long key = keys.get(i);
+            Bucket bucket = buckets.get(key);
+            lines.add(bucket.kind.name().toLowerCase() + " at "
+                    + BlockVector.unpackX(key) + ","
+                    + BlockVector.unpackY(key) + ","
+                    + BlockVector.unpackZ(key) + ": "
+                    + bucket.dropped + " dropped, last "
+                    + ((now - bucket.lastDropTime) / 1000) + "s ago");
+        }
+
+        return lines;
+    }
+}
@@ -0,0 +1,304 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import lymia.plc.PlcBase;
+import lymia.plc.PlcEvaluator;
+
+import com.sk89q.craftbook.BlockType;
+import com.sk89q.craftbook.BlockVector;
+import com.sk89q.craftbook.LongHashMap;
+import com.sk89q.craftbook.SignText;
+import com.sk89q.craftbook.Vector;
+import com.sk89q.craftbook.ic.ChipState;
+
+/**
+ * Runs the PLCs that think during a tick as one batch, so that their
+ * programs can run on several threads. The inputs and storage of a PLC
+ * are read on the server thread when it thinks. The programs of the
+ * batch run when the tick task runs, and then the outputs, storage and
+ * sign errors are applied on the server thread in the order in which the
+ * PLCs thought.
+ *
+ * <p>A PLC that thinks again before the batch runs first finishes its
+ * queued tick on the server thread, so that it sees its own outputs and
+ * storage. PLCs do not see the outputs that other PLCs of the batch set
+ * until the next tick.</p>
+ *
+ * @author sk89q
+ */
+public class PlcBatch implements Runnable {
+    /**
+     * Logger.
+     */
+    private static final Logger logger = Logger.getLogger("Minecraft");
+
+    /**
+     * A queued tick of a PLC.
+     */
+    private static class Job {
+        Vector pt;
+        ICInstance inst;
+        ChipState chip;
+        PlcBase.Evaluation evaluation;
+        Sign sign;
+        SignText signText;
+        MechanicSign mechanic;
+        /**
+         * Indicates whether the tick was finished before the batch ran.
+         */
+        boolean done;
+    }
+
+    private final CraftBookListener listener;
+    private final RedstoneDelayer delay;
+    private final PlcEvaluator evaluator = new PlcEvaluator();
+    private boolean enabled;
+
+    /**
+     * Ticks in the order that the PLCs thought.
+     */
+    private ArrayList<Job> jobs = new ArrayList<Job>();
+    /**
+     * Ticks being applied. Ticks queued meanwhile go into the other list.
+     */
+    private ArrayList<Job> running = new ArrayList<Job>();
+    /**
+     * Queued ticks keyed by packed position of the sign.
+     */
+    private final LongHashMap<Job> queued = new LongHashMap<Job>(256);
+    /**
+     * Evaluations of the running batch.
+     */
+    private PlcBase.Evaluation[] evaluations = new PlcBase.Evaluation[256];
+
+    private long batches;
+    private long ticks;
+    private int largestBatch;
+
+    /**
+     * Construct the batch.
+     *
+     * @param listener
+     * @param delay
+     */
+    public PlcBatch(CraftBookListener listener, RedstoneDelayer delay) {
+        this.listener = listener;
+        this.delay = delay;
+    }
+
+    /**
+     * Set the number of threads that run programs. Queued ticks are
+     * finished first.
+     *
+     * @param threads threads, 1 to run batches on the server thread, or
+     *      0 to let PLCs think right away
+     */
+    public void setThreads(int threads) {
+        run();
+        enabled = threads > 0;
+        if (enabled) {
+            evaluator.setThreads(threads);
+        } else {
+            evaluator.shutdown();
+        }
+    }
+
+    /**
+     * Get the number of threads that run programs.
+     *
+     * @return threads, or 0 if PLCs think right away
+     */
+    public int getThreads() {
+        return enabled ? evaluator.getThreads() : 0;
+    }
+
+    /**
+     * Returns true if PLCs are run in batches.
+     *
+     * @return
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queue a tick of a PLC. Its inputs are read now.
+     *
+     * @param pt
+     * @param changed packed position of the input that changed
+     * @param type
+     * @param plc
+     * @param inst
+     * @param sign
+     * @param mechanic
+     */
+    public void think(Vector pt, long changed, ICType type, PlcBase plc,
+            ICInstance inst, Sign sign, MechanicSign mechanic) {
+        long key = BlockVector.toLong(pt.getBlockX(), pt.getBlockY(),
+                pt.getBlockZ());
+
+        finish(key);
+
+        SignText signText = new SignText(sign.getText(0), sign.getText(1),
+                                         sign.getText(2), sign.getText(3));
+        ChipState chip = type.newChip(inst, changed, signText);
+
+        ICType.loadState(chip, inst);
+        PlcBase.Evaluation evaluation = plc.prepare(chip);
+        ICType.storeState(chip, inst);
+
+        if (evaluation == null) {
+            listener.writeSignText(sign, signText, mechanic);
+            return;
+        }
+
+        Job job = new Job();
+        job.pt = pt;
+        job.inst = inst;
+        job.chip = chip;
+        job.evaluation = evaluation;
+        job.sign = sign;
+        job.signText = signText;
+        job.mechanic = mechanic;
+        jobs.add(job);
+        queued.put(key, job);
+    }
+
+    /**
+     * Run and apply the queued tick of a PLC right away, if it has one.
+     *
+     * @param key packed position of the sign
+     */
+    public void finish(long key) {
+        Job job = queued.remove(key);
+        if (job != null) {
+            job.evaluation.run();
+            apply(job);
+        }
+    }
+
+    /**
+     * Run the programs of the batch and apply their results.
+     */
+    public void run() {
+        if (jobs.isEmpty()) {
+            return;
+        }
+
+        ArrayList<Job> batch = jobs;
+        jobs = running;
+        running = batch;
+        queued.clear();
+
+        try {
+            int size = batch.size();
+            if (evaluations.length < size) {
+                evaluations = new PlcBase.Evaluation[
+                        Math.max(size, evaluations.length * 2)];
+            }
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                Job job = batch.get(i);
+                if (!job.done) {
+                    evaluations[count++] = job.evaluation;
+                }
+            }
+
+            try {
+                evaluator.evaluate(evaluations, count);
+            } finally {
+                for (int i = 0; i < count; i++) {
+                    evaluations[i] = null;
+                }
+            }
+
+            batches++;
+            ticks += count;
+            if (count > largestBatch) {
+                largestBatch = count;
+            }
+
+            for (int i = 0; i < size; i++) {
+                Job job = batch.get(i);
+                if (job.done) {
+                    continue;
+                }
+                try {
+                    apply(job);
+                } catch (Throwable t) {
+                    logger.log(Level.SEVERE, "CraftBook: PLC failed", t);
+                }
+            }
+        } finally {
+            batch.clear();
+        }
+    }
+
+    /**
+     * Apply the results of a tick.
+     *
+     * @param job
+     */
+    private void apply(Job job) {
+        job.done = true;
+
+        // The sign may have been destroyed since
+        if (CraftBook.getBlockID(job.pt) != BlockType.WALL_SIGN) {
+            return;
+        }
+
+        ICType.loadState(job.chip, job.inst);
+        job.evaluation.apply(job.chip);
+        ICType.storeState(job.chip, job.inst);
+        job.inst.getType().finish(job.chip, job.inst, delay);
+
+        listener.writeSignText(job.sign, job.signText, job.mechanic);
+    }
+
+    /**
+     * Get the number of batches run.
+     *
+     * @return
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * Get the number of PLC ticks run in batches.
+     *
+     * @return
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Get the number of PLC ticks in the largest batch.
+     *
+     * @return
+     */
+    public int getLargestBatch() {
+        return largestBatch;
+    }
+}
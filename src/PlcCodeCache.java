@@ -0,0 +1,118 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import com.sk89q.craftbook.BlockVector;
+import com.sk89q.craftbook.LongHashMap;
+
+import lymia.plc.PlcProgram;
+
+/**
+ * The code found for PLCs, by the column of blocks that holds their code
+ * block, so that the column is not read again on every tick. Columns are
+ * forgotten when a sign or block in them or beside them changes, since
+ * wall signs hang on the blocks beside them. Changes that CraftBook does
+ * not hear about, such as explosions, are caught by reading the column
+ * again after a while.
+ *
+ * @author sk89q
+ */
+public class PlcCodeCache {
+    /**
+     * Time after which a column is read again.
+     */
+    private static final long MAX_AGE_MILLIS = 10000;
+
+    private static class Entry {
+        int y;
+        PlcProgram program;
+        long time;
+    }
+
+    /**
+     * Entries keyed by packed position with a Y of 0.
+     */
+    private final LongHashMap<Entry> columns = new LongHashMap<Entry>(64);
+
+    /**
+     * Get the code found for the PLC at a position.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return code, or null if it has to be read again
+     */
+    public PlcProgram get(int x, int y, int z) {
+        Entry entry = columns.get(BlockVector.toLong(x, 0, z));
+        // The sign of the PLC ends its code block, so Y matters too
+        if (entry == null || entry.y != y
+                || System.currentTimeMillis() - entry.time > MAX_AGE_MILLIS) {
+            return null;
+        }
+        return entry.program;
+    }
+
+    /**
+     * Remember the code found for the PLC at a position.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param program
+     */
+    public void put(int x, int y, int z, PlcProgram program) {
+        Entry entry = new Entry();
+        entry.y = y;
+        entry.program = program;
+        entry.time = System.currentTimeMillis();
+        columns.put(BlockVector.toLong(x, 0, z), entry);
+    }
+
+    /**
+     * Forget the code of a column and the columns beside it.
+     *
+     * @param x
+     * @param z
+     */
+    public void invalidate(int x, int z) {
+        if (columns.isEmpty()) {
+            return;
+        }
+        columns.remove(BlockVector.toLong(x, 0, z));
+        columns.remove(BlockVector.toLong(x + 1, 0, z));
+        columns.remove(BlockVector.toLong(x - 1, 0, z));
+        columns.remove(BlockVector.toLong(x, 0, z + 1));
+        columns.remove(BlockVector.toLong(x, 0, z - 1));
+    }
+
+    /**
+     * Forget all code.
+     */
+    public void clear() {
+        columns.clear();
+    }
+
+    /**
+     * Get the number of columns known.
+     *
+     * @return
+     */
+    public int size() {
+        return columns.size();
+    }
+}
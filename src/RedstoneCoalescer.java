@@ -0,0 +1,170 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+import java.util.Arrays;
+
+import com.sk89q.craftbook.BlockVector;
+import com.sk89q.craftbook.LongIntHashMap;
+
+/**
+ * Collects the redstone edges of a tick so that each position is handled
+ * at most once. Only the first old level and the last new level of a
+ * position are kept, so a wire that flickers off and on again within a
+ * tick is not handled at all. The remaining edges are dispatched after
+ * the tick in coordinate order.
+ *
+ * @author sk89q
+ */
+public class RedstoneCoalescer implements Runnable {
+    /**
+     * Listener to dispatch to.
+     */
+    private final CraftBookListener listener;
+    /**
+     * Edges of the current tick, with the old level in the second byte
+     * and the new level in the first.
+     */
+    private LongIntHashMap pending = new LongIntHashMap(256);
+    /**
+     * Edges being dispatched. Edges caused by the dispatch go into the
+     * other map and are handled on the next tick.
+     */
+    private LongIntHashMap dispatching = new LongIntHashMap(256);
+    /**
+     * Used to sort positions.
+     */
+    private long[] order = new long[256];
+    /**
+     * Number of edges received.
+     */
+    private long received;
+    /**
+     * Number of edges dispatched.
+     */
+    private long dispatched;
+    /**
+     * Number of edges received that are still pending.
+     */
+    private int pendingReceived;
+
+    /**
+     * Construct the coalescer.
+     *
+     * @param listener
+     */
+    public RedstoneCoalescer(CraftBookListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Queue an edge.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param oldLevel
+     * @param newLevel
+     */
+    public void add(int x, int y, int z, int oldLevel, int newLevel) {
+        long key = BlockVector.toLong(x, y, z);
+        int index = pending.indexOf(key);
+
+        if (index == -1) {
+            pending.put(key, (oldLevel & 0xFF) << 8 | newLevel & 0xFF);
+        } else {
+            pending.setValueAt(index,
+                    pending.valueAt(index) & 0xFF00 | newLevel & 0xFF);
+        }
+
+        received++;
+        pendingReceived++;
+    }
+
+    /**
+     * Dispatch the edges of the tick.
+     */
+    public void run() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        LongIntHashMap edges = pending;
+        pending = dispatching;
+        dispatching = edges;
+        pendingReceived = 0;
+
+        int size = edges.size();
+        if (order.length < size) {
+            order = new long[Math.max(size, order.length * 2)];
+        }
+        for (int i = 0; i < size; i++) {
+            order[i] = edges.keyAt(i);
+        }
+        Arrays.sort(order, 0, size);
+
+        try {
+            for (int i = 0; i < size; i++) {
+                long key = order[i];
+                int value = edges.get(key, 0);
+                int oldLevel = value >> 8;
+                int newLevel = value & 0xFF;
+
+                // Flickered back to where it started
+                if ((oldLevel >= 1) == (newLevel >= 1)) {
+                    continue;
+                }
+
+                dispatched++;
+                listener.dispatchRedstoneChange(BlockVector.unpackX(key),
+                        BlockVector.unpackY(key), BlockVector.unpackZ(key),
+                        oldLevel, newLevel);
+            }
+        } finally {
+            edges.clear();
+        }
+    }
+
+    /**
+     * Get the number of edges received.
+     *
+     * @return
+     */
+    public long getReceived() {
+        return received;
+    }
+
+    /**
+     * Get the number of edges dispatched.
+     *
+     * @return
+     */
+    public long getDispatched() {
+        return dispatched;
+    }
+
+    /**
+     * Get the number of edges that were merged into another edge or
+     * dropped because they cancelled out.
+     *
+     * @return
+     */
+    public long getCollapsed() {
+        return received - pendingReceived - dispatched;
+    }
+}
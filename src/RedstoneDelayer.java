@@ -16,20 +16,79 @@ You should have received a copy of the GNU General Public License
 along with this program.  If not, see <http://www.gnu.org/licenses/>.
 */
 
-import java.util.HashMap;
+import java.util.Arrays;
 
 import com.sk89q.craftbook.BlockSourceException;
 import com.sk89q.craftbook.BlockType;
 import com.sk89q.craftbook.BlockVector;
+import com.sk89q.craftbook.LongIntHashMap;
 import com.sk89q.craftbook.OperationException;
 import com.sk89q.craftbook.Vector;
 
+/**
+ * Applies outputs, bridge toggles and redstone changes after the tick.
+ * Outputs can be delayed by a number of ticks; they are kept in a ring
+ * of buckets with one bucket per tick, keyed by packed position, and the
+ * last value set for an output in a bucket wins.
+ *
+ * <p>Outputs are written in packed position order, which groups them by
+ * chunk. Outputs that would not change the lever are skipped, and the
+ * physics updates are done after all the data has been written.</p>
+ */
 public class RedstoneDelayer implements Runnable {
-    private HashMap<BlockVector,Boolean> delayedOutputs = new HashMap<BlockVector,Boolean>();
-    private HashMap<BlockVector,Boolean> delayedBridges = new HashMap<BlockVector,Boolean>();
+    /**
+     * Number of buckets in the output ring.
+     */
+    private static final int SLOTS = 256;
+    /**
+     * Longest delay of an output in ticks.
+     */
+    public static final int MAX_DELAY = SLOTS - 1;
 
-    private HashMap<BlockVector,Integer> delayedInputsOldValue = new HashMap<BlockVector,Integer>();
-    private HashMap<BlockVector,Integer> delayedInputsNewValue = new HashMap<BlockVector,Integer>();
+    /**
+     * Outputs by the run that they are due in, with 1 for on and 0 for
+     * off. Buckets are made when first used.
+     */
+    private final LongIntHashMap[] delayedOutputs = new LongIntHashMap[SLOTS];
+    /**
+     * Bucket of the next run.
+     */
+    private int cursor;
+    /**
+     * Used to sort outputs, and then holds the outputs that changed.
+     */
+    private long[] order = new long[64];
+    /**
+     * New data of the outputs that changed.
+     */
+    private int[] orderData = new int[64];
+
+    /**
+     * Number of outputs set.
+     */
+    private long writesRequested;
+    /**
+     * Number of outputs set again before they were written.
+     */
+    private long writesMerged;
+    /**
+     * Number of levers changed.
+     */
+    private long writesApplied;
+    /**
+     * Number of outputs that were not written because the lever already
+     * had that state or was gone.
+     */
+    private long writesElided;
+
+    private LongIntHashMap delayedBridges = new LongIntHashMap(16);
+    private LongIntHashMap runningBridges = new LongIntHashMap(16);
+    /**
+     * Redstone changes seen while outputs were being set, with the old
+     * level in the second byte and the new level in the first.
+     */
+    private LongIntHashMap delayedInputs = new LongIntHashMap(64);
+    private LongIntHashMap runningInputs = new LongIntHashMap(64);
     
     private CraftBookListener l;
     
@@ -38,68 +97,212 @@ public class RedstoneDelayer implements Runnable {
     }
     
     public void setOut(Vector pos, boolean value) {
-        delayedOutputs.put(pos.toBlockVector(), value);
+        setOut(pos.getBlockX(), pos.getBlockY(), pos.getBlockZ(), value);
+    }
+    
+    public void setOut(int x, int y, int z, boolean value) {
+        setOut(x, y, z, value, 1);
+    }
+
+    /**
+     * Set an output after a number of ticks.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param value
+     * @param delay ticks, from 1 for the next tick up to {@link #MAX_DELAY}
+     */
+    public void setOut(int x, int y, int z, boolean value, int delay) {
+        delay = Math.max(1, Math.min(MAX_DELAY, delay));
+        int slot = (cursor + delay - 1) & (SLOTS - 1);
+
+        LongIntHashMap outputs = delayedOutputs[slot];
+        if (outputs == null) {
+            outputs = new LongIntHashMap(16);
+            delayedOutputs[slot] = outputs;
+        }
+        int size = outputs.size();
+        outputs.put(BlockVector.toLong(x, y, z), value ? 1 : 0);
+        writesRequested++;
+        if (outputs.size() == size) {
+            writesMerged++;
+        }
+
+        // Let reads later in the tick see the new output
+        if (delay == 1 && CraftBook.getBlockID(x, y, z) == BlockType.LEVER) {
+            int data = CraftBook.getBlockData(x, y, z);
+            CraftBook.fakeBlockData(x, y, z, value ? data | 0x8 : data & 0x7);
+        }
     }
     
     public void toggleBridge(Vector v, boolean value) {
-        delayedBridges.put(v.toBlockVector(), value);
+        delayedBridges.put(BlockVector.toLong(v), value ? 1 : 0);
     }
     
-    public void delayRsChange(BlockVector v, int oldValue, int newValue) {
-        delayedInputsOldValue.put(v,oldValue);
-        delayedInputsNewValue.put(v,newValue);
+    public void delayRsChange(int x, int y, int z, int oldValue, int newValue) {
+        delayedInputs.put(BlockVector.toLong(x, y, z),
+                (oldValue & 0xFF) << 8 | newValue & 0xFF);
     }
     
-    @SuppressWarnings("unchecked")
     public void run() {
-        HashMap<BlockVector,Boolean> delayedOutputs = (HashMap<BlockVector, Boolean>) this.delayedOutputs.clone();
-        HashMap<BlockVector,Boolean> delayedBridges = (HashMap<BlockVector, Boolean>) this.delayedBridges.clone();
-        HashMap<BlockVector,Integer> delayedInputsOldValue = (HashMap<BlockVector, Integer>) this.delayedInputsOldValue.clone();
-        HashMap<BlockVector,Integer> delayedInputsNewValue = (HashMap<BlockVector, Integer>) this.delayedInputsNewValue.clone();
-        this.delayedOutputs.clear();
-        this.delayedBridges.clear();
-        this.delayedInputsOldValue.clear();
-        this.delayedInputsNewValue.clear();
+        // Outputs set from here on are for the next run
+        LongIntHashMap outputs = delayedOutputs[cursor];
+        cursor = (cursor + 1) & (SLOTS - 1);
+
+        LongIntHashMap bridges = delayedBridges;
+        delayedBridges = runningBridges;
+        runningBridges = bridges;
+
+        LongIntHashMap inputs = delayedInputs;
+        delayedInputs = runningInputs;
+        runningInputs = inputs;
+
+        // The outputs are compared against what the world really has
+        CraftBook.clearFakeBlockData();
+
         l.setRsLock(true);
-        for(BlockVector pos:delayedOutputs.keySet()) {
-            if(CraftBook.getBlockID(pos)!=BlockType.LEVER) continue;
-            int data = CraftBook.getBlockData(pos);
-            int newData = data & 0x7;
+        if (outputs != null) {
+            writeOutputs(outputs);
+            outputs.clear();
+        }
+        for (int i = 0; i < bridges.size(); i++) {
+            final BlockVector pt = BlockVector.fromLong(bridges.keyAt(i));
+            final boolean isOn = bridges.valueAt(i) != 0;
+            final Bridge bridgeModule = l.bridgeModule;
+
+            l.getExecutor().execute(new Runnable() {
+                public void run() {
+                    toggleBridge(bridgeModule, pt, isOn);
+                }
+            });
+        }
+        bridges.clear();
+        l.setRsLock(false);
+        for (int i = 0; i < inputs.size(); i++) {
+            long pos = inputs.keyAt(i);
+            int value = inputs.valueAt(i);
+            l.onRedstoneChange(BlockVector.unpackX(pos), BlockVector.unpackY(pos),
+                    BlockVector.unpackZ(pos), value >> 8, value & 0xFF);
+        }
+        inputs.clear();
+    }
+    
+    /**
+     * Write the outputs of a bucket.
+     *
+     * @param outputs
+     */
+    private void writeOutputs(LongIntHashMap outputs) {
+        int size = outputs.size();
+        if (order.length < size) {
+            order = new long[Math.max(size, order.length * 2)];
+            orderData = new int[order.length];
+        }
+        for (int i = 0; i < size; i++) {
+            order[i] = outputs.keyAt(i);
+        }
+        Arrays.sort(order, 0, size);
+
+        // Write the data first, keeping the changed outputs at the front
+        int changed = 0;
+        for (int i = 0; i < size; i++) {
+            long pos = order[i];
+            int x = BlockVector.unpackX(pos);
+            int y = BlockVector.unpackY(pos);
+            int z = BlockVector.unpackZ(pos);
+
+            if (CraftBook.getBlockID(x, y, z) != BlockType.LEVER) {
+                writesElided++;
+                continue;
+            }
+
+            int data = CraftBook.getBlockData(x, y, z);
+            int newData;
 
-            if (!delayedOutputs.get(pos)) {
+            if (outputs.get(pos, 0) == 0) {
                 newData = data & 0x7;
             } else {
                 newData = data | 0x8;
             }
 
-            if (newData != data) {
-                CraftBook.setBlockData(pos, newData);
-                etc.getServer().updateBlockPhysics(
-                        pos.getBlockX(), pos.getBlockY(), pos.getBlockZ(), newData);
+            if (newData == data) {
+                writesElided++;
+                continue;
             }
+
+            CraftBook.setBlockData(x, y, z, newData);
+            order[changed] = pos;
+            orderData[changed] = newData;
+            changed++;
         }
-        for(BlockVector pt:delayedBridges.keySet()) {
-            int data = CraftBook.getBlockData(pt);
-            boolean isOn = delayedBridges.get(pt);
-            
-            try {
-                BlockSource bag = l.getBlockSource(pt);
-                bag.addSourcePosition(pt);
-
-                if (data == 0x0) {
-                    l.bridgeModule.setBridgeState(pt, Bridge.Direction.EAST, bag, !isOn);
-                } else if (data == 0x4) {
-                    l.bridgeModule.setBridgeState(pt, Bridge.Direction.SOUTH, bag, !isOn);
-                } else if (data == 0x8) {
-                    l.bridgeModule.setBridgeState(pt, Bridge.Direction.WEST, bag, !isOn);
-                } else if (data == 0xC) {
-                    l.bridgeModule.setBridgeState(pt, Bridge.Direction.NORTH, bag, !isOn);
-                }
-            } catch (OperationException e) {
-            } catch (BlockSourceException e) {
+
+        writesApplied += changed;
+
+        // Then let the world react, once per changed lever
+        for (int i = 0; i < changed; i++) {
+            long pos = order[i];
+            etc.getServer().updateBlockPhysics(BlockVector.unpackX(pos),
+                    BlockVector.unpackY(pos), BlockVector.unpackZ(pos),
+                    orderData[i]);
+        }
+    }
+
+    /**
+     * Get the number of outputs set.
+     *
+     * @return
+     */
+    public long getWritesRequested() {
+        return writesRequested;
+    }
+
+    /**
+     * Get the number of outputs that were set again before they were
+     * written.
+     *
+     * @return
+     */
+    public long getWritesMerged() {
+        return writesMerged;
+    }
+
+    /**
+     * Get the number of levers changed.
+     *
+     * @return
+     */
+    public long getWritesApplied() {
+        return writesApplied;
+    }
+
+    /**
+     * Get the number of outputs that did not need to be written.
+     *
+     * @return
+     */
+    public long getWritesElided() {
+        return writesElided;
+    }
+
+    private void toggleBridge(Bridge bridges, BlockVector pt, boolean isOn) {
+        int data = CraftBook.getBlockData(pt);
+        
+        try {
+            BlockSource bag = l.getBlockSource(pt);
+            bag.addSourcePosition(pt);
+
+            if (data == 0x0) {
+                bridges.setBridgeState(pt, Bridge.Direction.EAST, bag, !isOn);
+            } else if (data == 0x4) {
+                bridges.setBridgeState(pt, Bridge.Direction.SOUTH, bag, !isOn);
+            } else if (data == 0x8) {
+                bridges.setBridgeState(pt, Bridge.Direction.WEST, bag, !isOn);
+            } else if (data == 0xC) {
+                bridges.setBridgeState(pt, Bridge.Direction.NORTH, bag, !isOn);
             }
+        } catch (OperationException e) {
+        } catch (BlockSourceException e) {
         }
-        l.setRsLock(false);
-        for(BlockVector pt:delayedInputsOldValue.keySet()) l.onRedstoneChange(pt, delayedInputsOldValue.get(pt), delayedInputsNewValue.get(pt));
     }
 }
@@ -90,4 +90,72 @@ public class BlockVector extends Vector {
                (Integer.valueOf((int)y).hashCode() >> 7) ^
                 Integer.valueOf((int)z).hashCode();
     }
+
+    /**
+     * Packs a block position into a long. The chunk coordinates take the
+     * high bits and the position within the chunk the low bits, so sorting
+     * packed positions groups them by chunk.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return packed position
+     */
+    public static long toLong(int x, int y, int z) {
+        return ((long)(x >> 4) & 0x3FFFFF) << 42
+                | ((long)(z >> 4) & 0x3FFFFF) << 20
+                | (long)(x & 0xF) << 16
+                | (long)(z & 0xF) << 12
+                | (long)(y & 0xFFF);
+    }
+
+    /**
+     * Packs a block position into a long.
+     *
+     * @param pt
+     * @return packed position
+     */
+    public static long toLong(Vector pt) {
+        return toLong(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+    }
+
+    /**
+     * Gets the X component of a packed position.
+     *
+     * @param packed
+     * @return
+     */
+    public static int unpackX(long packed) {
+        return (int)(packed >> 42) << 4 | (int)(packed >>> 16) & 0xF;
+    }
+
+    /**
+     * Gets the Y component of a packed position.
+     *
+     * @param packed
+     * @return
+     */
+    public static int unpackY(long packed) {
+        return (int)(packed << 52 >> 52);
+    }
+
+    /**
+     * Gets the Z component of a packed position.
+     *
+     * @param packed
+     * @return
+     */
+    public static int unpackZ(long packed) {
+        return (int)(packed << 22 >> 42) << 4 | (int)(packed >>> 12) & 0xF;
+    }
+
+    /**
+     * Unpacks a packed position.
+     *
+     * @param packed
+     * @return
+     */
+    public static BlockVector fromLong(long packed) {
+        return new BlockVector(unpackX(packed), unpackY(packed), unpackZ(packed));
+    }
 }
@@ -0,0 +1,270 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.craftbook;
+
+/**
+ * Hash map keyed by primitive longs, such as packed block positions. Uses
+ * open addressing with linear probing so that lookups do not allocate.
+ * Null values are not allowed.
+ *
+ * <p>Entries can be visited with {@link #capacity()}, {@link #keyAt(int)}
+ * and {@link #valueAt(int)}. The map must not be modified while doing so.</p>
+ *
+ * @author sk89q
+ */
+public class LongHashMap<V> {
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+
+    /**
+     * Construct the map.
+     */
+    public LongHashMap() {
+        this(16);
+    }
+
+    /**
+     * Construct the map.
+     *
+     * @param expected number of expected entries
+     */
+    public LongHashMap(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Get the slot a key would prefer.
+     *
+     * @param key
+     * @return
+     */
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Find the slot holding a key, or -1.
+     *
+     * @param key
+     * @return
+     */
+    private int find(long key) {
+        int i = slot(key);
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets a value.
+     *
+     * @param key
+     * @return value or null
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int i = find(key);
+        return i == -1 ? null : (V)values[i];
+    }
+
+    /**
+     * Checks whether there is a value for a key.
+     *
+     * @param key
+     * @return
+     */
+    public boolean containsKey(long key) {
+        return find(key) != -1;
+    }
+
+    /**
+     * Stores a value.
+     *
+     * @param key
+     * @param value not null
+     * @return previous value or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("null values are not allowed");
+        }
+
+        int i = slot(key);
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                V old = (V)values[i];
+                values[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+
+        keys[i] = key;
+        values[i] = value;
+        size++;
+
+        if (size * 2 > values.length) {
+            resize(values.length << 1);
+        }
+
+        return null;
+    }
+
+    /**
+     * Removes a value.
+     *
+     * @param key
+     * @return removed value or null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i = find(key);
+        if (i == -1) {
+            return null;
+        }
+
+        V old = (V)values[i];
+
+        // Shift back the entries that follow so that no probe chain
+        // is broken by the new hole
+        int hole = i;
+        while (true) {
+            i = (i + 1) & mask;
+            if (values[i] == null) {
+                break;
+            }
+            int home = slot(keys[i]);
+            boolean stays = hole < i
+                    ? home > hole && home <= i
+                    : home > hole || home <= i;
+            if (!stays) {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+
+        values[hole] = null;
+        size--;
+
+        return old;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+        for (int i = 0; i < values.length; i++) {
+            values[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * Get the number of entries.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if there are no entries.
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get the number of slots, for visiting entries.
+     *
+     * @return
+     */
+    public int capacity() {
+        return values.length;
+    }
+
+    /**
+     * Get the key at a slot. Only meaningful if {@link #valueAt(int)}
+     * returns a value for the slot.
+     *
+     * @param slot
+     * @return
+     */
+    public long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * Get the value at a slot, or null if the slot is empty.
+     *
+     * @param slot
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public V valueAt(int slot) {
+        return (V)values[slot];
+    }
+
+    /**
+     * Rehash into a new table.
+     *
+     * @param capacity
+     */
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+
+        for (int j = 0; j < oldValues.length; j++) {
+            if (oldValues[j] != null) {
+                int i = slot(oldKeys[j]);
+                while (values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
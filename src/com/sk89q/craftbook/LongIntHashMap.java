@@ -0,0 +1,306 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.craftbook;
+
+/**
+ * Hash map from primitive longs to primitive ints, meant for short-lived
+ * per-tick data keyed by packed block positions. Nothing allocates once
+ * the map has grown to its working size.
+ *
+ * <p>Entries are kept packed in the order they were added and can be
+ * visited with {@link #size()}, {@link #keyAt(int)} and
+ * {@link #valueAt(int)}. Removing an entry moves the last entry into its
+ * place. {@link #clear()} takes constant time: slots are stamped with a
+ * generation, and bumping the generation empties the whole table.</p>
+ *
+ * @author sk89q
+ */
+public class LongIntHashMap {
+    /**
+     * Entry index for each slot.
+     */
+    private int[] table;
+    /**
+     * Generation for each slot. A slot is in use if its stamp matches
+     * the current generation.
+     */
+    private int[] stamps;
+    private int generation = 1;
+    private int mask;
+    /**
+     * Keys of the entries.
+     */
+    private long[] keys;
+    /**
+     * Values of the entries.
+     */
+    private int[] values;
+    private int size;
+
+    /**
+     * Construct the map.
+     */
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    /**
+     * Construct the map.
+     *
+     * @param expected number of expected entries
+     */
+    public LongIntHashMap(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        table = new int[capacity];
+        stamps = new int[capacity];
+        mask = capacity - 1;
+        keys = new long[capacity >> 1];
+        values = new int[capacity >> 1];
+    }
+
+    /**
+     * Get the slot a key would prefer.
+     *
+     * @param key
+     * @return
+     */
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Find the slot holding a key, or -1.
+     *
+     * @param key
+     * @return
+     */
+    private int find(long key) {
+        int i = slot(key);
+        while (stamps[i] == generation) {
+            if (keys[table[i]] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the entry index of a key.
+     *
+     * @param key
+     * @return index or -1
+     */
+    public int indexOf(long key) {
+        int i = find(key);
+        return i == -1 ? -1 : table[i];
+    }
+
+    /**
+     * Gets a value.
+     *
+     * @param key
+     * @param def value to return if there is none
+     * @return
+     */
+    public int get(long key, int def) {
+        int i = find(key);
+        return i == -1 ? def : values[table[i]];
+    }
+
+    /**
+     * Checks whether there is a value for a key.
+     *
+     * @param key
+     * @return
+     */
+    public boolean containsKey(long key) {
+        return find(key) != -1;
+    }
+
+    /**
+     * Stores a value.
+     *
+     * @param key
+     * @param value
+     * @return entry index
+     */
+    public int put(long key, int value) {
+        int i = slot(key);
+        while (stamps[i] == generation) {
+            int index = table[i];
+            if (keys[index] == key) {
+                values[index] = value;
+                return index;
+            }
+            i = (i + 1) & mask;
+        }
+
+        int index = size++;
+        keys[index] = key;
+        values[index] = value;
+        table[i] = index;
+        stamps[i] = generation;
+
+        if (size * 2 >= table.length) {
+            resize(table.length << 1);
+        }
+
+        return index;
+    }
+
+    /**
+     * Removes a value.
+     *
+     * @param key
+     * @return whether there was a value
+     */
+    public boolean remove(long key) {
+        int i = find(key);
+        if (i == -1) {
+            return false;
+        }
+
+        int index = table[i];
+
+        // Shift back the slots that follow so that no probe chain
+        // is broken by the new hole
+        int hole = i;
+        while (true) {
+            i = (i + 1) & mask;
+            if (stamps[i] != generation) {
+                break;
+            }
+            int home = slot(keys[table[i]]);
+            boolean stays = hole < i
+                    ? home > hole && home <= i
+                    : home > hole || home <= i;
+            if (!stays) {
+                table[hole] = table[i];
+                hole = i;
+            }
+        }
+        stamps[hole] = generation - 1;
+
+        // Keep the entries packed
+        int last = --size;
+        if (index != last) {
+            keys[index] = keys[last];
+            values[index] = values[last];
+            table[find(keys[index])] = index;
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        size = 0;
+        generation++;
+        if (generation == 0) {
+            for (int i = 0; i < stamps.length; i++) {
+                stamps[i] = 0;
+            }
+            generation = 1;
+        }
+    }
+
+    /**
+     * Get the number of entries.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if there are no entries.
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get the key of an entry.
+     *
+     * @param index between 0 and {@link #size()}
+     * @return
+     */
+    public long keyAt(int index) {
+        return keys[index];
+    }
+
+    /**
+     * Get the value of an entry.
+     *
+     * @param index between 0 and {@link #size()}
+     * @return
+     */
+    public int valueAt(int index) {
+        return values[index];
+    }
+
+    /**
+     * Set the value of an entry.
+     *
+     * @param index between 0 and {@link #size()}
+     * @param value
+     */
+    public void setValueAt(int index, int value) {
+        values[index] = value;
+    }
+
+    /**
+     * Rehash into a new table.
+     *
+     * @param capacity
+     */
+    private void resize(int capacity) {
+        table = new int[capacity];
+        stamps = new int[capacity];
+        generation = 1;
+        mask = capacity - 1;
+
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity >> 1];
+        values = new int[capacity >> 1];
+        System.arraycopy(oldKeys, 0, keys, 0, size);
+        System.arraycopy(oldValues, 0, values, 0, size);
+
+        for (int index = 0; index < size; index++) {
+            int i = slot(keys[index]);
+            while (stamps[i] == generation) {
+                i = (i + 1) & mask;
+            }
+            table[i] = index;
+            stamps[i] = generation;
+        }
+    }
+}
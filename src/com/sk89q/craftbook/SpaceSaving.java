@@ -0,0 +1,223 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.craftbook;
+
+/**
+ * Keeps track of the most frequent keys in a stream using a fixed amount
+ * of memory (the Space-Saving algorithm). Up to a certain number of keys
+ * are counted. When a new key arrives and there is no room, it replaces
+ * the key with the lowest count and takes over that count, which is then
+ * remembered as the possible overestimate of the new key.
+ *
+ * <p>Any key that occurs more often than the total weight divided by the
+ * capacity is guaranteed to be tracked.</p>
+ *
+ * @author sk89q
+ */
+public class SpaceSaving {
+    /**
+     * Heap position of each tracked key.
+     */
+    private final LongIntHashMap positions;
+    /**
+     * Min-heap of tracked keys, ordered by count.
+     */
+    private final long[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    private int size;
+    private long total;
+
+    /**
+     * Construct the sketch.
+     *
+     * @param capacity number of keys to track
+     */
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        positions = new LongIntHashMap(capacity);
+        keys = new long[capacity];
+        counts = new long[capacity];
+        errors = new long[capacity];
+    }
+
+    /**
+     * Count one occurrence of a key.
+     *
+     * @param key
+     */
+    public void offer(long key) {
+        offer(key, 1);
+    }
+
+    /**
+     * Count a key.
+     *
+     * @param key
+     * @param weight
+     */
+    public void offer(long key, long weight) {
+        total += weight;
+
+        int index = positions.indexOf(key);
+        if (index != -1) {
+            int i = positions.valueAt(index);
+            counts[i] += weight;
+            siftDown(i);
+            return;
+        }
+
+        if (size < keys.length) {
+            int i = size++;
+            keys[i] = key;
+            counts[i] = weight;
+            errors[i] = 0;
+            positions.put(key, i);
+            siftUp(i);
+            return;
+        }
+
+        // Take over the key with the lowest count
+        long min = counts[0];
+        positions.remove(keys[0]);
+        keys[0] = key;
+        counts[0] = min + weight;
+        errors[0] = min;
+        positions.put(key, 0);
+        siftDown(0);
+    }
+
+    /**
+     * Get the number of tracked keys.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the total weight counted.
+     *
+     * @return
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Copy out the keys with the highest counts, highest first.
+     *
+     * @param keys receives the keys
+     * @param counts receives the counts, which may be overestimated
+     * @param errors receives the possible overestimates, or null
+     * @return number of keys copied
+     */
+    public int top(long[] keys, long[] counts, long[] errors) {
+        int n = Math.min(keys.length, size);
+        boolean[] taken = new boolean[size];
+
+        for (int j = 0; j < n; j++) {
+            int best = -1;
+            for (int i = 0; i < size; i++) {
+                if (!taken[i] && (best == -1 || this.counts[i] > this.counts[best])) {
+                    best = i;
+                }
+            }
+            taken[best] = true;
+            keys[j] = this.keys[best];
+            counts[j] = this.counts[best];
+            if (errors != null) {
+                errors[j] = this.errors[best];
+            }
+        }
+
+        return n;
+    }
+
+    /**
+     * Forget everything.
+     */
+    public void clear() {
+        positions.clear();
+        size = 0;
+        total = 0;
+    }
+
+    /**
+     * Move an entry towards the root while it is smaller than its parent.
+     *
+     * @param i
+     */
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (counts[parent] <= counts[i]) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    /**
+     * Move an entry away from the root while it is larger than a child.
+     *
+     * @param i
+     */
+    private void siftDown(int i) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && counts[child + 1] < counts[child]) {
+                child++;
+            }
+            if (counts[i] <= counts[child]) {
+                break;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    /**
+     * Swap two heap entries.
+     *
+     * @param a
+     * @param b
+     */
+    private void swap(int a, int b) {
+        long key = keys[a];
+        long count = counts[a];
+        long error = errors[a];
+        keys[a] = keys[b];
+        counts[a] = counts[b];
+        errors[a] = errors[b];
+        keys[b] = key;
+        counts[b] = count;
+        errors[b] = error;
+        positions.put(keys[a], a);
+        positions.put(keys[b], b);
+    }
+}
@@ -0,0 +1,262 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.craftbook;
+
+/**
+ * Schedules keys, such as packed block positions, to expire after a number
+ * of ticks. Keys are kept on a hierarchy of wheels of 64 slots each; the
+ * first wheel has a slot per tick, and each further wheel has a slot per
+ * turn of the wheel below it. Keys move down a wheel as their time comes
+ * closer, so scheduling and cancelling take constant time, and a tick only
+ * touches the keys that expire or move.
+ *
+ * <p>A key can only be scheduled once; scheduling it again moves it.</p>
+ *
+ * @author sk89q
+ */
+public class TimingWheel {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    /**
+     * Longest delay that can be scheduled, which is about nine days.
+     */
+    public static final int MAX_DELAY = (1 << (SLOT_BITS * LEVELS)) - 1;
+
+    /**
+     * Called for each key that expires.
+     */
+    public interface Listener {
+        /**
+         * Called when a key expires. The key may be scheduled again.
+         *
+         * @param key
+         */
+        public void expired(long key);
+    }
+
+    /**
+     * Scheduled key, linked into the list of its slot.
+     */
+    private static class Entry {
+        long key;
+        long deadline;
+        int slot;
+        Entry prev;
+        Entry next;
+    }
+
+    /**
+     * Heads of the slot lists of all wheels, the first wheel first.
+     */
+    private final Entry[] slots = new Entry[SLOTS * LEVELS];
+    /**
+     * Entries by key.
+     */
+    private final LongHashMap<Entry> entries;
+    /**
+     * Current tick.
+     */
+    private long now;
+
+    /**
+     * Construct the wheel.
+     */
+    public TimingWheel() {
+        this(64);
+    }
+
+    /**
+     * Construct the wheel.
+     *
+     * @param expected number of expected keys
+     */
+    public TimingWheel(int expected) {
+        entries = new LongHashMap<Entry>(expected);
+    }
+
+    /**
+     * Schedule a key to expire after a delay. A key that is already
+     * scheduled is moved.
+     *
+     * @param key
+     * @param delay number of ticks, at least 1
+     */
+    public void schedule(long key, int delay) {
+        delay = Math.max(1, Math.min(MAX_DELAY, delay));
+
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry();
+            entry.key = key;
+            entries.put(key, entry);
+        } else {
+            unlink(entry);
+        }
+
+        entry.deadline = now + delay;
+        link(entry);
+    }
+
+    /**
+     * Cancel a key.
+     *
+     * @param key
+     * @return true if the key was scheduled
+     */
+    public boolean cancel(long key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        unlink(entry);
+        return true;
+    }
+
+    /**
+     * Returns true if a key is scheduled.
+     *
+     * @param key
+     * @return
+     */
+    public boolean isScheduled(long key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Get the number of scheduled keys.
+     *
+     * @return
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the scheduled keys.
+     *
+     * @return
+     */
+    public long[] getKeys() {
+        long[] keys = new long[entries.size()];
+        int n = 0;
+        for (int i = 0; i < entries.capacity(); i++) {
+            if (entries.valueAt(i) != null) {
+                keys[n++] = entries.keyAt(i);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Get the current tick.
+     *
+     * @return
+     */
+    public long getTime() {
+        return now;
+    }
+
+    /**
+     * Forget all keys.
+     */
+    public void clear() {
+        entries.clear();
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = null;
+        }
+    }
+
+    /**
+     * Move to the next tick and expire the keys that are due.
+     *
+     * @param listener
+     */
+    public void advance(Listener listener) {
+        now++;
+
+        // Bring keys down from the upper wheels that have turned a slot,
+        // the highest wheel first
+        for (int level = LEVELS - 1; level > 0; level--) {
+            if ((now & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                continue;
+            }
+            int slot = level * SLOTS
+                    + ((int)(now >>> (SLOT_BITS * level)) & SLOT_MASK);
+            Entry entry;
+            while ((entry = slots[slot]) != null) {
+                unlink(entry);
+                link(entry);
+            }
+        }
+
+        // The listener may schedule and cancel keys, so entries are taken
+        // off the slot one at a time
+        int slot = (int)now & SLOT_MASK;
+        Entry entry;
+        while ((entry = slots[slot]) != null) {
+            unlink(entry);
+            entries.remove(entry.key);
+            listener.expired(entry.key);
+        }
+    }
+
+    /**
+     * Put an entry into the slot for its deadline.
+     *
+     * @param entry
+     */
+    private void link(Entry entry) {
+        long delta = entry.deadline - now;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+
+        int slot = level * SLOTS
+                + ((int)(entry.deadline >>> (SLOT_BITS * level)) & SLOT_MASK);
+        entry.slot = slot;
+        entry.prev = null;
+        entry.next = slots[slot];
+        if (entry.next != null) {
+            entry.next.prev = entry;
+        }
+        slots[slot] = entry;
+    }
+
+    /**
+     * Take an entry out of its slot.
+     *
+     * @param entry
+     */
+    private void unlink(Entry entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            slots[entry.slot] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+    }
+}
@@ -0,0 +1,67 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.craftbook.ic;
+
+import com.sk89q.craftbook.SignText;
+
+/**
+ * Band of a wireless IC, kept so that the band name on line 3 is only
+ * looked up once.
+ *
+ * @author sk89q
+ */
+class BandState implements ICState {
+    final int band;
+
+    /**
+     * Construct the state.
+     *
+     * @param band
+     */
+    BandState(int band) {
+        this.band = band;
+    }
+
+    /**
+     * The band is read from the sign, so there is nothing to write.
+     *
+     * @param text
+     */
+    public void write(SignText text) {
+    }
+
+    /**
+     * Get the band of an IC from line 3.
+     *
+     * @param chip
+     * @param bands
+     * @return
+     */
+    static int get(ChipState chip, WirelessBands bands) {
+        ICState state = chip.getState();
+        if (state instanceof BandState) {
+            return ((BandState)state).band;
+        }
+
+        int band = bands.getBand(chip.getText().getLine3());
+        chip.setState(new BandState(band));
+        return band;
+    }
+}
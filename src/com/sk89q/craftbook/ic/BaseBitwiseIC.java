@@ -0,0 +1,48 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.craftbook.ic;
+
+/**
+ * Base class for ICs that work on bit masks. The IC can still be run with
+ * a chip state.
+ *
+ * @author sk89q
+ */
+public abstract class BaseBitwiseIC extends BaseIC implements BitwiseIC {
+    /**
+     * Work out the new outputs.
+     *
+     * @param inputs mask of the inputs that are high
+     * @param triggered mask of the inputs that changed
+     * @param outputs mask of the outputs that are high
+     * @return mask of the outputs that should be high
+     */
+    public abstract int think(int inputs, int triggered, int outputs);
+
+    /**
+     * Think.
+     *
+     * @param chip
+     */
+    public void think(ChipState chip) {
+        chip.setOutputMask(think(chip.getInputMask(),
+                chip.getTriggeredMask(), chip.getOutputMask()));
+    }
+}
@@ -0,0 +1,39 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.craftbook.ic;
+
+/**
+ * IC that works only on the levels of its inputs and outputs. These are
+ * passed as bit masks, with bit 0 for input or output 1, so no signals
+ * or chip state have to be made to run it.
+ *
+ * @author sk89q
+ */
+public interface BitwiseIC extends IC {
+    /**
+     * Work out the new outputs.
+     *
+     * @param inputs mask of the inputs that are high
+     * @param triggered mask of the inputs that changed
+     * @param outputs mask of the outputs that are high
+     * @return mask of the outputs that should be high
+     */
+    public int think(int inputs, int triggered, int outputs);
+}
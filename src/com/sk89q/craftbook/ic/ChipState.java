@@ -9,12 +9,21 @@ import com.sk89q.craftbook.*;
  * @author sk89q
  */
 public class ChipState {
+    /**
+     * Longest delay that an output can be set with, in ticks.
+     */
+    public static final int MAX_OUT_DELAY = 255;
+
     private Signal[] in;
     private Signal[] out;
     private boolean[] mem;
     private Vector pos;
     private Vector blockPos;
     private SignText text;
+    private ICState state;
+    private boolean stateChanged;
+    private int[] outDelay;
+    private boolean[] outDelayedState;
 
     /**
      * Construct the state.
@@ -77,6 +86,113 @@ public class ChipState {
         return out.clone();
     }
 
+    /**
+     * Set an output after a number of ticks, instead of on the next tick.
+     * This is separate from {@link #getOut(int)}, so an IC can set an
+     * output now and set it back later. A later call for the same output
+     * replaces an earlier one.
+     *
+     * @param n
+     * @param state
+     * @param ticks number of ticks from 1 to {@link #MAX_OUT_DELAY}; longer
+     *            delays are cut to {@link #MAX_OUT_DELAY}
+     */
+    public void setOutDelayed(int n, boolean state, int ticks) {
+        if (n > out.length) {
+            return;
+        }
+        if (outDelay == null) {
+            outDelay = new int[out.length];
+            outDelayedState = new boolean[out.length];
+        }
+        outDelay[n - 1] = Math.max(1, Math.min(MAX_OUT_DELAY, ticks));
+        outDelayedState[n - 1] = state;
+    }
+
+    /**
+     * Get the delay of an output set with
+     * {@link #setOutDelayed(int, boolean, int)}.
+     *
+     * @param n
+     * @return ticks, or 0 if the output was not set that way
+     */
+    public int getOutDelay(int n) {
+        if (outDelay == null || n > out.length) {
+            return 0;
+        }
+        return outDelay[n - 1];
+    }
+
+    /**
+     * Get the state of an output set with
+     * {@link #setOutDelayed(int, boolean, int)}.
+     *
+     * @param n
+     * @return
+     */
+    public boolean getOutDelayedState(int n) {
+        if (outDelayedState == null || n > out.length) {
+            return false;
+        }
+        return outDelayedState[n - 1];
+    }
+
+    /**
+     * Get the inputs that are high as a mask, with bit 0 for input 1.
+     *
+     * @return
+     */
+    public int getInputMask() {
+        int mask = 0;
+        for (int i = 0; i < in.length; i++) {
+            if (in[i].is()) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Get the inputs that changed as a mask, with bit 0 for input 1.
+     *
+     * @return
+     */
+    public int getTriggeredMask() {
+        int mask = 0;
+        for (int i = 0; i < in.length; i++) {
+            if (in[i].isTriggered()) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Get the outputs that are high as a mask, with bit 0 for output 1.
+     *
+     * @return
+     */
+    public int getOutputMask() {
+        int mask = 0;
+        for (int i = 0; i < out.length; i++) {
+            if (out[i].is()) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Set the outputs from a mask, with bit 0 for output 1.
+     *
+     * @param mask
+     */
+    public void setOutputMask(int mask) {
+        for (int i = 0; i < out.length; i++) {
+            out[i].set((mask & (1 << i)) != 0);
+        }
+    }
+
     /**
      * Returns the last state.
      * 
@@ -133,4 +249,39 @@ public class ChipState {
     public SignText getText() {
         return text;
     }
+
+    /**
+     * Get the state kept in memory for the IC, if any.
+     *
+     * @return state or null
+     */
+    public ICState getState() {
+        return state;
+    }
+
+    /**
+     * Set the state kept in memory for the IC. This does not cause the
+     * state to be written to the sign; use {@link #setStateChanged()}.
+     *
+     * @param state
+     */
+    public void setState(ICState state) {
+        this.state = state;
+    }
+
+    /**
+     * Mark the state as changed so that it is written to the sign later.
+     */
+    public void setStateChanged() {
+        stateChanged = true;
+    }
+
+    /**
+     * Returns whether the state has been marked as changed.
+     *
+     * @return
+     */
+    public boolean isStateChanged() {
+        return stateChanged;
+    }
 }
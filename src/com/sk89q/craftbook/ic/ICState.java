@@ -0,0 +1,39 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.craftbook.ic;
+
+import com.sk89q.craftbook.SignText;
+
+/**
+ * State of an IC that is kept in memory between thinks, such as the
+ * value of a counter. The sign text is only where the state is stored
+ * between restarts; it is written when the state has changed, from time
+ * to time rather than on every think.
+ *
+ * @author sk89q
+ */
+public interface ICState {
+    /**
+     * Write the state to the text of the sign.
+     *
+     * @param text
+     */
+    public void write(SignText text);
+}
@@ -24,7 +24,7 @@ package com.sk89q.craftbook.ic;
  *
  * @author Shaun (sturmeh)
  */
-public class MC1000 extends BaseIC {
+public class MC1000 extends BaseBitwiseIC {
     /**
      * Get the title of the IC.
      *
@@ -37,9 +37,12 @@ public class MC1000 extends BaseIC {
     /**
      * Think.
      *
-     * @param chip
+     * @param inputs
+     * @param triggered
+     * @param outputs
+     * @return
      */
-    public void think(ChipState chip) {
-        chip.getOut(1).set(chip.getIn(1).is());
+    public int think(int inputs, int triggered, int outputs) {
+        return inputs & 1;
     }
 }
@@ -24,7 +24,7 @@ package com.sk89q.craftbook.ic;
  *
  * @author Shaun (sturmeh)
  */
-public class MC1001 extends BaseIC {
+public class MC1001 extends BaseBitwiseIC {
     /**
      * Get the title of the IC.
      *
@@ -39,7 +39,7 @@ public class MC1001 extends BaseIC {
      * 
      * @param chip
      */
-    public void think(ChipState chip) {
-        chip.getOut(1).set(chip.getIn(1).not());
+    public int think(int inputs, int triggered, int outputs) {
+        return ~inputs & 1;
     }
 }
@@ -24,7 +24,7 @@ package com.sk89q.craftbook.ic;
  *
  * @author Shaun (sturmeh)
  */
-public class MC1018 extends BaseIC {
+public class MC1018 extends BaseBitwiseIC {
     /**
      * Get the title of the IC.
      *
@@ -39,8 +39,9 @@ public class MC1018 extends BaseIC {
      * 
      * @param chip
      */
-    public void think(ChipState chip) {
-        if (chip.getIn(1).not())
-            chip.getOut(1).invert();
+    public int think(int inputs, int triggered, int outputs) {
+        if ((inputs & 1) == 0)
+            return outputs ^ 1;
+        return outputs;
     }
 }
@@ -19,7 +19,6 @@
 
 package com.sk89q.craftbook.ic;
 
-import java.util.Map;
 import com.sk89q.craftbook.*;
 
 /**
@@ -29,10 +28,18 @@ import com.sk89q.craftbook.*;
  */
 public class MC1110 extends BaseIC {
     /**
-     * Data store.
+     * Bands to transmit on.
      */
-    public static Map<String,Boolean> airwaves =
-            new HistoryHashMap<String,Boolean>(100);
+    private final WirelessBands bands;
+
+    /**
+     * Construct the IC.
+     *
+     * @param bands
+     */
+    public MC1110(WirelessBands bands) {
+        this.bands = bands;
+    }
 
     /**
      * Get the title of the IC.
@@ -70,7 +77,7 @@ public class MC1110 extends BaseIC {
         String id = chip.getText().getLine3();
 
         if (!id.isEmpty()) {
-            airwaves.put(id, chip.getIn(1).is());
+            bands.set(BandState.get(chip, bands), chip.getIn(1).is());
             chip.getOut(1).set(true);
         } else {
             chip.getOut(1).set(false);
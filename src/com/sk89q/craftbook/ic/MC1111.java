@@ -27,6 +27,20 @@ import com.sk89q.craftbook.*;
  * @author sk89q
  */
 public class MC1111 extends BaseIC {
+    /**
+     * Bands to receive from.
+     */
+    private final WirelessBands bands;
+
+    /**
+     * Construct the IC.
+     *
+     * @param bands
+     */
+    public MC1111(WirelessBands bands) {
+        this.bands = bands;
+    }
+
     /**
      * Get the title of the IC.
      *
@@ -62,12 +76,11 @@ public class MC1111 extends BaseIC {
     public void think(ChipState chip) {
         String id = chip.getText().getLine3();
         if (!id.isEmpty()) {
-            Boolean out = MC1110.airwaves.get(id);
-            if (out == null) {
-                chip.getOut(1).set(false);
-            } else {
-                chip.getOut(1).set(out);
-            }
+            int band = BandState.get(chip, bands);
+
+            // Told about changes from now on
+            bands.subscribe(band, BlockVector.toLong(chip.getPosition()));
+            chip.getOut(1).set(bands.get(band));
         } else {
             chip.getOut(1).set(false);
         }
@@ -0,0 +1,101 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.craftbook.ic;
+
+import com.sk89q.craftbook.*;
+
+/**
+ * Monostable. A rising edge sets the output high, and it goes low again
+ * after the number of ticks on line 3. Edges during the pulse do not
+ * make it longer, because the output set back for the first edge is not
+ * replaced.
+ *
+ * @author sk89q
+ */
+public class MC1422 extends BaseIC {
+    /**
+     * Length of the pulse when line 3 is blank.
+     */
+    private static final int DEFAULT_LENGTH = 10;
+
+    /**
+     * Get the title of the IC.
+     *
+     * @return
+     */
+    public String getTitle() {
+        return "MONOSTABLE";
+    }
+
+    /**
+     * Validates the IC's environment. The position of the sign is given.
+     * Return a string in order to state an error message and deny
+     * creation, otherwise return null to allow.
+     *
+     * @param sign
+     * @return
+     */
+    public String validateEnvironment(Vector pos, SignText sign) {
+        if (sign.getLine3().length() != 0 && getLength(sign) == 0) {
+            return "Put a pulse length of 1 to " + ChipState.MAX_OUT_DELAY
+                    + " ticks on line 3, or leave it blank.";
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the length of the pulse from line 3.
+     *
+     * @param text
+     * @return ticks, or 0 if line 3 is not a valid length
+     */
+    private static int getLength(SignText text) {
+        String line = text.getLine3().trim();
+        if (line.length() == 0) {
+            return DEFAULT_LENGTH;
+        }
+
+        try {
+            int length = Integer.parseInt(line);
+            return length >= 1 && length <= ChipState.MAX_OUT_DELAY
+                    ? length : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Think.
+     *
+     * @param chip
+     */
+    public void think(ChipState chip) {
+        if (!chip.getIn(1).is() || !chip.getIn(1).isTriggered()) {
+            return;
+        }
+
+        int length = getLength(chip.getText());
+        if (length > 0) {
+            chip.getOut(1).set(true);
+            chip.setOutDelayed(1, false, length);
+        }
+    }
+}
@@ -26,7 +26,7 @@ import java.util.Random;
  *
  * @author sk89q
  */
-public class MC2020 extends BaseIC {
+public class MC2020 extends BaseBitwiseIC {
     /**
      * Random number generator.
      */
@@ -44,13 +44,17 @@ public class MC2020 extends BaseIC {
     /**
      * Think.
      *
-     * @param chip
+     * @param inputs
+     * @param triggered
+     * @param outputs
+     * @return
      */
-    public void think(ChipState chip) {
-        if (chip.getIn(1).is()) {
-            chip.getOut(1).set(random.nextBoolean());
-            chip.getOut(2).set(random.nextBoolean());
-            chip.getOut(3).set(random.nextBoolean());
+    public int think(int inputs, int triggered, int outputs) {
+        if ((inputs & 1) != 0) {
+            return (random.nextBoolean() ? 1 : 0)
+                    | (random.nextBoolean() ? 2 : 0)
+                    | (random.nextBoolean() ? 4 : 0);
         }
+        return outputs;
     }
 }
@@ -24,7 +24,7 @@ package com.sk89q.craftbook.ic;
  *
  * @author sk89q
  */
-public class MC3003 extends BaseIC {
+public class MC3003 extends BaseBitwiseIC {
     /**
      * Get the title of the IC.
      *
@@ -37,10 +37,12 @@ public class MC3003 extends BaseIC {
     /**
      * Think.
      *
-     * @param chip
+     * @param inputs
+     * @param triggered
+     * @param outputs
+     * @return
      */
-    public void think(ChipState chip) {
-        chip.getOut(1).set(!(chip.getIn(1).is() && chip.getIn(2).is()
-                && chip.getIn(3).is()));
+    public int think(int inputs, int triggered, int outputs) {
+        return (inputs & 7) == 7 ? 0 : 1;
     }
 }
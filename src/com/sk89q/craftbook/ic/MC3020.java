@@ -24,7 +24,7 @@ package com.sk89q.craftbook.ic;
  *
  * @author sk89q
  */
-public class MC3020 extends BaseIC {
+public class MC3020 extends BaseBitwiseIC {
     /**
      * Get the title of the IC.
      *
@@ -37,9 +37,12 @@ public class MC3020 extends BaseIC {
     /**
      * Think.
      *
-     * @param chip
+     * @param inputs
+     * @param triggered
+     * @param outputs
+     * @return
      */
-    public void think(ChipState chip) {
-        chip.getOut(1).set(chip.getIn(1).is() ^ chip.getIn(2).is());
+    public int think(int inputs, int triggered, int outputs) {
+        return (inputs ^ (inputs >> 1)) & 1;
     }
 }
@@ -24,7 +24,7 @@ package com.sk89q.craftbook.ic;
  *
  * @author sk89q
  */
-public class MC3031 extends BaseIC {
+public class MC3031 extends BaseBitwiseIC {
     /**
      * Get the title of the IC.
      *
@@ -37,17 +37,21 @@ public class MC3031 extends BaseIC {
     /**
      * Think.
      *
-     * @param chip
+     * @param inputs
+     * @param triggered
+     * @param outputs
+     * @return
      */
-    public void think(ChipState chip) {
-        boolean set = chip.getIn(1).is();
-        boolean reset = chip.getIn(2).is();
+    public int think(int inputs, int triggered, int outputs) {
+        boolean set = (inputs & 1) != 0;
+        boolean reset = (inputs & 2) != 0;
         if (!set && !reset) {
-            chip.getOut(1).set(true);
+            return 1;
         } else if (set && !reset) {
-            chip.getOut(1).set(false);
+            return 0;
         } else if (!set && reset) {
-            chip.getOut(1).set(true);
+            return 1;
         }
+        return outputs;
     }
 }
@@ -28,7 +28,7 @@ package com.sk89q.craftbook.ic;
  * 
  * @author sindreij
  */
-public class MC3032 extends BaseIC {
+public class MC3032 extends BaseBitwiseIC {
     /**
      * Get the title of the IC.
      *
@@ -41,19 +41,23 @@ public class MC3032 extends BaseIC {
     /**
      * Think.
      *
-     * @param chip
+     * @param inputs
+     * @param triggered
+     * @param outputs
+     * @return
      */
-    public void think(ChipState chip) {
-        boolean j = chip.getIn(2).is(); //Set
-        boolean k = chip.getIn(3).is(); //Reset
-        if (chip.getIn(1).isTriggered() && chip.getIn(1).not()) {
+    public int think(int inputs, int triggered, int outputs) {
+        boolean j = (inputs & 2) != 0; //Set
+        boolean k = (inputs & 4) != 0; //Reset
+        if ((triggered & 1) != 0 && (inputs & 1) == 0) {
             if (j && k) {
-                chip.getOut(1).invert();
+                return outputs ^ 1;
             } else if (j && !k) {
-                chip.getOut(1).set(true);
+                return 1;
             } else if (!j && k) {
-                chip.getOut(1).set(false);
+                return 0;
             }
         }
+        return outputs;
     }
 }
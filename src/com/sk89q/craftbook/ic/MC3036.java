@@ -24,7 +24,7 @@ package com.sk89q.craftbook.ic;
  *
  * @author sk89q
  */
-public class MC3036 extends BaseIC {
+public class MC3036 extends BaseBitwiseIC {
     /**
      * Get the title of the IC.
      *
@@ -37,15 +37,20 @@ public class MC3036 extends BaseIC {
     /**
      * Think.
      *
-     * @param chip
+     * @param inputs
+     * @param triggered
+     * @param outputs
+     * @return
      */
-    public void think(ChipState chip) {
-        if (chip.getIn(1).is()) {
-            chip.getOut(1).set(chip.getIn(2).is());
+    public int think(int inputs, int triggered, int outputs) {
+        if ((inputs & 1) != 0) {
+            outputs = (inputs >> 1) & 1;
         }
 
-        if (chip.getIn(3).is()) {
-            chip.getOut(1).set(false);
+        if ((inputs & 4) != 0) {
+            outputs = 0;
         }
+
+        return outputs;
     }
 }
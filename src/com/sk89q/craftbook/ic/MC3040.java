@@ -24,7 +24,7 @@ package com.sk89q.craftbook.ic;
  *
  * @author Lymia
  */
-public class MC3040 extends BaseIC {
+public class MC3040 extends BaseBitwiseIC {
     /**
      * Get the title of the IC.
      *
@@ -37,10 +37,13 @@ public class MC3040 extends BaseIC {
     /**
      * Think.
      *
-     * @param chip
+     * @param inputs
+     * @param triggered
+     * @param outputs
+     * @return
      */
-    public void think(ChipState chip) {
-        boolean swapper = chip.getIn(3).is();
-        chip.getOut(1).set(swapper?chip.getIn(1).is():chip.getIn(2).is());
+    public int think(int inputs, int triggered, int outputs) {
+        boolean swapper = (inputs & 4) != 0;
+        return (swapper ? inputs : inputs >> 1) & 1;
     }
 }
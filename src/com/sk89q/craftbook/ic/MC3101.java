@@ -80,6 +80,51 @@ public class MC3101 extends BaseIC {
         return null;
     }
 
+    /**
+     * Counter configuration and value, kept in memory so that the sign
+     * is not rewritten on every clock pulse.
+     */
+    private static class CounterState implements ICState {
+        final int resetVal;
+        final boolean inf;
+        int curVal;
+
+        CounterState(int resetVal, boolean inf, int curVal) {
+            this.resetVal = resetVal;
+            this.inf = inf;
+            this.curVal = curVal;
+        }
+
+        /**
+         * Write the counter value to line 4.
+         *
+         * @param text
+         */
+        public void write(SignText text) {
+            text.setLine4(Integer.toString(curVal));
+        }
+    }
+
+    /**
+     * Read the counter from the sign.
+     *
+     * @param text
+     * @return
+     */
+    private static CounterState load(SignText text) {
+		// Get IC config data from line 3 of sign
+		String[] config = text.getLine3().split("\\|");
+		int resetVal = Integer.parseInt(config[0].trim());
+		boolean inf = config[1].equals("INF");
+
+		// Get current counter value from line 4 of sign
+		String line4 = text.getLine4();
+		if(line4.equals(""))
+			line4 = "0";
+
+		return new CounterState(resetVal, inf, Integer.parseInt(line4.trim()));
+    }
+
     /**
      * Think.
      *
@@ -87,24 +132,23 @@ public class MC3101 extends BaseIC {
      */
     public void think(ChipState chip) {
 		try {
-    		// Get IC config data from line 3 of sign
-    		String line3 = chip.getText().getLine3();
-    		String[] config = line3.split("\\|");
-    		int resetVal = Integer.parseInt(config[0].trim());
-    		boolean inf = config[1].equals("INF");
-    
-    		// Get current counter value from line 4 of sign
-    		String line4 = chip.getText().getLine4();
-    		if(line4.equals(""))
-    			line4 = "0";
-    		int curVal = Integer.parseInt(line4.trim());
+    		ICState state = chip.getState();
+    		CounterState counter;
+    		if(state instanceof CounterState) {
+    			counter = (CounterState)state;
+    		} else {
+    			counter = load(chip.getText());
+    			chip.setState(counter);
+    		}
+
+    		int curVal = counter.curVal;
     		int oldVal = curVal;
     
     		// If clock input triggered
     		if(chip.getIn(1).isTriggered() && chip.getIn(1).is()) {
     			if(curVal == 0) { // if we've gotten to 0, reset if infinite mode
-    				if(inf)
-    					curVal = resetVal;
+    				if(counter.inf)
+    					curVal = counter.resetVal;
     			}
     			else // decrement counter
     				curVal--;
@@ -118,12 +162,14 @@ public class MC3101 extends BaseIC {
     
     		// if reset intput triggered, reset counter value
     		if(chip.getIn(2).isTriggered() && chip.getIn(2).is()) {
-    			curVal = resetVal;
+    			curVal = counter.resetVal;
     		}
     
-    		// update counter value stored on sign if it's changed
-    		if(curVal != oldVal)
-    			chip.getText().setLine4(Integer.toString(curVal));
+    		// the counter value is written to the sign later
+    		if(curVal != oldVal) {
+    			counter.curVal = curVal;
+    			chip.setStateChanged();
+    		}
     
     		// Clear error if one is set
     		if(chip.getText().getLine1().equals("ERROR")) {
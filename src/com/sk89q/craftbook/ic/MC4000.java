@@ -23,21 +23,19 @@ package com.sk89q.craftbook.ic;
  * Full adder
  * @author Lymia
  */
-public class MC4000 extends BaseIC {
+public class MC4000 extends BaseBitwiseIC {
     public String getTitle() {
         return "FULL ADDER";
     }
 
-    public void think(ChipState chip) {
-        boolean A = chip.getIn(1).is();
-        boolean B = chip.getIn(2).is();
-        boolean C = chip.getIn(3).is();
+    public int think(int inputs, int triggered, int outputs) {
+        boolean A = (inputs & 1) != 0;
+        boolean B = (inputs & 2) != 0;
+        boolean C = (inputs & 4) != 0;
         
         boolean S = A^B^C;
         boolean Ca = (A&B)|((A^B)&C);
         
-        chip.getOut(1).set(S);
-        chip.getOut(2).set(Ca);
-        chip.getOut(3).set(Ca);
+        return (S ? 1 : 0) | (Ca ? 6 : 0);
     }
 }
@@ -23,21 +23,19 @@ package com.sk89q.craftbook.ic;
  * Full subtractor
  * @author Lymia
  */
-public class MC4100 extends BaseIC {
+public class MC4100 extends BaseBitwiseIC {
     public String getTitle() {
         return "FULL SUBTRACTOR";
     }
 
-    public void think(ChipState chip) {
-        boolean A = chip.getIn(1).is();
-        boolean B = chip.getIn(2).is();
-        boolean C = chip.getIn(3).is();
+    public int think(int inputs, int triggered, int outputs) {
+        boolean A = (inputs & 1) != 0;
+        boolean B = (inputs & 2) != 0;
+        boolean C = (inputs & 4) != 0;
         
         boolean S = A^B^C;
         boolean Bo = C&!(A^B)|(!A&B);
         
-        chip.getOut(1).set(S);
-        chip.getOut(2).set(Bo);
-        chip.getOut(3).set(Bo);
+        return (S ? 1 : 0) | (Bo ? 6 : 0);
     }
 }
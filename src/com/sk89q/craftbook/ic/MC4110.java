@@ -23,20 +23,18 @@ package com.sk89q.craftbook.ic;
  * Half subtractor
  * @author Lymia
  */
-public class MC4110 extends BaseIC {
+public class MC4110 extends BaseBitwiseIC {
     public String getTitle() {
         return "HALF SUBTRACTOR";
     }
 
-    public void think(ChipState chip) {
-        boolean B = chip.getIn(2).is();
-        boolean C = chip.getIn(3).is();
+    public int think(int inputs, int triggered, int outputs) {
+        boolean B = (inputs & 2) != 0;
+        boolean C = (inputs & 4) != 0;
         
         boolean S = B^C;
         boolean Bo = !B&C;
         
-        chip.getOut(1).set(S);
-        chip.getOut(2).set(Bo);
-        chip.getOut(3).set(Bo);
+        return (S ? 1 : 0) | (Bo ? 6 : 0);
     }
 }
@@ -22,17 +22,18 @@ package com.sk89q.craftbook.ic;
  * Dispatcher
  * @author Lymia
  */
-public class MC4200 extends BaseIC {
+public class MC4200 extends BaseBitwiseIC {
     public String getTitle() {
         return "DISPATCHER";
     }
 
-    public void think(ChipState chip) {
-        boolean value = chip.getIn(1).is();
-        boolean targetB = chip.getIn(2).is();
-        boolean targetC = chip.getIn(3).is();
+    public int think(int inputs, int triggered, int outputs) {
+        int value = inputs & 1;
+        boolean targetB = (inputs & 2) != 0;
+        boolean targetC = (inputs & 4) != 0;
         
-        if(targetB) chip.getOut(2).set(value);
-        if(targetC) chip.getOut(3).set(value);
+        if(targetB) outputs = (outputs & ~2) | (value << 1);
+        if(targetC) outputs = (outputs & ~4) | (value << 2);
+        return outputs;
     }
 }
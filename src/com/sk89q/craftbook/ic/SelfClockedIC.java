@@ -0,0 +1,39 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.craftbook.ic;
+
+import com.sk89q.craftbook.SignText;
+
+/**
+ * IC that can think on its own every so many ticks, without a redstone
+ * clock wired to it. When it thinks on its own, none of its inputs are
+ * triggered.
+ *
+ * @author sk89q
+ */
+public interface SelfClockedIC extends IC {
+    /**
+     * Get the number of ticks between thinks for a placed IC.
+     *
+     * @param text sign text
+     * @return ticks, or 0 to only think when an input changes
+     */
+    public int getClockPeriod(SignText text);
+}
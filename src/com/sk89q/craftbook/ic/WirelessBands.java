@@ -0,0 +1,304 @@
+// $Id$
+/*
+ * CraftBook
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.craftbook.ic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sk89q.craftbook.LongIntHashMap;
+
+/**
+ * Wireless bands used by transmitters and receivers. Band names are given
+ * ids the first time they are seen and there is no limit on the number of
+ * bands. Receivers subscribe to a band by position and are told when the
+ * band changes, so they do not have to be triggered to see it.
+ *
+ * @author sk89q
+ */
+public class WirelessBands {
+    /**
+     * Told about the receivers of a band that changed.
+     */
+    public interface Listener {
+        /**
+         * Called for each receiver of a band that changed.
+         *
+         * @param pos packed position of the receiver
+         * @param state new state of the band
+         * @return false to unsubscribe the receiver
+         */
+        public boolean receiverChanged(long pos, boolean state);
+    }
+
+    /**
+     * Band ids by name.
+     */
+    private final Map<String,Integer> ids = new HashMap<String,Integer>();
+    private String[] names = new String[16];
+    private boolean[] states = new boolean[16];
+    /**
+     * Packed positions of the receivers of each band.
+     */
+    private long[][] receivers = new long[16][];
+    private int[] receiverCounts = new int[16];
+    /**
+     * Number of times each band changed.
+     */
+    private long[] changes = new long[16];
+    /**
+     * Number of times a receiver of each band was told of a change.
+     */
+    private long[] pushes = new long[16];
+    private int count;
+    /**
+     * Band of each receiver, by packed position.
+     */
+    private final LongIntHashMap subscriptions = new LongIntHashMap(64);
+    private Listener listener;
+
+    /**
+     * Set the listener told about changes.
+     *
+     * @param listener
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Get the id of a band, making one if the band is new.
+     *
+     * @param name
+     * @return
+     */
+    public int getBand(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+
+        if (count == names.length) {
+            int capacity = count * 2;
+            String[] newNames = new String[capacity];
+            boolean[] newStates = new boolean[capacity];
+            long[][] newReceivers = new long[capacity][];
+            int[] newReceiverCounts = new int[capacity];
+            long[] newChanges = new long[capacity];
+            long[] newPushes = new long[capacity];
+            System.arraycopy(names, 0, newNames, 0, count);
+            System.arraycopy(states, 0, newStates, 0, count);
+            System.arraycopy(receivers, 0, newReceivers, 0, count);
+            System.arraycopy(receiverCounts, 0, newReceiverCounts, 0, count);
+            System.arraycopy(changes, 0, newChanges, 0, count);
+            System.arraycopy(pushes, 0, newPushes, 0, count);
+            names = newNames;
+            states = newStates;
+            receivers = newReceivers;
+            receiverCounts = newReceiverCounts;
+            changes = newChanges;
+            pushes = newPushes;
+        }
+
+        int band = count++;
+        names[band] = name;
+        ids.put(name, band);
+        return band;
+    }
+
+    /**
+     * Get the state of a band.
+     *
+     * @param band
+     * @return
+     */
+    public boolean get(int band) {
+        return states[band];
+    }
+
+    /**
+     * Set the state of a band, telling its receivers if it changed.
+     *
+     * @param band
+     * @param state
+     * @return true if the band changed
+     */
+    public boolean set(int band, boolean state) {
+        if (states[band] == state) {
+            return false;
+        }
+
+        states[band] = state;
+        changes[band]++;
+
+        if (listener == null) {
+            return true;
+        }
+
+        // Backwards, so that receivers can be dropped on the way. The
+        // listener may also move receivers to other bands
+        for (int i = receiverCounts[band] - 1; i >= 0; i--) {
+            if (i >= receiverCounts[band]) {
+                continue;
+            }
+
+            long pos = receivers[band][i];
+            pushes[band]++;
+            if (!listener.receiverChanged(pos, state)) {
+                unsubscribe(pos);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Subscribe a receiver to a band. A receiver is only subscribed to
+     * one band at a time.
+     *
+     * @param band
+     * @param pos packed position of the receiver
+     */
+    public void subscribe(int band, long pos) {
+        int index = subscriptions.indexOf(pos);
+        if (index != -1) {
+            if (subscriptions.valueAt(index) == band) {
+                return;
+            }
+            unsubscribe(pos);
+        }
+
+        long[] list = receivers[band];
+        int n = receiverCounts[band];
+        if (list == null) {
+            list = new long[4];
+            receivers[band] = list;
+        } else if (n == list.length) {
+            long[] newList = new long[n * 2];
+            System.arraycopy(list, 0, newList, 0, n);
+            list = newList;
+            receivers[band] = list;
+        }
+        list[n] = pos;
+        receiverCounts[band] = n + 1;
+        subscriptions.put(pos, band);
+    }
+
+    /**
+     * Unsubscribe a receiver.
+     *
+     * @param pos packed position of the receiver
+     */
+    public void unsubscribe(long pos) {
+        int band = subscriptions.get(pos, -1);
+        if (band == -1) {
+            return;
+        }
+        subscriptions.remove(pos);
+
+        long[] list = receivers[band];
+        int n = receiverCounts[band];
+        for (int i = 0; i < n; i++) {
+            if (list[i] == pos) {
+                list[i] = list[n - 1];
+                receiverCounts[band] = n - 1;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the number of bands.
+     *
+     * @return
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Get the number of subscribed receivers.
+     *
+     * @return
+     */
+    public int getReceiverCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Get the band that a receiver is subscribed to.
+     *
+     * @param pos packed position of the receiver
+     * @return band, or -1 if the receiver is not subscribed
+     */
+    public int getReceiverBand(long pos) {
+        return subscriptions.get(pos, -1);
+    }
+
+    /**
+     * Get the position of a subscribed receiver.
+     *
+     * @param index between 0 and {@link #getReceiverCount()}
+     * @return packed position
+     */
+    public long getReceiverAt(int index) {
+        return subscriptions.keyAt(index);
+    }
+
+    /**
+     * Get the name of the band of a subscribed receiver.
+     *
+     * @param index between 0 and {@link #getReceiverCount()}
+     * @return
+     */
+    public String getReceiverBandAt(int index) {
+        return names[subscriptions.valueAt(index)];
+    }
+
+    /**
+     * Get a report of the bands that told their receivers of the most
+     * changes.
+     *
+     * @param top number of bands to list
+     * @return
+     */
+    public List<String> report(int top) {
+        List<String> lines = new ArrayList<String>();
+        boolean[] taken = new boolean[count];
+
+        for (int j = 0; j < top && j < count; j++) {
+            int best = -1;
+            for (int i = 0; i < count; i++) {
+                if (!taken[i] && (best == -1 || pushes[i] > pushes[best]
+                        || pushes[i] == pushes[best] && changes[i] > changes[best])) {
+                    best = i;
+                }
+            }
+            taken[best] = true;
+
+            lines.add(names[best] + ": " + receiverCounts[best]
+                    + " receivers, " + changes[best] + " changes, "
+                    + pushes[best] + " pushed");
+        }
+
+        return lines;
+    }
+}
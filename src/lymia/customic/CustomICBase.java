@@ -24,13 +24,16 @@ import com.sk89q.craftbook.Vector;
 import lymia.plc.PlcBase;
 import lymia.plc.PlcException;
 import lymia.plc.PlcLang;
+import lymia.plc.PlcProgram;
 
 class CustomICBase extends PlcBase {
     private final String name, code;
+    private final PlcProgram program;
     CustomICBase(PlcLang language, String name, String code) {
         super(language);
         this.name = name;
         this.code = code;
+        this.program = new PlcProgram(code);
     }
 
     public String getTitle() {
@@ -40,6 +43,9 @@ class CustomICBase extends PlcBase {
     protected String getCode(Vector v) throws PlcException {
         return code;
     }
+    protected PlcProgram getProgram(Vector v) {
+        return program;
+    }
     protected String validateEnviromentEx(Vector v, SignText t) {
         return null;
     }
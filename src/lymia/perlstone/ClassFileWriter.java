@@ -0,0 +1,349 @@
+/*    
+Craftbook
+Copyright (C) 2010 Lymia <lymiahugs@gmail.com>
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package lymia.perlstone;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the few kinds of JVM class files that {@link PerlstoneJit}
+ * needs: one class with static and instance methods, no fields and no
+ * exception handlers. The class file version is 49, which is checked by
+ * type inference, so no stack map frames have to be written.
+ * 
+ * @author Lymia
+ */
+final class ClassFileWriter {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    static final int ICONST_M1 = 2;
+    static final int ICONST_0 = 3;
+    static final int BIPUSH = 16;
+    static final int SIPUSH = 17;
+    static final int LDC = 18;
+    static final int LDC_W = 19;
+    static final int ILOAD = 21;
+    static final int ALOAD = 25;
+    static final int ISTORE = 54;
+    static final int POP = 87;
+    static final int DUP = 89;
+    static final int IADD = 96;
+    static final int ISHL = 120;
+    static final int ISHR = 122;
+    static final int IUSHR = 124;
+    static final int IAND = 126;
+    static final int IOR = 128;
+    static final int IXOR = 130;
+    static final int IFEQ = 153;
+    static final int IFNE = 154;
+    static final int IF_ICMPNE = 160;
+    static final int IF_ICMPLT = 161;
+    static final int IF_ICMPGE = 162;
+    static final int IF_ICMPGT = 163;
+    static final int GOTO = 167;
+    static final int IRETURN = 172;
+    static final int RETURN = 177;
+    static final int GETSTATIC = 178;
+    static final int GETFIELD = 180;
+    static final int PUTFIELD = 181;
+    static final int INVOKESPECIAL = 183;
+    static final int INVOKESTATIC = 184;
+    static final int NEW = 187;
+    static final int ATHROW = 191;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    /**
+     * A position in the code of a method, which may be used by branches
+     * before it is known.
+     */
+    static final class Label {
+        private int position = -1;
+        private int[] branches = new int[2];
+        private int numBranches;
+    }
+
+    /**
+     * Code of one method. Branch offsets are 16 bits, so methods must be
+     * less than 32K long; see {@link #isTooLong()}.
+     */
+    final class MethodWriter {
+        private final int access;
+        private final int name;
+        private final int descriptor;
+        private byte[] code = new byte[256];
+        private int length;
+        private int maxStack;
+        private int maxLocals;
+
+        private MethodWriter(int access, String name, String descriptor) {
+            this.access = access;
+            this.name = utf8(name);
+            this.descriptor = utf8(descriptor);
+        }
+
+        private void u1(int b) {
+            if (length == code.length) code = Arrays.copyOf(code, length * 2);
+            code[length++] = (byte)b;
+        }
+
+        private void u2(int s) {
+            u1(s >> 8);
+            u1(s);
+        }
+
+        void op(int opcode) {
+            u1(opcode);
+        }
+
+        /**
+         * Push an int constant.
+         * 
+         * @param value
+         */
+        void push(int value) {
+            if (value >= -1 && value <= 5) {
+                u1(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                u1(BIPUSH);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                u1(SIPUSH);
+                u2(value);
+            } else {
+                ldc(integer(value));
+            }
+        }
+
+        /**
+         * Push a string constant.
+         * 
+         * @param value
+         */
+        void pushString(String value) {
+            ldc(string(value));
+        }
+
+        private void ldc(int index) {
+            if (index < 256) {
+                u1(LDC);
+                u1(index);
+            } else {
+                u1(LDC_W);
+                u2(index);
+            }
+        }
+
+        /**
+         * Load or store a local variable, with ILOAD, ALOAD or ISTORE.
+         * 
+         * @param opcode
+         * @param local
+         */
+        void local(int opcode, int local) {
+            if (local < 4) {
+                // iload_0 and friends come right after the long forms
+                u1((opcode == ILOAD ? 26 : opcode == ALOAD ? 42 : 59) + local);
+            } else {
+                u1(opcode);
+                u1(local);
+            }
+        }
+
+        void type(int opcode, String className) {
+            u1(opcode);
+            u2(classRef(className));
+        }
+
+        void field(int opcode, String owner, String name, String descriptor) {
+            u1(opcode);
+            u2(memberRef(CONSTANT_FIELDREF, owner, name, descriptor));
+        }
+
+        void method(int opcode, String owner, String name, String descriptor) {
+            u1(opcode);
+            u2(memberRef(CONSTANT_METHODREF, owner, name, descriptor));
+        }
+
+        void branch(int opcode, Label label) {
+            if (label.numBranches == label.branches.length)
+                label.branches = Arrays.copyOf(label.branches, label.numBranches * 2);
+            label.branches[label.numBranches++] = length;
+            u1(opcode);
+            u2(0);
+        }
+
+        void mark(Label label) {
+            label.position = length;
+        }
+
+        /**
+         * Returns true if the code is too long for its branches.
+         * 
+         * @return
+         */
+        boolean isTooLong() {
+            return length > Short.MAX_VALUE;
+        }
+
+        void setMaxs(int maxStack, int maxLocals) {
+            this.maxStack = maxStack;
+            this.maxLocals = maxLocals;
+        }
+
+        /**
+         * Fill in the branches to a label. Must be called for every label
+         * used, once the method is written.
+         * 
+         * @param label
+         */
+        void resolve(Label label) {
+            for (int i = 0; i < label.numBranches; i++) {
+                int at = label.branches[i];
+                int offset = label.position - at;
+                code[at + 1] = (byte)(offset >> 8);
+                code[at + 2] = (byte)offset;
+            }
+        }
+    }
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String,Integer> constants = new HashMap<String,Integer>();
+    private int numConstants = 1;
+    private final List<MethodWriter> methods = new ArrayList<MethodWriter>();
+    private final int thisClass;
+    private final int superClass;
+
+    /**
+     * Start a public final class.
+     * 
+     * @param name internal name
+     * @param superName internal name
+     */
+    ClassFileWriter(String name, String superName) {
+        thisClass = classRef(name);
+        superClass = classRef(superName);
+    }
+
+    MethodWriter addMethod(int access, String name, String descriptor) {
+        MethodWriter m = new MethodWriter(access, name, descriptor);
+        methods.add(m);
+        return m;
+    }
+
+    private int constant(String key, int tag, int a, int b, String s) {
+        Integer index = constants.get(key);
+        if (index != null) return index;
+        try {
+            poolOut.writeByte(tag);
+            if (s != null) {
+                poolOut.writeUTF(s);
+            } else if (tag == CONSTANT_INTEGER) {
+                poolOut.writeInt(a);
+            } else {
+                poolOut.writeShort(a);
+                if (b >= 0) poolOut.writeShort(b);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        constants.put(key, numConstants);
+        return numConstants++;
+    }
+
+    int utf8(String s) {
+        return constant("U" + s, CONSTANT_UTF8, 0, 0, s);
+    }
+
+    int integer(int value) {
+        return constant("I" + value, CONSTANT_INTEGER, value, 0, null);
+    }
+
+    int string(String s) {
+        return constant("S" + s, CONSTANT_STRING, utf8(s), -1, null);
+    }
+
+    int classRef(String name) {
+        return constant("C" + name, CONSTANT_CLASS, utf8(name), -1, null);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int nameAndType = constant("N" + name + " " + descriptor, CONSTANT_NAME_AND_TYPE,
+                utf8(name), utf8(descriptor), null);
+        return constant(tag + owner + "." + name + " " + descriptor, tag, classRef(owner), nameAndType, null);
+    }
+
+    /**
+     * Get the class file.
+     * 
+     * @return
+     */
+    byte[] toByteArray() {
+        int code = utf8("Code");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(numConstants);
+            pool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // Interfaces
+            out.writeShort(0); // Fields
+            out.writeShort(methods.size());
+            for (MethodWriter m : methods) {
+                out.writeShort(m.access);
+                out.writeShort(m.name);
+                out.writeShort(m.descriptor);
+                out.writeShort(1);
+                out.writeShort(code);
+                out.writeInt(12 + m.length);
+                out.writeShort(m.maxStack);
+                out.writeShort(m.maxLocals);
+                out.writeInt(m.length);
+                out.write(m.code, 0, m.length);
+                out.writeShort(0); // Exception handlers
+                out.writeShort(0); // Attributes
+            }
+            out.writeShort(0); // Attributes
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,298 @@
+/*    
+Craftbook
+Copyright (C) 2010 Lymia <lymiahugs@gmail.com>
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package lymia.perlstone;
+
+/**
+ * What can be proven about a {@link PerlstoneProgram} without running it.
+ * Only the functions that the outputs can reach are looked at.
+ * 
+ * <p>A program is stateless if it never loads or stores a persistent
+ * variable, since temporary variables start cleared every tick. Its
+ * outputs then only depend on its inputs.</p>
+ * 
+ * <p>An output is bounded if nothing it can run loops, by a closing
+ * brace or by calls that come back to a function. Its largest opcode
+ * count and stack size can then be worked out, along the longest path
+ * through each function. If every output is bounded below the opcode
+ * limit, the limit can never be reached and does not need checking.</p>
+ * 
+ * @author Lymia
+ */
+final class PerlstoneAnalysis {
+    /**
+     * Stand-in for any count of at least the opcode limit.
+     */
+    private static final int MANY = PerlstoneProgram.OPCODE_LIMIT;
+
+    private final int[][] functions;
+    private boolean stateless = true;
+    /**
+     * Most opcodes and stack entries of each function, or -1 if unbounded.
+     */
+    private final int[] opcodes;
+    private final int[] stack;
+    private final int numOutputs;
+
+    private static final int UNVISITED = 0;
+    private static final int VISITING = 1;
+    private static final int DONE = 2;
+    private final int[] state;
+
+    private PerlstoneAnalysis(int[][] functions) {
+        this.functions = functions;
+        opcodes = new int[functions.length];
+        stack = new int[functions.length];
+        state = new int[functions.length];
+        numOutputs = Math.min(3, functions.length);
+    }
+
+    /**
+     * Analyse a program.
+     * 
+     * @param functions bytecode of each function
+     * @return
+     */
+    static PerlstoneAnalysis analyse(int[][] functions) {
+        PerlstoneAnalysis analysis = new PerlstoneAnalysis(functions);
+        for (int i = 0; i < analysis.numOutputs; i++) {
+            analysis.visit(i);
+        }
+        return analysis;
+    }
+
+    /**
+     * Work out the bounds of a function and the functions that it calls.
+     * 
+     * @param f
+     */
+    private void visit(int f) {
+        if (state[f] == DONE) return;
+        if (state[f] == VISITING) {
+            // Recursion; everything on the way here is unbounded
+            opcodes[f] = -1;
+            return;
+        }
+        state[f] = VISITING;
+
+        int[] code = functions[f];
+        boolean[] reached = reach(code);
+        boolean bounded = opcodes[f] != -1;
+        for (int pc = 0; pc < code.length; pc++) {
+            if (!reached[pc]) continue;
+            int op = code[pc] & 0xFF;
+            int arg = code[pc] >>> 8;
+            switch (op) {
+                case PerlstoneProgram.LOAD_P:
+                case PerlstoneProgram.STORE_P:
+                    stateless = false;
+                    break;
+                case PerlstoneProgram.CALL:
+                case PerlstoneProgram.TAIL:
+                    visit(arg >> 4);
+                    if (opcodes[arg >> 4] < 0) bounded = false;
+                    break;
+                case PerlstoneProgram.JUMP_TRUE:
+                    if (arg <= pc) bounded = false;
+                    break;
+            }
+        }
+        // A call back to this function found while visiting it
+        if (opcodes[f] < 0) bounded = false;
+
+        state[f] = DONE;
+        if (!bounded) {
+            opcodes[f] = -1;
+            stack[f] = -1;
+            return;
+        }
+
+        // Longest path from each instruction to the end of the function,
+        // and the most the stack grows on the way. Jumps only go forward.
+        int[] cost = new int[code.length + 1];
+        int[] rise = new int[code.length + 1];
+        for (int pc = code.length - 1; pc >= 0; pc--) {
+            if (!reached[pc]) continue;
+            int op = code[pc] & 0xFF;
+            int arg = code[pc] >>> 8;
+            int c = 1;
+            int peak = 0;
+            int change = 0;
+            int next = pc + 1;
+            int target = -1;
+            switch (op) {
+                case PerlstoneProgram.PUSH_TRUE:
+                case PerlstoneProgram.PUSH_FALSE:
+                case PerlstoneProgram.INPUT:
+                case PerlstoneProgram.LOAD_P:
+                case PerlstoneProgram.LOAD_T:
+                case PerlstoneProgram.LOAD_L:
+                case PerlstoneProgram.DUP:
+                case PerlstoneProgram.PICK:
+                    peak = change = 1;
+                    break;
+                case PerlstoneProgram.STORE_P:
+                case PerlstoneProgram.STORE_T:
+                case PerlstoneProgram.STORE_L:
+                case PerlstoneProgram.POP:
+                case PerlstoneProgram.XOR:
+                case PerlstoneProgram.AND:
+                case PerlstoneProgram.OR:
+                case PerlstoneProgram.EQUALS:
+                case PerlstoneProgram.TABLE:
+                    change = -1;
+                    break;
+                case PerlstoneProgram.CALL:
+                    // The callee's frame starts under its arguments, and
+                    // may leave a value
+                    c += opcodes[arg >> 4];
+                    peak = stack[arg >> 4];
+                    change = 1 - (arg & 0xF);
+                    break;
+                case PerlstoneProgram.TAIL:
+                    c += opcodes[arg >> 4];
+                    peak = stack[arg >> 4];
+                    next = -1;
+                    break;
+                case PerlstoneProgram.JUMP_FALSE:
+                case PerlstoneProgram.JUMP_TRUE:
+                    change = -1;
+                    target = arg;
+                    break;
+                case PerlstoneProgram.CALL_MISSING:
+                case PerlstoneProgram.TAIL_MISSING:
+                case PerlstoneProgram.STOP:
+                case PerlstoneProgram.RETURN:
+                    next = -1;
+                    break;
+            }
+
+            int after = 0;
+            int afterRise = 0;
+            if (next >= 0) {
+                after = cost[next];
+                afterRise = rise[next];
+            }
+            if (target >= 0) {
+                after = Math.max(after, cost[target]);
+                afterRise = Math.max(afterRise, rise[target]);
+            }
+            cost[pc] = Math.min(MANY, c + after);
+            rise[pc] = Math.min(MANY, Math.max(peak, change + afterRise));
+        }
+        opcodes[f] = cost[0];
+        stack[f] = rise[0];
+    }
+
+    /**
+     * Find the instructions of a function that can be run. Code after
+     * a return is often left over from editing.
+     * 
+     * @param code
+     * @return
+     */
+    private static boolean[] reach(int[] code) {
+        boolean[] reached = new boolean[code.length + 1];
+        int[] work = new int[code.length + 1];
+        int numWork = 0;
+        reached[0] = true;
+        work[numWork++] = 0;
+        while (numWork > 0) {
+            int pc = work[--numWork];
+            if (pc == code.length) continue;
+            int op = code[pc] & 0xFF;
+            for (int i = 0; i < 2; i++) {
+                int to;
+                if (i == 0) {
+                    boolean ends = op == PerlstoneProgram.TAIL || op == PerlstoneProgram.CALL_MISSING
+                            || op == PerlstoneProgram.TAIL_MISSING || op == PerlstoneProgram.STOP
+                            || op == PerlstoneProgram.RETURN;
+                    to = ends ? -1 : pc + 1;
+                } else {
+                    boolean jumps = op == PerlstoneProgram.JUMP_FALSE || op == PerlstoneProgram.JUMP_TRUE;
+                    to = jumps ? code[pc] >>> 8 : -1;
+                }
+                if (to >= 0 && !reached[to]) {
+                    reached[to] = true;
+                    work[numWork++] = to;
+                }
+            }
+        }
+        return reached;
+    }
+
+    /**
+     * Returns true if no output reads or writes persistent variables.
+     * 
+     * @return
+     */
+    boolean isStateless() {
+        return stateless;
+    }
+
+    /**
+     * Get the most opcodes that an output can run.
+     * 
+     * @param output
+     * @return opcodes, at most the opcode limit, or -1 if unbounded
+     */
+    int getMaxOpcodes(int output) {
+        return opcodes[output];
+    }
+
+    /**
+     * Get the most stack entries that an output can use.
+     * 
+     * @param output
+     * @return entries, at most the opcode limit, or -1 if unbounded
+     */
+    int getMaxStack(int output) {
+        return stack[output];
+    }
+
+    /**
+     * Returns true if no output can reach the opcode limit.
+     * 
+     * @return
+     */
+    boolean isWithinLimit() {
+        for (int i = 0; i < numOutputs; i++) {
+            if (opcodes[i] < 0 || opcodes[i] >= PerlstoneProgram.OPCODE_LIMIT) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Describe the analysis.
+     * 
+     * @return
+     */
+    public String toString() {
+        StringBuilder out = new StringBuilder(stateless ? "stateless" : "stateful");
+        for (int i = 0; i < numOutputs; i++) {
+            out.append(", output ").append(i + 1).append(": ");
+            if (opcodes[i] < 0) {
+                out.append("unbounded");
+            } else {
+                out.append(opcodes[i] >= MANY ? "over " + (MANY - 1) : "at most " + opcodes[i])
+                        .append(" opcodes, ").append(stack[i]).append(" stack");
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,275 @@
+/*    
+Craftbook
+Copyright (C) 2010 Lymia <lymiahugs@gmail.com>
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package lymia.perlstone;
+
+import java.util.Stack;
+
+/**
+ * Compiles Perlstone source to {@link PerlstoneProgram} bytecode. Syntax
+ * errors are found in the same order and with the same messages as when
+ * the source was checked before every tick.
+ * 
+ * @author Lymia
+ */
+public final class PerlstoneCompiler {
+    private PerlstoneCompiler() {
+    }
+
+    /**
+     * Compile a program.
+     * 
+     * @param program source
+     * @return
+     * @throws PerlstoneException on a syntax error
+     */
+    public static PerlstoneProgram compile(String program) throws PerlstoneException {
+        char[][] staticFunctions = getStaticFunctions(program);
+        for (char[] f : staticFunctions)
+            checkFunctionSyntax(f);
+
+        int[][] functions = new int[staticFunctions.length][];
+        for (int i = 0; i < staticFunctions.length; i++)
+            functions[i] = translate(staticFunctions[i], staticFunctions.length);
+        return new PerlstoneProgram(functions);
+    }
+
+    /**
+     * Translate a function that passed the syntax check.
+     * 
+     * @param function
+     * @param numFunctions
+     * @return
+     * @throws PerlstoneException
+     */
+    private static int[] translate(char[] function, int numFunctions) throws PerlstoneException {
+        int[] jumpTable = buildJumpTable(function);
+
+        // Instruction index of each opcode character
+        int[] position = new int[function.length + 1];
+        int count = 0;
+        for (int i = 0; i < function.length; i += length(function[i])) {
+            position[i] = count++;
+        }
+
+        int[] code = new int[count];
+        int n = 0;
+        for (int i = 0; i < function.length; i += length(function[i])) {
+            int op;
+            int arg = 0;
+            switch (function[i]) {
+                case '+': op = PerlstoneProgram.PUSH_TRUE; break;
+                case '-': op = PerlstoneProgram.PUSH_FALSE; break;
+                case 'A': op = PerlstoneProgram.INPUT; arg = 0; break;
+                case 'B': op = PerlstoneProgram.INPUT; arg = 1; break;
+                case 'C': op = PerlstoneProgram.INPUT; arg = 2; break;
+                case 'd': op = PerlstoneProgram.DUP; break;
+                case 'p': op = PerlstoneProgram.POP; break;
+                case '!': op = PerlstoneProgram.NOT; break;
+                case '^': op = PerlstoneProgram.XOR; break;
+                case '&': op = PerlstoneProgram.AND; break;
+                case '|': op = PerlstoneProgram.OR; break;
+                case '=': op = PerlstoneProgram.EQUALS; break;
+                case 's': op = PerlstoneProgram.STOP; break;
+                case 'r': op = PerlstoneProgram.RETURN; break;
+
+                case 'v':
+                    op = PerlstoneProgram.PICK;
+                    arg = Character.digit(function[i + 1], 10);
+                    break;
+
+                case 'S':
+                case 'L':
+                    char table = function[i + 1];
+                    char c = function[i + 2];
+                    arg = Character.isDigit(c) ? Character.digit(c, 10) : c - 'a' + 10;
+                    if (function[i] == 'S')
+                        op = table == 'p' ? PerlstoneProgram.STORE_P
+                                : table == 't' ? PerlstoneProgram.STORE_T : PerlstoneProgram.STORE_L;
+                    else
+                        op = table == 'p' ? PerlstoneProgram.LOAD_P
+                                : table == 't' ? PerlstoneProgram.LOAD_T : PerlstoneProgram.LOAD_L;
+                    break;
+
+                case '.':
+                    op = PerlstoneProgram.TABLE;
+                    for (int j = 0; j < 4; j++)
+                        if (function[i + 1 + j] == '1') arg |= 1 << j;
+                    break;
+
+                case 'c':
+                case 't':
+                    int functionId = Character.digit(function[i + 1], 10) * 10
+                            + Character.digit(function[i + 2], 10);
+                    int numargs = Character.digit(function[i + 3], 10);
+                    boolean tail = function[i] == 't';
+                    if (functionId < numFunctions) {
+                        op = tail ? PerlstoneProgram.TAIL : PerlstoneProgram.CALL;
+                        arg = functionId << 4 | numargs;
+                    } else {
+                        // Only fails if it is reached
+                        op = tail ? PerlstoneProgram.TAIL_MISSING : PerlstoneProgram.CALL_MISSING;
+                        arg = numargs;
+                    }
+                    break;
+
+                // Both continue after the other brace
+                case '[':
+                    op = PerlstoneProgram.JUMP_FALSE;
+                    arg = position[jumpTable[i]] + 1;
+                    break;
+                case ']':
+                    op = PerlstoneProgram.JUMP_TRUE;
+                    arg = position[jumpTable[i]] + 1;
+                    break;
+
+                default:
+                    throw new PerlstoneException("unknown opcode");
+            }
+            code[n++] = op | arg << 8;
+        }
+        return code;
+    }
+
+    /**
+     * Get the number of characters taken by an opcode and its arguments.
+     * 
+     * @param opcode
+     * @return
+     */
+    private static int length(char opcode) {
+        switch (opcode) {
+            case 'v': return 2;
+            case 'S':
+            case 'L': return 3;
+            case 'c':
+            case 't': return 4;
+            case '.': return 5;
+            default: return 1;
+        }
+    }
+
+    private static final void checkFunctionSyntax(char[] function) throws PerlstoneException {
+        int[] jumpTable = buildJumpTable(function);
+
+        try {
+            loop: for (int i = 0; i < function.length; i++)
+                switch (function[i]) {
+                    // No argument opcodes
+                    case '+':
+                    case '-':
+                    case 'A':
+                    case 'B':
+                    case 'C':
+                    case 'd':
+                    case 'p':
+                    case '!':
+                    case '^':
+                    case '&':
+                    case '|':
+                    case '=':
+                    case 's':
+                    case 'r':
+                        continue loop;
+
+                        // One digit argument commands.
+                    case 'v':
+                        if (Character.isDigit(function[++i])) continue loop;
+                        throw new PerlstoneException("bad arguments");
+
+                        // Three digit argument commands.
+                    case 'c':
+                    case 't':
+                        if (Character.isDigit(function[++i])&&
+                            Character.isDigit(function[++i])&&
+                            Character.isDigit(function[++i])) continue loop;
+                        throw new PerlstoneException("bad arguments");
+
+                        // table store/load commands. Takes an index and table.
+                    case 'S':
+                    case 'L':
+                        char c;
+                        if ((c = function[++i]) != 'p' && c != 't' && c != 'l') throw new PerlstoneException("bad arguments");
+                        if (((c = function[++i]) >= '0' && c <= '9') || (c >= 'a' && c <= 'v')) continue loop;
+                        throw new PerlstoneException("bad arguments");
+
+                        // Custom logic gate command
+                    case '.':
+                        if ((c = function[++i]) != '0' && c != '1') throw new PerlstoneException("bad arguments");
+                        if ((c = function[++i]) != '0' && c != '1') throw new PerlstoneException("bad arguments");
+                        if ((c = function[++i]) != '0' && c != '1') throw new PerlstoneException("bad arguments");
+                        if ((c = function[++i]) != '0' && c != '1') throw new PerlstoneException("bad arguments");
+                        continue loop;
+
+                        // Loops
+                    case '[':
+                        checkFunctionSyntax(sub(function, i + 1, i = jumpTable[i]));
+                        continue loop;
+
+                    default:
+                        throw new PerlstoneException("unknown opcode");
+                }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new PerlstoneException("premature end",e);
+        } catch (NegativeArraySizeException e) {
+            throw new PerlstoneException("mismatched brace",e);
+        }
+    }
+
+    private static char[][] getStaticFunctions(String program) throws PerlstoneException {
+        char[][] staticFunctions; // Java needs a map command...
+        /* scope */{
+            String[] staticFunctionStrings = program.replace(" ","").replace("\t","").replace("\n", "").split(":");
+            if (staticFunctionStrings.length > 100) throw new PerlstoneException("excess functions");
+            staticFunctions = new char[staticFunctionStrings.length][];
+            for (int i = 0; i < staticFunctionStrings.length; i++)
+                staticFunctions[i] = staticFunctionStrings[i].toCharArray();
+        }
+        return staticFunctions;
+    }
+
+    private static int[] buildJumpTable(char[] function) throws PerlstoneException {
+        int length = function.length;
+        int[] jumpTable = new int[length];
+        Stack<Integer> stack = new Stack<Integer>();
+        for (int i = 0; i < length; i++) {
+            jumpTable[i] = -1;
+            switch (function[i]) {
+                case '[':
+                    stack.push(i);
+                    break;
+                case ']':
+                    if (stack.isEmpty()) throw new PerlstoneException("unmatched brace");
+                    int location = stack.pop();
+                    jumpTable[location] = i;
+                    jumpTable[i] = location;
+                default:
+                    continue;
+            }
+        }
+        if (stack.size() != 0) throw new PerlstoneException("unmatched brace");
+        return jumpTable;
+    }
+
+    private static char[] sub(char[] t, int s, int e) {
+        char[] c = new char[e - s];
+        for (int i = 0; i < c.length; i++)
+            c[i] = t[s + i];
+        return c;
+    }
+}
@@ -0,0 +1,315 @@
+/*    
+Craftbook
+Copyright (C) 2010 Lymia <lymiahugs@gmail.com>
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package lymia.perlstone;
+
+import java.util.Arrays;
+
+/**
+ * Runs {@link PerlstoneProgram} bytecode without allocating. There is one
+ * interpreter per thread. All calls share its value stack, and calls are
+ * kept in its own frame arrays instead of on the Java stack, so both only
+ * grow the first time a program goes deeper than before. Variable tables
+ * are kept as bits of an int, with entry n in bit 31-n.
+ * 
+ * @author Lymia
+ */
+final class PerlstoneInterpreter {
+    /**
+     * Returned by a function that gives no value.
+     */
+    static final int NO_VALUE = -1;
+
+    private static final ThreadLocal<PerlstoneInterpreter> interpreters = new ThreadLocal<PerlstoneInterpreter>() {
+        protected PerlstoneInterpreter initialValue() {
+            return new PerlstoneInterpreter();
+        }
+    };
+
+    private boolean[] stack = new boolean[64];
+    // Callers of the running function, by call depth
+    private int[] callerFunction = new int[16];
+    private int[] callerPc = new int[16];
+    private int[] callerBase = new int[16];
+    private int[] callerLocals = new int[16];
+
+    private int persistent;
+    private int temporary;
+    private final PerlstoneJit.Context context = new PerlstoneJit.Context();
+
+    /**
+     * Get the interpreter of the current thread.
+     * 
+     * @return
+     */
+    static PerlstoneInterpreter get() {
+        return interpreters.get();
+    }
+
+    /**
+     * Start a tick.
+     * 
+     * @param persistent persistent variables
+     */
+    void reset(int persistent) {
+        this.persistent = persistent;
+        this.temporary = 0;
+    }
+
+    /**
+     * Get the persistent variables.
+     * 
+     * @return
+     */
+    int getPersistent() {
+        return persistent;
+    }
+
+    /**
+     * Run a function of a program with its compiled code. If the code
+     * gives up, the function is interpreted from the start.
+     * 
+     * @param program
+     * @param code
+     * @param functionId
+     * @param inputs input n in bit n
+     * @param numInputs
+     * @return 1 for true, 0 for false, or {@link #NO_VALUE}
+     * @throws PerlstoneException
+     */
+    int run(PerlstoneProgram program, PerlstoneJit.Code code, int functionId, int inputs, int numInputs)
+            throws PerlstoneException {
+        PerlstoneJit.Context context = this.context;
+        context.count = 0;
+        context.pvt = persistent;
+        context.tvt = temporary;
+        context.inputs = inputs;
+        context.numInputs = numInputs;
+        try {
+            int value = code.run(functionId, context);
+            persistent = context.pvt;
+            temporary = context.tvt;
+            return value;
+        } catch (PerlstoneJit.Deopt e) {
+            return run(program, functionId, inputs, numInputs);
+        }
+    }
+
+    /**
+     * Run a function with no arguments. Each run may use up to
+     * {@link PerlstoneProgram#OPCODE_LIMIT} opcodes.
+     * 
+     * @param program
+     * @param functionId
+     * @param inputs input n in bit n
+     * @param numInputs
+     * @return 1 for true, 0 for false, or {@link #NO_VALUE}
+     * @throws PerlstoneException
+     */
+    int run(PerlstoneProgram program, int functionId, int inputs, int numInputs) throws PerlstoneException {
+        boolean[] stack = this.stack;
+        int[] code = program.getFunction(functionId);
+        int pc = 0;
+        int base = 0;
+        int sp = 0;
+        int depth = 0;
+        int numOpcodes = 0;
+        int pvt = persistent;
+        int tvt = temporary;
+        int lvt = 0;
+
+        try {
+            while (true) {
+                int op;
+                int arg;
+                if (pc < code.length) {
+                    if (++numOpcodes == PerlstoneProgram.OPCODE_LIMIT) throw new PerlstoneException("opcode limit");
+                    // Every opcode pushes at most one more value than it pops
+                    if (sp == stack.length) stack = this.stack = Arrays.copyOf(stack, sp * 2);
+                    int insn = code[pc++];
+                    op = insn & 0xFF;
+                    arg = insn >>> 8;
+                } else {
+                    op = PerlstoneProgram.STOP;
+                    arg = 0;
+                }
+
+                int value;
+                switch (op) {
+                    case PerlstoneProgram.PUSH_TRUE:
+                        stack[sp++] = true;
+                        continue;
+                    case PerlstoneProgram.PUSH_FALSE:
+                        stack[sp++] = false;
+                        continue;
+                    case PerlstoneProgram.INPUT:
+                        if (arg >= numInputs) throw new PerlstoneException("premature end");
+                        stack[sp++] = (inputs >> arg & 1) != 0;
+                        continue;
+
+                    case PerlstoneProgram.STORE_P:
+                        if (sp == base) throw emptyStack();
+                        pvt = stack[--sp] ? pvt | 0x80000000 >>> arg : pvt & ~(0x80000000 >>> arg);
+                        continue;
+                    case PerlstoneProgram.STORE_T:
+                        if (sp == base) throw emptyStack();
+                        tvt = stack[--sp] ? tvt | 0x80000000 >>> arg : tvt & ~(0x80000000 >>> arg);
+                        continue;
+                    case PerlstoneProgram.STORE_L:
+                        if (sp == base) throw emptyStack();
+                        lvt = stack[--sp] ? lvt | 0x80000000 >>> arg : lvt & ~(0x80000000 >>> arg);
+                        continue;
+                    case PerlstoneProgram.LOAD_P:
+                        stack[sp++] = (pvt << arg) < 0;
+                        continue;
+                    case PerlstoneProgram.LOAD_T:
+                        stack[sp++] = (tvt << arg) < 0;
+                        continue;
+                    case PerlstoneProgram.LOAD_L:
+                        stack[sp++] = (lvt << arg) < 0;
+                        continue;
+
+                    case PerlstoneProgram.DUP:
+                        if (sp == base) throw emptyStack();
+                        stack[sp] = stack[sp - 1];
+                        sp++;
+                        continue;
+                    case PerlstoneProgram.POP:
+                        if (sp == base) throw emptyStack();
+                        sp--;
+                        continue;
+                    case PerlstoneProgram.PICK:
+                        if (sp - base < arg + 1) throw new PerlstoneException("stack too small");
+                        stack[sp] = stack[sp - 1 - arg];
+                        sp++;
+                        continue;
+
+                    case PerlstoneProgram.NOT:
+                        if (sp == base) throw emptyStack();
+                        stack[sp - 1] = !stack[sp - 1];
+                        continue;
+                    case PerlstoneProgram.XOR:
+                        if (sp - base < 2) throw emptyStack();
+                        sp--;
+                        stack[sp - 1] ^= stack[sp];
+                        continue;
+                    case PerlstoneProgram.AND:
+                        if (sp - base < 2) throw emptyStack();
+                        sp--;
+                        stack[sp - 1] &= stack[sp];
+                        continue;
+                    case PerlstoneProgram.OR:
+                        if (sp - base < 2) throw emptyStack();
+                        sp--;
+                        stack[sp - 1] |= stack[sp];
+                        continue;
+                    case PerlstoneProgram.EQUALS:
+                        if (sp - base < 2) throw emptyStack();
+                        sp--;
+                        stack[sp - 1] = stack[sp - 1] == stack[sp];
+                        continue;
+                    case PerlstoneProgram.TABLE:
+                        if (sp - base < 2) throw emptyStack();
+                        int index = (stack[sp - 1] ? 1 : 0) | (stack[sp - 2] ? 2 : 0);
+                        sp--;
+                        stack[sp - 1] = (arg >> index & 1) != 0;
+                        continue;
+
+                    case PerlstoneProgram.CALL:
+                        int numargs = arg & 0xF;
+                        if (sp - base < numargs) throw emptyStack();
+                        if (depth == callerFunction.length) growFrames();
+                        callerFunction[depth] = functionId;
+                        callerPc[depth] = pc;
+                        callerBase[depth] = base;
+                        callerLocals[depth] = lvt;
+                        depth++;
+                        // The arguments are the bottom of the new frame
+                        functionId = arg >> 4;
+                        code = program.getFunction(functionId);
+                        pc = 0;
+                        base = sp - numargs;
+                        lvt = 0;
+                        continue;
+                    case PerlstoneProgram.CALL_MISSING:
+                        if (sp - base < arg) throw emptyStack();
+                        throw new PerlstoneException("premature end");
+                    case PerlstoneProgram.TAIL:
+                        numargs = arg & 0xF;
+                        if (sp - base < numargs) throw emptyStack();
+                        System.arraycopy(stack, sp - numargs, stack, base, numargs);
+                        sp = base + numargs;
+                        functionId = arg >> 4;
+                        code = program.getFunction(functionId);
+                        pc = 0;
+                        lvt = 0;
+                        continue;
+                    case PerlstoneProgram.TAIL_MISSING:
+                        throw new PerlstoneException("premature end");
+
+                    case PerlstoneProgram.JUMP_FALSE:
+                        if (sp == base) throw emptyStack();
+                        if (!stack[--sp]) pc = arg;
+                        continue;
+                    case PerlstoneProgram.JUMP_TRUE:
+                        if (sp == base) throw emptyStack();
+                        if (stack[--sp]) pc = arg;
+                        continue;
+
+                    case PerlstoneProgram.STOP:
+                        value = NO_VALUE;
+                        break;
+                    case PerlstoneProgram.RETURN:
+                        if (sp == base) throw emptyStack();
+                        value = stack[--sp] ? 1 : 0;
+                        break;
+
+                    default:
+                        throw new PerlstoneException("unknown opcode");
+                }
+
+                if (depth == 0) return value;
+
+                // Back to the caller, with the arguments taken off
+                sp = base;
+                depth--;
+                functionId = callerFunction[depth];
+                code = program.getFunction(functionId);
+                pc = callerPc[depth];
+                base = callerBase[depth];
+                lvt = callerLocals[depth];
+                if (value != NO_VALUE) stack[sp++] = value == 1;
+            }
+        } finally {
+            persistent = pvt;
+            temporary = tvt;
+        }
+    }
+
+    private void growFrames() {
+        int size = callerFunction.length * 2;
+        callerFunction = Arrays.copyOf(callerFunction, size);
+        callerPc = Arrays.copyOf(callerPc, size);
+        callerBase = Arrays.copyOf(callerBase, size);
+        callerLocals = Arrays.copyOf(callerLocals, size);
+    }
+
+    private static PerlstoneException emptyStack() {
+        return new PerlstoneException("read empty stack");
+    }
+}
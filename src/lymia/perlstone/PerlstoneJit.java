@@ -0,0 +1,776 @@
+/*    
+Craftbook
+Copyright (C) 2010 Lymia <lymiahugs@gmail.com>
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package lymia.perlstone;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import lymia.perlstone.ClassFileWriter.Label;
+import lymia.perlstone.ClassFileWriter.MethodWriter;
+
+/**
+ * Translates {@link PerlstoneProgram} bytecode into a JVM class, for
+ * programs that are run often.
+ * 
+ * <p>A function is compiled once for each number of arguments that it is
+ * called with. The depth of the value stack at each instruction must
+ * then be the same on every path, so each stack entry becomes a local
+ * variable and stack errors are found while compiling. Braces become
+ * branches, calls become static method calls, and tail calls jump to the
+ * function they call, which is compiled into the same method. Programs
+ * whose stack depth cannot be worked out, or that call a function that
+ * may or may not give a value, stay with the interpreter.</p>
+ * 
+ * <p>The opcode limit is checked once for each straight run of opcodes.
+ * If the limit would be reached within it, or if calls nest too deeply,
+ * the compiled code gives up with {@link Deopt} and the function is run
+ * again by the interpreter, which fails at exactly the same opcode as
+ * before. Neither is checked if {@link PerlstoneAnalysis} shows that the
+ * limit cannot be reached, since calls then cannot recurse either.</p>
+ * 
+ * @author Lymia
+ */
+final class PerlstoneJit {
+    private static final Logger logger = Logger.getLogger("Minecraft");
+
+    /**
+     * Most stack entries that one call may use.
+     */
+    private static final int MAX_STACK = 64;
+    /**
+     * Most nested calls before giving up to the interpreter.
+     */
+    private static final int MAX_CALL_DEPTH = 200;
+
+    private static final String CONTEXT = "lymia/perlstone/PerlstoneJit$Context";
+    private static final String CODE = "lymia/perlstone/PerlstoneJit$Code";
+    private static final String DEOPT = "lymia/perlstone/PerlstoneJit$Deopt";
+    private static final String EXCEPTION = "lymia/perlstone/PerlstoneException";
+
+    private static final int GIVES_VALUE = 1;
+    private static final int GIVES_NOTHING = 2;
+
+    private static volatile int threshold;
+    private static int numClasses;
+
+    /**
+     * State shared by the compiled functions of one run. Each thread
+     * needs its own.
+     */
+    public static final class Context {
+        public int count;
+        public int pvt;
+        public int tvt;
+        public int inputs;
+        public int numInputs;
+    }
+
+    /**
+     * Compiled program. Subclasses are generated.
+     */
+    public static abstract class Code {
+        protected Code() {
+        }
+
+        /**
+         * Run an output function.
+         * 
+         * @param function
+         * @param context
+         * @return 1 for true, 0 for false or -1 for no value
+         * @throws PerlstoneException
+         * @throws Deopt if the interpreter has to run the function instead
+         */
+        public abstract int run(int function, Context context) throws PerlstoneException;
+    }
+
+    /**
+     * Thrown by compiled code that cannot go on.
+     */
+    public static final class Deopt extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public static final Deopt INSTANCE = new Deopt();
+
+        private Deopt() {
+        }
+
+        public Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    /**
+     * A function compiled for a number of arguments.
+     */
+    private static final class Variant {
+        final int function;
+        final int numArgs;
+        /**
+         * Stack depth before each instruction, or -1 if never reached.
+         * The last entry is for the end of the function.
+         */
+        int[] depth;
+        int gives;
+        int maxDepth;
+        final List<Variant> tailCalls = new ArrayList<Variant>();
+        Label start;
+
+        Variant(int function, int numArgs) {
+            this.function = function;
+            this.numArgs = numArgs;
+        }
+
+        String methodName() {
+            return "f" + function + "_" + numArgs;
+        }
+
+        String descriptor() {
+            StringBuilder desc = new StringBuilder("(L" + CONTEXT + ";I");
+            for (int i = 0; i < numArgs; i++) desc.append('I');
+            return desc.append(")I").toString();
+        }
+    }
+
+    private static final class Loader extends ClassLoader {
+        Loader() {
+            super(PerlstoneJit.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] b) {
+            return defineClass(name, b, 0, b.length);
+        }
+    }
+
+    private PerlstoneJit() {
+    }
+
+    /**
+     * Set the number of runs after which a program is compiled.
+     * 
+     * @param runs runs, or 0 to never compile
+     */
+    static void setThreshold(int runs) {
+        threshold = Math.max(0, runs);
+    }
+
+    /**
+     * Get the number of runs after which a program is compiled.
+     * 
+     * @return runs, or 0 to never compile
+     */
+    static int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Compile a program.
+     * 
+     * @param program
+     * @return compiled code, or null if the program has to be interpreted
+     */
+    static Code compile(PerlstoneProgram program) {
+        Map<Integer,Variant> variants = analyse(program);
+        if (variants == null) return null;
+
+        String name;
+        synchronized (PerlstoneJit.class) {
+            name = "lymia/perlstone/jit/Program" + numClasses++;
+        }
+
+        ClassFileWriter cw = new ClassFileWriter(name, CODE);
+        MethodWriter init = cw.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", "()V");
+        init.local(ClassFileWriter.ALOAD, 0);
+        init.method(ClassFileWriter.INVOKESPECIAL, CODE, "<init>", "()V");
+        init.op(ClassFileWriter.RETURN);
+        init.setMaxs(1, 1);
+
+        MethodWriter run = cw.addMethod(ClassFileWriter.ACC_PUBLIC, "run", "(IL" + CONTEXT + ";)I");
+        for (int i = 0; i < 3 && i < program.getFunctionCount(); i++) {
+            Variant v = variants.get(key(i, 0));
+            Label next = new Label();
+            run.local(ClassFileWriter.ILOAD, 1);
+            run.push(i);
+            run.branch(ClassFileWriter.IF_ICMPNE, next);
+            run.local(ClassFileWriter.ALOAD, 2);
+            run.push(0);
+            run.method(ClassFileWriter.INVOKESTATIC, name, v.methodName(), v.descriptor());
+            run.op(ClassFileWriter.IRETURN);
+            run.mark(next);
+            run.resolve(next);
+        }
+        run.push(-1);
+        run.op(ClassFileWriter.IRETURN);
+        run.setMaxs(3, 3);
+
+        for (Variant v : variants.values()) {
+            if (v.depth == null) continue;
+            MethodWriter m = cw.addMethod(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC,
+                    v.methodName(), v.descriptor());
+            writeMethod(m, name, program, variants, v);
+            if (m.isTooLong()) return null;
+        }
+
+        Throwable error;
+        try {
+            byte[] b = cw.toByteArray();
+            Class<?> cls = new Loader().define(name.replace('/', '.'), b);
+            return (Code)cls.getDeclaredConstructor().newInstance();
+        } catch (LinkageError e) {
+            // The class file was rejected by the verifier
+            error = e;
+        } catch (NoSuchMethodException e) {
+            error = e;
+        } catch (InstantiationException e) {
+            error = e;
+        } catch (IllegalAccessException e) {
+            error = e;
+        } catch (InvocationTargetException e) {
+            error = e.getCause();
+        }
+        logger.log(Level.WARNING, "Perlstone: Could not compile program", error);
+        return null;
+    }
+
+    private static int key(int function, int numArgs) {
+        return function << 4 | numArgs;
+    }
+
+    /**
+     * Work out the stack depths of every variant of a function that can
+     * be reached from the outputs. The values given by functions are
+     * found by going over all variants until nothing changes.
+     * 
+     * @param program
+     * @return variants by key, or null if the program cannot be compiled
+     */
+    private static Map<Integer,Variant> analyse(PerlstoneProgram program) {
+        Map<Integer,Variant> variants = new HashMap<Integer,Variant>();
+        List<Variant> order = new ArrayList<Variant>();
+        for (int i = 0; i < 3 && i < program.getFunctionCount(); i++) {
+            Variant v = new Variant(i, 0);
+            variants.put(key(i, 0), v);
+            order.add(v);
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < order.size(); i++) {
+                Variant v = order.get(i);
+                int gives = v.gives;
+                int known = order.size();
+                if (!analyse(program, v, variants, order)) return null;
+                if (v.gives != gives || order.size() != known) changed = true;
+            }
+        }
+        return variants;
+    }
+
+    private static boolean analyse(PerlstoneProgram program, Variant v,
+            Map<Integer,Variant> variants, List<Variant> order) {
+        int[] code = program.getFunction(v.function);
+        int[] depth = new int[code.length + 1];
+        Arrays.fill(depth, -1);
+        int[] work = new int[code.length + 1];
+        int numWork = 0;
+        v.tailCalls.clear();
+        v.maxDepth = v.numArgs;
+
+        depth[0] = v.numArgs;
+        work[numWork++] = 0;
+        while (numWork > 0) {
+            int pc = work[--numWork];
+            int d = depth[pc];
+            if (pc == code.length) {
+                v.gives |= GIVES_NOTHING;
+                continue;
+            }
+
+            int op = code[pc] & 0xFF;
+            int arg = code[pc] >>> 8;
+            int next = -1;
+            int target = -1;
+            switch (op) {
+                case PerlstoneProgram.PUSH_TRUE:
+                case PerlstoneProgram.PUSH_FALSE:
+                case PerlstoneProgram.INPUT:
+                case PerlstoneProgram.LOAD_P:
+                case PerlstoneProgram.LOAD_T:
+                case PerlstoneProgram.LOAD_L:
+                    next = d + 1;
+                    break;
+                case PerlstoneProgram.STORE_P:
+                case PerlstoneProgram.STORE_T:
+                case PerlstoneProgram.STORE_L:
+                case PerlstoneProgram.POP:
+                    if (d >= 1) next = d - 1;
+                    break;
+                case PerlstoneProgram.DUP:
+                    if (d >= 1) next = d + 1;
+                    break;
+                case PerlstoneProgram.PICK:
+                    if (d >= arg + 1) next = d + 1;
+                    break;
+                case PerlstoneProgram.NOT:
+                    if (d >= 1) next = d;
+                    break;
+                case PerlstoneProgram.XOR:
+                case PerlstoneProgram.AND:
+                case PerlstoneProgram.OR:
+                case PerlstoneProgram.EQUALS:
+                case PerlstoneProgram.TABLE:
+                    if (d >= 2) next = d - 1;
+                    break;
+                case PerlstoneProgram.CALL:
+                case PerlstoneProgram.TAIL:
+                    int numArgs = arg & 0xF;
+                    if (d < numArgs) break;
+                    Variant callee = variants.get(key(arg >> 4, numArgs));
+                    if (callee == null) {
+                        callee = new Variant(arg >> 4, numArgs);
+                        variants.put(key(arg >> 4, numArgs), callee);
+                        order.add(callee);
+                    }
+                    if (op == PerlstoneProgram.TAIL) {
+                        v.tailCalls.add(callee);
+                        v.gives |= callee.gives;
+                    } else if (callee.gives == GIVES_VALUE) {
+                        next = d - numArgs + 1;
+                    } else if (callee.gives == GIVES_NOTHING) {
+                        next = d - numArgs;
+                    } else if (callee.gives != 0) {
+                        // The depth after the call would not be known
+                        return false;
+                    }
+                    break;
+                case PerlstoneProgram.JUMP_FALSE:
+                case PerlstoneProgram.JUMP_TRUE:
+                    if (d >= 1) {
+                        next = d - 1;
+                        target = arg;
+                    }
+                    break;
+                case PerlstoneProgram.STOP:
+                    v.gives |= GIVES_NOTHING;
+                    break;
+                case PerlstoneProgram.RETURN:
+                    if (d >= 1) v.gives |= GIVES_VALUE;
+                    break;
+            }
+
+            if (next > MAX_STACK) return false;
+            if (next > v.maxDepth) v.maxDepth = next;
+            for (int i = 0; i < 2; i++) {
+                int to = i == 0 ? (next < 0 ? -1 : pc + 1) : target;
+                if (to < 0) continue;
+                if (depth[to] == -1) {
+                    depth[to] = next;
+                    work[numWork++] = to;
+                } else if (depth[to] != next) {
+                    return false;
+                }
+            }
+        }
+
+        v.depth = depth;
+        return true;
+    }
+
+    /**
+     * Write the method of a variant, with the variants that it tail
+     * calls.
+     */
+    private static void writeMethod(MethodWriter m, String owner, PerlstoneProgram program,
+            Map<Integer,Variant> variants, Variant entry) {
+        List<Variant> group = new ArrayList<Variant>();
+        group.add(entry);
+        for (int i = 0; i < group.size(); i++) {
+            for (Variant callee : group.get(i).tailCalls) {
+                if (!group.contains(callee)) group.add(callee);
+            }
+        }
+
+        int maxDepth = 0;
+        for (Variant v : group) {
+            maxDepth = Math.max(maxDepth, v.maxDepth);
+            v.start = new Label();
+        }
+
+        // Locals: context, call depth, stack, then the state
+        Locals l = new Locals(maxDepth);
+        Label deopt = new Label();
+
+        boolean checked = !program.getAnalysis().isWithinLimit();
+        if (checked) {
+            m.local(ClassFileWriter.ILOAD, 1);
+            m.push(MAX_CALL_DEPTH);
+            m.branch(ClassFileWriter.IF_ICMPGT, deopt);
+        }
+        load(m, l.count, "count");
+        load(m, l.pvt, "pvt");
+        load(m, l.tvt, "tvt");
+        load(m, l.inputs, "inputs");
+        load(m, l.numInputs, "numInputs");
+        m.push(0);
+        m.local(ClassFileWriter.ISTORE, l.lvt);
+
+        List<Label> labels = new ArrayList<Label>();
+        for (Variant v : group) {
+            Label[] at = new Label[v.depth.length];
+            for (int pc = 0; pc < at.length; pc++) {
+                if (v.depth[pc] >= 0) labels.add(at[pc] = new Label());
+            }
+            at[0] = v.start;
+            writeVariant(m, owner, program, variants, v, at, l, deopt, checked);
+        }
+
+        m.mark(deopt);
+        m.field(ClassFileWriter.GETSTATIC, DEOPT, "INSTANCE", "L" + DEOPT + ";");
+        m.op(ClassFileWriter.ATHROW);
+
+        m.resolve(deopt);
+        for (Variant v : group) m.resolve(v.start);
+        for (Label label : labels) m.resolve(label);
+        m.setMaxs(16, l.numLocals);
+    }
+
+    /**
+     * Local variable numbers of a method.
+     */
+    private static final class Locals {
+        final int count;
+        final int pvt;
+        final int tvt;
+        final int lvt;
+        final int inputs;
+        final int numInputs;
+        final int numLocals;
+
+        Locals(int maxDepth) {
+            count = 2 + maxDepth;
+            pvt = count + 1;
+            tvt = count + 2;
+            lvt = count + 3;
+            inputs = count + 4;
+            numInputs = count + 5;
+            numLocals = count + 6;
+        }
+
+        int stack(int n) {
+            return 2 + n;
+        }
+    }
+
+    private static void load(MethodWriter m, int local, String field) {
+        m.local(ClassFileWriter.ALOAD, 0);
+        m.field(ClassFileWriter.GETFIELD, CONTEXT, field, "I");
+        m.local(ClassFileWriter.ISTORE, local);
+    }
+
+    private static void store(MethodWriter m, int local, String field) {
+        m.local(ClassFileWriter.ALOAD, 0);
+        m.local(ClassFileWriter.ILOAD, local);
+        m.field(ClassFileWriter.PUTFIELD, CONTEXT, field, "I");
+    }
+
+    /**
+     * Write the state back to the context, before a call or a return.
+     */
+    private static void spill(MethodWriter m, Locals l) {
+        store(m, l.count, "count");
+        store(m, l.pvt, "pvt");
+        store(m, l.tvt, "tvt");
+    }
+
+    private static void reload(MethodWriter m, Locals l) {
+        load(m, l.count, "count");
+        load(m, l.pvt, "pvt");
+        load(m, l.tvt, "tvt");
+    }
+
+    private static void fail(MethodWriter m, String message) {
+        m.type(ClassFileWriter.NEW, EXCEPTION);
+        m.op(ClassFileWriter.DUP);
+        m.pushString(message);
+        m.method(ClassFileWriter.INVOKESPECIAL, EXCEPTION, "<init>", "(Ljava/lang/String;)V");
+        m.op(ClassFileWriter.ATHROW);
+    }
+
+    /**
+     * Returns true if an instruction must be the last one counted before
+     * the opcode limit is checked again.
+     */
+    private static boolean endsRun(int op) {
+        switch (op) {
+            case PerlstoneProgram.CALL:
+            case PerlstoneProgram.TAIL:
+            case PerlstoneProgram.CALL_MISSING:
+            case PerlstoneProgram.TAIL_MISSING:
+            case PerlstoneProgram.JUMP_FALSE:
+            case PerlstoneProgram.JUMP_TRUE:
+            case PerlstoneProgram.STOP:
+            case PerlstoneProgram.RETURN:
+                return true;
+        }
+        return false;
+    }
+
+    private static void writeVariant(MethodWriter m, String owner, PerlstoneProgram program,
+            Map<Integer,Variant> variants, Variant v, Label[] at, Locals l, Label deopt, boolean checked) {
+        int[] code = program.getFunction(v.function);
+        int[] depth = v.depth;
+
+        // Runs of opcodes start at the start, after anything that ends a
+        // run and at jump targets
+        boolean[] starts = new boolean[code.length + 1];
+        starts[0] = true;
+        for (int pc = 0; pc < code.length; pc++) {
+            int op = code[pc] & 0xFF;
+            if (endsRun(op)) starts[pc + 1] = true;
+            if (op == PerlstoneProgram.JUMP_FALSE || op == PerlstoneProgram.JUMP_TRUE) starts[code[pc] >>> 8] = true;
+        }
+
+        for (int pc = 0; pc <= code.length; pc++) {
+            int d = depth[pc];
+            if (d < 0) continue;
+            m.mark(at[pc]);
+
+            if (checked && starts[pc] && pc < code.length) {
+                // Count the whole run now. If the limit is within it, the
+                // interpreter finds the exact opcode.
+                int run = 1;
+                while (pc + run < code.length && !starts[pc + run]) run++;
+                m.local(ClassFileWriter.ILOAD, l.count);
+                m.push(run);
+                m.op(ClassFileWriter.IADD);
+                m.local(ClassFileWriter.ISTORE, l.count);
+                m.local(ClassFileWriter.ILOAD, l.count);
+                m.push(PerlstoneProgram.OPCODE_LIMIT);
+                m.branch(ClassFileWriter.IF_ICMPGE, deopt);
+            }
+
+            if (pc == code.length) {
+                spill(m, l);
+                m.push(PerlstoneInterpreter.NO_VALUE);
+                m.op(ClassFileWriter.IRETURN);
+                continue;
+            }
+
+            int op = code[pc] & 0xFF;
+            int arg = code[pc] >>> 8;
+            switch (op) {
+                case PerlstoneProgram.PUSH_TRUE:
+                case PerlstoneProgram.PUSH_FALSE:
+                    m.push(op == PerlstoneProgram.PUSH_TRUE ? 1 : 0);
+                    m.local(ClassFileWriter.ISTORE, l.stack(d));
+                    break;
+                case PerlstoneProgram.INPUT:
+                    Label present = new Label();
+                    m.push(arg);
+                    m.local(ClassFileWriter.ILOAD, l.numInputs);
+                    m.branch(ClassFileWriter.IF_ICMPLT, present);
+                    fail(m, "premature end");
+                    m.mark(present);
+                    m.resolve(present);
+                    m.local(ClassFileWriter.ILOAD, l.inputs);
+                    m.push(arg);
+                    m.op(ClassFileWriter.ISHR);
+                    m.push(1);
+                    m.op(ClassFileWriter.IAND);
+                    m.local(ClassFileWriter.ISTORE, l.stack(d));
+                    break;
+
+                case PerlstoneProgram.STORE_P:
+                case PerlstoneProgram.STORE_T:
+                case PerlstoneProgram.STORE_L:
+                    if (d < 1) {
+                        fail(m, "read empty stack");
+                        break;
+                    }
+                    int table = op == PerlstoneProgram.STORE_P ? l.pvt : op == PerlstoneProgram.STORE_T ? l.tvt : l.lvt;
+                    m.local(ClassFileWriter.ILOAD, table);
+                    m.push(~(0x80000000 >>> arg));
+                    m.op(ClassFileWriter.IAND);
+                    m.local(ClassFileWriter.ILOAD, l.stack(d - 1));
+                    m.push(31 - arg);
+                    m.op(ClassFileWriter.ISHL);
+                    m.op(ClassFileWriter.IOR);
+                    m.local(ClassFileWriter.ISTORE, table);
+                    break;
+                case PerlstoneProgram.LOAD_P:
+                case PerlstoneProgram.LOAD_T:
+                case PerlstoneProgram.LOAD_L:
+                    table = op == PerlstoneProgram.LOAD_P ? l.pvt : op == PerlstoneProgram.LOAD_T ? l.tvt : l.lvt;
+                    m.local(ClassFileWriter.ILOAD, table);
+                    m.push(31 - arg);
+                    m.op(ClassFileWriter.IUSHR);
+                    m.push(1);
+                    m.op(ClassFileWriter.IAND);
+                    m.local(ClassFileWriter.ISTORE, l.stack(d));
+                    break;
+
+                case PerlstoneProgram.DUP:
+                case PerlstoneProgram.PICK:
+                    int from = op == PerlstoneProgram.DUP ? 0 : arg;
+                    if (d < from + 1) {
+                        fail(m, op == PerlstoneProgram.DUP ? "read empty stack" : "stack too small");
+                        break;
+                    }
+                    m.local(ClassFileWriter.ILOAD, l.stack(d - 1 - from));
+                    m.local(ClassFileWriter.ISTORE, l.stack(d));
+                    break;
+                case PerlstoneProgram.POP:
+                    if (d < 1) fail(m, "read empty stack");
+                    break;
+
+                case PerlstoneProgram.NOT:
+                    if (d < 1) {
+                        fail(m, "read empty stack");
+                        break;
+                    }
+                    m.local(ClassFileWriter.ILOAD, l.stack(d - 1));
+                    m.push(1);
+                    m.op(ClassFileWriter.IXOR);
+                    m.local(ClassFileWriter.ISTORE, l.stack(d - 1));
+                    break;
+                case PerlstoneProgram.XOR:
+                case PerlstoneProgram.AND:
+                case PerlstoneProgram.OR:
+                case PerlstoneProgram.EQUALS:
+                    if (d < 2) {
+                        fail(m, "read empty stack");
+                        break;
+                    }
+                    m.local(ClassFileWriter.ILOAD, l.stack(d - 2));
+                    m.local(ClassFileWriter.ILOAD, l.stack(d - 1));
+                    if (op == PerlstoneProgram.AND) {
+                        m.op(ClassFileWriter.IAND);
+                    } else if (op == PerlstoneProgram.OR) {
+                        m.op(ClassFileWriter.IOR);
+                    } else {
+                        m.op(ClassFileWriter.IXOR);
+                        if (op == PerlstoneProgram.EQUALS) {
+                            m.push(1);
+                            m.op(ClassFileWriter.IXOR);
+                        }
+                    }
+                    m.local(ClassFileWriter.ISTORE, l.stack(d - 2));
+                    break;
+                case PerlstoneProgram.TABLE:
+                    if (d < 2) {
+                        fail(m, "read empty stack");
+                        break;
+                    }
+                    m.push(arg);
+                    m.local(ClassFileWriter.ILOAD, l.stack(d - 1));
+                    m.local(ClassFileWriter.ILOAD, l.stack(d - 2));
+                    m.push(1);
+                    m.op(ClassFileWriter.ISHL);
+                    m.op(ClassFileWriter.IOR);
+                    m.op(ClassFileWriter.ISHR);
+                    m.push(1);
+                    m.op(ClassFileWriter.IAND);
+                    m.local(ClassFileWriter.ISTORE, l.stack(d - 2));
+                    break;
+
+                case PerlstoneProgram.CALL:
+                    int numArgs = arg & 0xF;
+                    if (d < numArgs) {
+                        fail(m, "read empty stack");
+                        break;
+                    }
+                    Variant callee = variants.get(key(arg >> 4, numArgs));
+                    spill(m, l);
+                    m.local(ClassFileWriter.ALOAD, 0);
+                    m.local(ClassFileWriter.ILOAD, 1);
+                    m.push(1);
+                    m.op(ClassFileWriter.IADD);
+                    for (int i = d - numArgs; i < d; i++) m.local(ClassFileWriter.ILOAD, l.stack(i));
+                    m.method(ClassFileWriter.INVOKESTATIC, owner, callee.methodName(), callee.descriptor());
+                    if (callee.gives == GIVES_VALUE) {
+                        m.local(ClassFileWriter.ISTORE, l.stack(d - numArgs));
+                        reload(m, l);
+                    } else {
+                        m.op(ClassFileWriter.POP);
+                        reload(m, l);
+                        // Nothing comes after a call that never returns
+                        if (callee.gives == 0) m.branch(ClassFileWriter.GOTO, deopt);
+                    }
+                    break;
+                case PerlstoneProgram.CALL_MISSING:
+                    fail(m, d < arg ? "read empty stack" : "premature end");
+                    break;
+                case PerlstoneProgram.TAIL:
+                    numArgs = arg & 0xF;
+                    if (d < numArgs) {
+                        fail(m, "read empty stack");
+                        break;
+                    }
+                    callee = variants.get(key(arg >> 4, numArgs));
+                    for (int i = 0; i < numArgs; i++) {
+                        m.local(ClassFileWriter.ILOAD, l.stack(d - numArgs + i));
+                        m.local(ClassFileWriter.ISTORE, l.stack(i));
+                    }
+                    m.push(0);
+                    m.local(ClassFileWriter.ISTORE, l.lvt);
+                    m.branch(ClassFileWriter.GOTO, callee.start);
+                    break;
+                case PerlstoneProgram.TAIL_MISSING:
+                    fail(m, "premature end");
+                    break;
+
+                case PerlstoneProgram.JUMP_FALSE:
+                case PerlstoneProgram.JUMP_TRUE:
+                    if (d < 1) {
+                        fail(m, "read empty stack");
+                        break;
+                    }
+                    m.local(ClassFileWriter.ILOAD, l.stack(d - 1));
+                    m.branch(op == PerlstoneProgram.JUMP_FALSE ? ClassFileWriter.IFEQ : ClassFileWriter.IFNE, at[arg]);
+                    break;
+
+                case PerlstoneProgram.STOP:
+                    spill(m, l);
+                    m.push(PerlstoneInterpreter.NO_VALUE);
+                    m.op(ClassFileWriter.IRETURN);
+                    break;
+                case PerlstoneProgram.RETURN:
+                    if (d < 1) {
+                        fail(m, "read empty stack");
+                        break;
+                    }
+                    spill(m, l);
+                    m.local(ClassFileWriter.ILOAD, l.stack(d - 1));
+                    m.op(ClassFileWriter.IRETURN);
+                    break;
+
+                default:
+                    fail(m, "unknown opcode");
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*    
+Craftbook
+Copyright (C) 2010 Lymia <lymiahugs@gmail.com>
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package lymia.perlstone;
+
+/**
+ * A Perlstone program compiled to bytecode. Each function is an array of
+ * instructions, one int each, with the opcode in the low 8 bits and the
+ * operand above them. Jump targets, called functions and argument counts
+ * are worked out when the program is compiled.
+ * 
+ * @author Lymia
+ */
+public final class PerlstoneProgram {
+    /** Push true. */
+    static final int PUSH_TRUE = 0;
+    /** Push false. */
+    static final int PUSH_FALSE = 1;
+    /** Push an input. Operand: input index. */
+    static final int INPUT = 2;
+    /** Pop into a persistent variable. Operand: variable index. */
+    static final int STORE_P = 3;
+    /** Pop into a temporary variable. Operand: variable index. */
+    static final int STORE_T = 4;
+    /** Pop into a local variable. Operand: variable index. */
+    static final int STORE_L = 5;
+    /** Push a persistent variable. Operand: variable index. */
+    static final int LOAD_P = 6;
+    /** Push a temporary variable. Operand: variable index. */
+    static final int LOAD_T = 7;
+    /** Push a local variable. Operand: variable index. */
+    static final int LOAD_L = 8;
+    /** Push the top of the stack again. */
+    static final int DUP = 9;
+    /** Pop and discard. */
+    static final int POP = 10;
+    /** Push a copy of an entry below the top. Operand: depth. */
+    static final int PICK = 11;
+    static final int NOT = 12;
+    static final int XOR = 13;
+    static final int AND = 14;
+    static final int OR = 15;
+    static final int EQUALS = 16;
+    /**
+     * Pop two values and push an entry of a truth table. Operand: the
+     * table, with bit n giving the result for entry n.
+     */
+    static final int TABLE = 17;
+    /** Call a function. Operand: function index << 4 | argument count. */
+    static final int CALL = 18;
+    /** Replace this call by a call to a function. Same operand as CALL. */
+    static final int TAIL = 19;
+    /** Call a function that does not exist. Operand: argument count. */
+    static final int CALL_MISSING = 20;
+    /** Tail call a function that does not exist. Operand: argument count. */
+    static final int TAIL_MISSING = 21;
+    /** Pop and jump if false. Operand: target instruction. */
+    static final int JUMP_FALSE = 22;
+    /** Pop and jump if true. Operand: target instruction. */
+    static final int JUMP_TRUE = 23;
+    /** Return nothing. */
+    static final int STOP = 24;
+    /** Pop and return. */
+    static final int RETURN = 25;
+
+    /**
+     * Limit on the opcodes run for each output. The opcode that reaches
+     * it fails with "opcode limit" instead of running.
+     */
+    public static final int OPCODE_LIMIT = 25000;
+
+    /**
+     * Results of a stateless program for each combination of inputs,
+     * with a given number of inputs.
+     */
+    static final class TruthTable {
+        /**
+         * Outputs, with output n in bit n, by inputs with input n in bit n.
+         */
+        private final int[] outputs = new int[8];
+        /**
+         * Error messages, by inputs, or null.
+         */
+        private final String[] errors = new String[8];
+
+        private TruthTable(PerlstoneProgram program, int numInputs) {
+            PerlstoneInterpreter interpreter = PerlstoneInterpreter.get();
+            for (int input = 0; input < 8; input++) {
+                interpreter.reset(0);
+                try {
+                    for (int i = 0; i < 3 && i < program.getFunctionCount(); i++) {
+                        if (interpreter.run(program, i, input, numInputs) == 1) outputs[input] |= 1 << i;
+                    }
+                } catch (PerlstoneException e) {
+                    errors[input] = e.getMessage();
+                }
+            }
+        }
+
+        /**
+         * Get the outputs for some inputs.
+         * 
+         * @param input input n in bit n
+         * @return output n in bit n
+         * @throws PerlstoneException if the program fails with these inputs
+         */
+        int get(int input) throws PerlstoneException {
+            if (errors[input] != null) throw new PerlstoneException(errors[input]);
+            return outputs[input];
+        }
+    }
+
+    private final int[][] functions;
+    private final PerlstoneAnalysis analysis;
+    private final TruthTable[] tables;
+    private int runs;
+    private volatile PerlstoneJit.Code jitCode;
+    private volatile boolean jitFailed;
+
+    PerlstoneProgram(int[][] functions) {
+        this.functions = functions;
+        analysis = PerlstoneAnalysis.analyse(functions);
+        tables = analysis.isStateless() ? new TruthTable[4] : null;
+    }
+
+    /**
+     * Get what is known about the program without running it.
+     * 
+     * @return
+     */
+    PerlstoneAnalysis getAnalysis() {
+        return analysis;
+    }
+
+    /**
+     * Get the truth table of a stateless program. Tables are worked out
+     * the first time that they are needed, for each number of inputs.
+     * 
+     * @param numInputs
+     * @return table, or null if the program is not stateless
+     */
+    TruthTable getTruthTable(int numInputs) {
+        if (tables == null) return null;
+        // Only inputs A to C can be read
+        int n = Math.min(3, numInputs);
+        TruthTable table = tables[n];
+        if (table == null) {
+            // Fields of the table are final, so it can be shared safely
+            tables[n] = table = new TruthTable(this, n);
+        }
+        return table;
+    }
+
+    /**
+     * Count a run of the program, and get its JVM code once it has run
+     * often enough to be compiled.
+     * 
+     * @return compiled code, or null to interpret the program
+     */
+    PerlstoneJit.Code countRun() {
+        PerlstoneJit.Code code = jitCode;
+        if (code != null || jitFailed) return code;
+
+        int threshold = PerlstoneJit.getThreshold();
+        if (threshold == 0 || ++runs < threshold) return null;
+
+        synchronized (this) {
+            if (jitCode == null && !jitFailed) {
+                jitCode = PerlstoneJit.compile(this);
+                jitFailed = jitCode == null;
+            }
+            return jitCode;
+        }
+    }
+
+    /**
+     * Get the number of functions. Functions 0 to 2 give the outputs.
+     * 
+     * @return
+     */
+    public int getFunctionCount() {
+        return functions.length;
+    }
+
+    /**
+     * Get the bytecode of a function. The array must not be changed.
+     * 
+     * @param n
+     * @return
+     */
+    int[] getFunction(int n) {
+        return functions[n];
+    }
+}
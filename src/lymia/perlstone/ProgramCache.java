@@ -0,0 +1,83 @@
+/*    
+Craftbook
+Copyright (C) 2010 Lymia <lymiahugs@gmail.com>
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package lymia.perlstone;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compiled programs by source. The same program is usually run again and
+ * again, often from the very same string, so the last one is checked by
+ * identity before the map is used. Programs that fail to compile are
+ * cached with their error.
+ * 
+ * @author Lymia
+ */
+final class ProgramCache {
+    private static final int MAX_SIZE = 256;
+
+    private static final class Entry {
+        final PerlstoneProgram program;
+        final String error;
+
+        Entry(PerlstoneProgram program, String error) {
+            this.program = program;
+            this.error = error;
+        }
+    }
+
+    private final Map<String,Entry> entries = new LinkedHashMap<String,Entry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<String,Entry> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+    private String lastSource;
+    private Entry lastEntry;
+
+    /**
+     * Get the compiled form of a program.
+     * 
+     * @param program source
+     * @return
+     * @throws PerlstoneException if the program does not compile
+     */
+    synchronized PerlstoneProgram get(String program) throws PerlstoneException {
+        Entry entry;
+        if (program == lastSource) {
+            entry = lastEntry;
+        } else {
+            entry = entries.get(program);
+            if (entry == null) {
+                try {
+                    entry = new Entry(PerlstoneCompiler.compile(program), null);
+                } catch (PerlstoneException e) {
+                    entry = new Entry(null, e.getMessage());
+                }
+                entries.put(program, entry);
+            }
+            lastSource = program;
+            lastEntry = entry;
+        }
+
+        if (entry.error != null) throw new PerlstoneException(entry.error);
+        return entry.program;
+    }
+}
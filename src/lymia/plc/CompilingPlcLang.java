@@ -0,0 +1,37 @@
+/*    
+Craftbook
+Copyright (C) 2010 Lymia <lymiahugs@gmail.com>
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package lymia.plc;
+
+/**
+ * A language that can compile a program once and then run the compiled
+ * form, instead of working from the source on every tick.
+ * 
+ * @author Lymia
+ */
+public interface CompilingPlcLang extends PlcLang {
+    /**
+     * Compile a program.
+     * 
+     * @param program source
+     * @return compiled form, to be passed to {@link #tick(State, Object)}
+     * @throws PlcException if the program is not valid
+     */
+    Object compile(String program) throws PlcException;
+    boolean[] tick(State s, Object compiled) throws PlcException;
+}
@@ -21,8 +21,6 @@ package lymia.plc;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 
-import lymia.util.Base64;
-
 import com.sk89q.craftbook.SignText;
 import com.sk89q.craftbook.Vector;
 import com.sk89q.craftbook.ic.BaseIC;
@@ -36,38 +34,48 @@ public abstract class PlcBase extends BaseIC {
     }
 
     public void think(ChipState chip) {
+        Evaluation evaluation = prepare(chip);
+        if(evaluation==null) return;
+        evaluation.run();
+        evaluation.apply(chip);
+    }
+    
+    /**
+     * Read what a tick of the PLC needs from the chip. The program can then
+     * be run with {@link Evaluation#run()} on any thread, and the results
+     * applied to the chip with {@link Evaluation#apply(ChipState)}.
+     * 
+     * @param chip
+     * @return evaluation, or null if an error was written to the sign
+     */
+    public Evaluation prepare(ChipState chip) {
         SignText t = chip.getText();
         
-        String code;
+        PlcProgram program;
         try {
-            code = getCode(chip.getPosition());
+            program = getProgram(chip.getPosition());
         } catch (PlcException e) {
-            t.setLine2("§c"+t.getLine2());
-            t.setLine3("!ERROR!");
-            t.setLine4("code not found");
-            return;
+            error(chip, "code not found");
+            return null;
         }
         
-        if(!t.getLine3().equals("HASH:"+Integer.toHexString(code.hashCode()))) {
-            t.setLine2("§c"+t.getLine2());
-            t.setLine3("!ERROR!");
-            t.setLine4("code modified");
-            return;
+        if(!t.getLine3().equals(program.getHashLine())) {
+            error(chip, "code modified");
+            return null;
         }
         
-        byte[] presistantStorage;
-        try {
-            presistantStorage = Base64.decode(t.getLine4().getBytes("UTF-8"));
+        // Storage is kept in memory, and only read from the sign when it
+        // is not there or the sign was changed behind our back
+        PlcState state = chip.getState() instanceof PlcState ? (PlcState)chip.getState() : null;
+        if(state==null || !state.matches(t.getLine4())) try {
+            state = PlcState.read(t.getLine4());
+            chip.setState(state);
         } catch (UnsupportedEncodingException e) {
-            t.setLine2("§c"+t.getLine2());
-            t.setLine3("!ERROR!");
-            t.setLine4("no utf-8");
-            return;
+            error(chip, "no utf-8");
+            return null;
         } catch (IOException e) {
-            t.setLine2("§c"+t.getLine2());
-            t.setLine3("!ERROR!");
-            t.setLine4("unknown error");
-            return;
+            error(chip, "unknown error");
+            return null;
         }
         
         State s = new State();
@@ -75,39 +83,82 @@ public abstract class PlcBase extends BaseIC {
         s.input = new boolean[in.length];
         for(int i=0;i<in.length;i++) s.input[i] = in[i].is();
         
-        s.presistantStorage = presistantStorage;
+        s.presistantStorage = state.storage;
         
-        boolean[] output;
-        try {
-            output = language.tick(s, code);
-        } catch (PlcException e) {
-            t.setLine2("§c"+t.getLine2());
-            t.setLine3("!ERROR!");
-            t.setLine4(e.getMessage());
-            return;
-        } catch (Throwable r) {
-            t.setLine2("§c"+t.getLine2());
-            t.setLine3("!ERROR!");
-            t.setLine4(r.getClass().getSimpleName());
-            return;
-        }
+        return new Evaluation(language, program, state, s);
+    }
+    
+    /**
+     * A tick of a PLC, with its inputs and storage already read.
+     * 
+     * @author Lymia
+     */
+    public static final class Evaluation {
+        private final PlcLang language;
+        private final PlcProgram program;
+        private final PlcState state;
+        private final State s;
+        private boolean[] output;
+        private boolean failed;
+        private String error;
         
-        t.setLine4(Base64.encodeBytes(s.presistantStorage));
+        private Evaluation(PlcLang language, PlcProgram program, PlcState state, State s) {
+            this.language = language;
+            this.program = program;
+            this.state = state;
+            this.s = s;
+        }
         
-        try {
-            for(int i=0;i<output.length;i++) {
-                Signal out = chip.getOut(i+1);
-                if(out==null) break;
-                out.set(output[i]);
+        /**
+         * Run the program. Only the storage of this PLC is changed, so
+         * evaluations of different PLCs can run at the same time.
+         */
+        public void run() {
+            try {
+                output = program.tick(language, s);
+            } catch (PlcException e) {
+                failed = true;
+                error = e.getMessage();
+            } catch (Throwable r) {
+                failed = true;
+                error = r.getClass().getSimpleName();
             }
-        } catch(ArrayIndexOutOfBoundsException e) {
-            t.setLine2("§c"+t.getLine2());
-            t.setLine3("!ERROR!");
-            t.setLine4("too many outputs");
-            return;
         }
         
-        t.supressUpdate();
+        /**
+         * Set the outputs of the chip, or write the error to its sign.
+         * 
+         * @param chip
+         */
+        public void apply(ChipState chip) {
+            if(failed) {
+                error(chip, error);
+                return;
+            }
+            
+            // Written to the sign later
+            if(state.update()) chip.setStateChanged();
+            
+            try {
+                for(int i=0;i<output.length;i++) {
+                    Signal out = chip.getOut(i+1);
+                    if(out==null) break;
+                    out.set(output[i]);
+                }
+            } catch(ArrayIndexOutOfBoundsException e) {
+                error(chip, "too many outputs");
+                return;
+            }
+        }
+    }
+    
+    private static void error(ChipState chip, String message) {
+        SignText t = chip.getText();
+        t.setLine2("§c"+t.getLine2());
+        t.setLine3("!ERROR!");
+        t.setLine4(message);
+        // The message takes the place of the storage on the sign
+        chip.setState(null);
     }
     
     public String validateEnvironment(Vector v, SignText t) {
@@ -121,7 +172,7 @@ public abstract class PlcBase extends BaseIC {
             return "Code block not found.";
         }
         
-        t.setLine3("HASH:"+Integer.toHexString(code.hashCode()));
+        t.setLine3(PlcProgram.getHashLine(code));
         t.setLine4("AAAAAAAAAAAA");
         
         return validateEnviromentEx(v,t);
@@ -129,5 +180,12 @@ public abstract class PlcBase extends BaseIC {
     
     protected abstract String validateEnviromentEx(Vector v, SignText t);
     protected abstract String getCode(Vector v) throws PlcException;
+    /**
+     * Get the code to run with its hash and compiled form. Subclasses
+     * that can tell when their code changes should keep the result.
+     */
+    protected PlcProgram getProgram(Vector v) throws PlcException {
+        return new PlcProgram(getCode(v));
+    }
     protected PlcLang getLanguage() {return language;}
 }
@@ -0,0 +1,118 @@
+/*    
+Craftbook
+Copyright (C) 2010 Lymia <lymiahugs@gmail.com>
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package lymia.plc;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs batches of PLC evaluations on a fixed number of threads. A batch
+ * is split into slices of at least {@link #GRAIN} evaluations, and the
+ * calling thread waits until all of them have run. Small batches are run
+ * on the calling thread.
+ * 
+ * @author Lymia
+ */
+public final class PlcEvaluator {
+    /**
+     * Smallest number of evaluations given to a thread.
+     */
+    public static final int GRAIN = 64;
+    
+    private ForkJoinPool pool;
+    private int threads = 1;
+    
+    /**
+     * Set the number of threads. The old threads are stopped.
+     * 
+     * @param threads number of threads, or 1 to run on the calling thread
+     */
+    public void setThreads(int threads) {
+        threads = Math.max(1, threads);
+        if (threads == this.threads) return;
+        shutdown();
+        this.threads = threads;
+        if (threads > 1) pool = new ForkJoinPool(threads, WORKERS, null, false);
+    }
+    
+    public int getThreads() {
+        return threads;
+    }
+    
+    /**
+     * Run evaluations and wait for them.
+     * 
+     * @param batch
+     * @param count number of evaluations at the start of the batch to run
+     */
+    public void evaluate(PlcBase.Evaluation[] batch, int count) {
+        if (pool == null || count < GRAIN * 2) {
+            for (int i = 0; i < count; i++) batch[i].run();
+            return;
+        }
+        // Enough slices for each thread to take a few, so that they finish together
+        int slice = Math.max(GRAIN, count / (threads * 4));
+        pool.invoke(new Slice(batch, 0, count, slice));
+    }
+    
+    /**
+     * Stop the threads. Batches are then run on the calling thread.
+     */
+    public void shutdown() {
+        if (pool != null) pool.shutdown();
+        pool = null;
+        threads = 1;
+    }
+    
+    private static final class Slice extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private final PlcBase.Evaluation[] batch;
+        private final int from;
+        private final int to;
+        private final int slice;
+        
+        Slice(PlcBase.Evaluation[] batch, int from, int to, int slice) {
+            this.batch = batch;
+            this.from = from;
+            this.to = to;
+            this.slice = slice;
+        }
+        
+        protected void compute() {
+            if (to - from <= slice) {
+                for (int i = from; i < to; i++) batch[i].run();
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Slice(batch, from, middle, slice), new Slice(batch, middle, to, slice));
+        }
+    }
+    
+    private static final ForkJoinPool.ForkJoinWorkerThreadFactory WORKERS =
+            new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("CraftBook PLC " + t.getPoolIndex());
+            t.setDaemon(true);
+            return t;
+        }
+    };
+}
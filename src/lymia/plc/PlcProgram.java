@@ -0,0 +1,84 @@
+/*    
+Craftbook
+Copyright (C) 2010 Lymia <lymiahugs@gmail.com>
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package lymia.plc;
+
+/**
+ * The code of a PLC with what is worked out from it once: the hash that
+ * its sign must show and, for languages that compile, the compiled form.
+ * 
+ * @author Lymia
+ */
+public final class PlcProgram {
+    private static final class Compiled {
+        final PlcLang language;
+        final Object form;
+
+        Compiled(PlcLang language, Object form) {
+            this.language = language;
+            this.form = form;
+        }
+    }
+
+    private final String code;
+    private final String hashLine;
+    private volatile Compiled compiled;
+
+    public PlcProgram(String code) {
+        this.code = code;
+        hashLine = getHashLine(code);
+    }
+
+    /**
+     * Get the line 3 of a PLC sign for some code.
+     * 
+     * @param code
+     * @return
+     */
+    public static String getHashLine(String code) {
+        return "HASH:"+Integer.toHexString(code.hashCode());
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public String getHashLine() {
+        return hashLine;
+    }
+
+    /**
+     * Run the program, compiling it the first time if the language can.
+     * Programs that fail to compile are tried again on the next tick.
+     * 
+     * @param language
+     * @param s
+     * @return outputs
+     * @throws PlcException
+     */
+    public boolean[] tick(PlcLang language, State s) throws PlcException {
+        if (!(language instanceof CompilingPlcLang)) return language.tick(s, code);
+
+        CompilingPlcLang compiling = (CompilingPlcLang)language;
+        Compiled c = compiled;
+        if (c == null || c.language != language) {
+            compiled = c = new Compiled(language, compiling.compile(code));
+        }
+        return compiling.tick(s, c.form);
+    }
+}
@@ -0,0 +1,104 @@
+/*    
+Craftbook
+Copyright (C) 2010 Lymia <lymiahugs@gmail.com>
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package lymia.plc;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import lymia.util.Base64;
+
+import com.sk89q.craftbook.SignText;
+import com.sk89q.craftbook.ic.ICState;
+
+/**
+ * Persistent storage of a PLC, kept decoded in memory between ticks. It
+ * is encoded to line 4 of the sign only when it has changed, when IC
+ * state is written out.
+ * 
+ * @author Lymia
+ */
+class PlcState implements ICState {
+    /**
+     * Storage that the language reads and changes.
+     */
+    final byte[] storage;
+    /**
+     * Storage as it is on the sign.
+     */
+    private final byte[] written;
+    /**
+     * Line 4 of the sign as read or last written.
+     */
+    private String line4;
+    /**
+     * Indicates whether the storage has changed since it was written.
+     */
+    private boolean pending;
+
+    private PlcState(String line4, byte[] storage) {
+        this.line4 = line4;
+        this.storage = storage;
+        this.written = storage.clone();
+    }
+
+    /**
+     * Read the storage from line 4 of a sign.
+     * 
+     * @param line4
+     * @return
+     * @throws IOException if the line is not valid
+     */
+    static PlcState read(String line4) throws IOException {
+        PlcState state = new PlcState(line4, Base64.decode(line4.getBytes("UTF-8")));
+        // Make sure the sign ends up showing exactly what is in memory
+        state.pending = !Base64.encodeBytes(state.storage).equals(line4);
+        return state;
+    }
+
+    /**
+     * Returns true if the sign still shows this storage, or shows older
+     * storage that is yet to be written. Otherwise the sign was changed
+     * behind our back, such as by a restore, and must be read again.
+     * 
+     * @param line4
+     * @return
+     */
+    boolean matches(String line4) {
+        return pending || line4.equals(this.line4);
+    }
+
+    /**
+     * Check whether a tick changed the storage.
+     * 
+     * @return true if the storage has to be written
+     */
+    boolean update() {
+        if (!pending && !Arrays.equals(storage, written)) {
+            pending = true;
+        }
+        return pending;
+    }
+
+    public void write(SignText text) {
+        line4 = Base64.encodeBytes(storage);
+        System.arraycopy(storage, 0, written, 0, storage.length);
+        pending = false;
+        text.setLine4(line4);
+    }
+}